@@ -4,6 +4,7 @@ import java.time.LocalDate;
 
 import jakarta.validation.Valid;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 
@@ -12,6 +13,8 @@ import org.springframework.web.bind.annotation.*;
 public
 class ValidationController {
 
+	static final String SMILE_VALUE = "application/x-jackson-smile";
+
 	private
 	boolean isDataValid( ValidationRequest request ) {
 
@@ -21,7 +24,7 @@ class ValidationController {
 		                                                            .isBefore( LocalDate.now( ) );
 	}
 
-	@PostMapping
+	@PostMapping(consumes = { MediaType.APPLICATION_JSON_VALUE, MediaType.APPLICATION_CBOR_VALUE, SMILE_VALUE }, produces = { MediaType.APPLICATION_JSON_VALUE, MediaType.APPLICATION_CBOR_VALUE, SMILE_VALUE })
 	public
 	ResponseEntity< ValidationResponse > validate( @Valid @RequestBody ValidationRequest request ) {
 
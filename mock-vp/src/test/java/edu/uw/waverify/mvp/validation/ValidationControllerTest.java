@@ -1,5 +1,8 @@
 package edu.uw.waverify.mvp.validation;
 
+import java.util.Map;
+
+import com.fasterxml.jackson.dataformat.cbor.databind.CBORMapper;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
@@ -8,6 +11,7 @@ import org.springframework.http.MediaType;
 import org.springframework.test.web.servlet.MockMvc;
 import org.springframework.test.web.servlet.request.MockMvcRequestBuilders;
 
+import static org.junit.jupiter.api.Assertions.*;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.*;
 
 @SpringBootTest
@@ -53,4 +57,33 @@ class ValidationControllerTest {
 		       .andExpect( jsonPath( "$.valid" ).value( true ) );
 	}
 
+	@Test
+	void shouldNegotiateCbor( ) throws Exception {
+
+		var cbor        = new CBORMapper( );
+		var requestBody = cbor.writeValueAsBytes( Map.of( "firstName", "John", "lastName", "Doe", "dateOfBirth", "1990-01-01" ) );
+
+		var response = mockMvc.perform( MockMvcRequestBuilders.post( "/api/validation" )
+		                                                      .contentType( MediaType.APPLICATION_CBOR )
+		                                                      .accept( MediaType.APPLICATION_CBOR )
+		                                                      .content( requestBody ) )
+		                      .andExpect( status( ).isOk( ) )
+		                      .andExpect( content( ).contentType( MediaType.APPLICATION_CBOR ) )
+		                      .andReturn( )
+		                      .getResponse( )
+		                      .getContentAsByteArray( );
+
+		assertTrue( cbor.readTree( response )
+		                .get( "valid" )
+		                .asBoolean( ) );
+	}
+
+	@Test
+	void shouldReportHealth( ) throws Exception {
+
+		mockMvc.perform( MockMvcRequestBuilders.get( "/actuator/health" ) )
+		       .andExpect( status( ).isOk( ) )
+		       .andExpect( jsonPath( "$.status" ).value( "UP" ) );
+	}
+
 }
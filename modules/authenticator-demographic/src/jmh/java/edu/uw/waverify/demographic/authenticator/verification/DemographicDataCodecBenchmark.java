@@ -0,0 +1,105 @@
+package edu.uw.waverify.demographic.authenticator.verification;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.cbor.databind.CBORMapper;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Compares the streaming verification codec with the previous {@link ObjectMapper} map round trip.
+ * <p>
+ * The streaming and CBOR encoders write into a reused stream, as they write into the HTTP entity stream in production,
+ * so only the codec's own allocations are measured.
+ * </p>
+ * <p>
+ * Run with {@code ./gradlew :authenticator-demographic:jmh}; the {@code gc} profiler reports the allocation rate per
+ * operation ({@code gc.alloc.rate.norm}). The {@code Cbor} variants measure the same calls with the CBOR
+ * {@link WireFormat}. Encoded sizes do not vary between runs and are checked by {@code DemographicDataCodecTest}
+ * instead.
+ * </p>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public
+class DemographicDataCodecBenchmark {
+
+	private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper( );
+
+	private final ByteArrayOutputStream out = new ByteArrayOutputStream( 256 );
+
+	private DemographicData       data;
+	private Map< String, String > demographics;
+	private String                response;
+	private byte[]                cborResponse;
+
+	@Setup
+	public
+	void setUp( ) throws IOException {
+
+		data = new DemographicData( "Jane", "Doe", "1990-01-01", "jane@example.com", null );
+		demographics = new LinkedHashMap<>( );
+		demographics.put( "firstName", data.getFirstName( ) );
+		demographics.put( "lastName", data.getLastName( ) );
+		demographics.put( "dateOfBirth", data.getDateOfBirth( ) );
+		response = "{\"valid\":true,\"matches\":[{\"id\":1,\"score\":0.98}],\"message\":\"ok\"}";
+		cborResponse = new CBORMapper( ).writeValueAsBytes( OBJECT_MAPPER.readTree( response ) );
+	}
+
+	@Benchmark
+	public
+	byte[] encodeObjectMapper( ) throws IOException {
+
+		return OBJECT_MAPPER.writeValueAsString( demographics )
+		                    .getBytes( StandardCharsets.UTF_8 );
+	}
+
+	@Benchmark
+	public
+	int encodeStreaming( ) throws IOException {
+
+		out.reset( );
+		DemographicDataCodec.write( data, out );
+		return out.size( );
+	}
+
+	@Benchmark
+	public
+	boolean decodeObjectMapper( ) throws IOException {
+
+		Map< String, Object > decoded = OBJECT_MAPPER.readValue( response, new TypeReference<>( ) { } );
+		return Boolean.TRUE.equals( decoded.get( "valid" ) );
+	}
+
+	@Benchmark
+	public
+	boolean decodeStreaming( ) throws IOException {
+
+		return DemographicDataCodec.readValid( response );
+	}
+
+	@Benchmark
+	public
+	int encodeCbor( ) throws IOException {
+
+		out.reset( );
+		DemographicDataCodec.write( data, out, WireFormat.CBOR );
+		return out.size( );
+	}
+
+	@Benchmark
+	public
+	boolean decodeCbor( ) throws IOException {
+
+		return DemographicDataCodec.readValid( new ByteArrayInputStream( cborResponse ), WireFormat.CBOR );
+	}
+
+}
@@ -1,8 +1,10 @@
 package edu.uw.waverify;
 
-import org.keycloak.authentication.Authenticator;
+import org.keycloak.authentication.*;
 import org.keycloak.models.*;
 
+import jakarta.ws.rs.core.Response;
+
 /**
  * A base class for Keycloak authenticators that provides default implementations for common methods.
  */
@@ -46,4 +48,19 @@ class SimpleAuthenticator implements Authenticator {
 
 	}
 
+	/**
+	 * Fails the flow with a "too many requests" error page.
+	 *
+	 * @param context
+	 * 		the authentication flow context.
+	 */
+	protected
+	void rateLimited( AuthenticationFlowContext context ) {
+
+		var errorPage = context.form( )
+		                       .setError( "rateLimited" )
+		                       .createErrorPage( Response.Status.TOO_MANY_REQUESTS );
+		context.failure( AuthenticationFlowError.ACCESS_DENIED, errorPage );
+	}
+
 }
@@ -5,6 +5,7 @@ import java.util.Map;
 import org.keycloak.authentication.Authenticator;
 
 import edu.uw.waverify.demographic.authenticator.verification.DemographicVerificationService;
+import edu.uw.waverify.demographic.authenticator.verification.VerificationResult;
 
 /**
  * Defines the contract for demographic authentication providers.
@@ -30,8 +31,8 @@ interface DemographicAuthenticator extends Authenticator {
 	 * 		a map containing key-value pairs of demographic data to validate. Keys represent demographic attributes (e.g.,
 	 * 		"firstName", "email"), and values are the corresponding user-provided data.
 	 *
-	 * @return {@code true} if the demographic information is valid, otherwise {@code false}.
+	 * @return the result of the validation; {@link VerificationResult#isVerified()} tells whether the information is valid.
 	 */
-	boolean validateDemographics( Map< String, String > demographics );
+	VerificationResult validateDemographics( Map< String, String > demographics );
 
 }
@@ -6,10 +6,14 @@ import java.util.List;
 import org.keycloak.Config;
 import org.keycloak.authentication.AuthenticatorFactory;
 import org.keycloak.authentication.ConfigurableAuthenticatorFactory;
-import org.keycloak.models.KeycloakSession;
+import org.keycloak.models.*;
+import org.keycloak.models.utils.KeycloakModelUtils;
+import org.keycloak.models.utils.PostMigrationEvent;
 import org.keycloak.provider.ProviderConfigProperty;
+import org.keycloak.timer.TimerProvider;
 
 import edu.uw.waverify.SimpleAuthenticatorFactory;
+import edu.uw.waverify.demographic.authenticator.verification.*;
 
 import lombok.extern.jbosslog.JBossLog;
 
@@ -19,7 +23,10 @@ import static org.keycloak.models.AuthenticationExecutionModel.Requirement.*;
 /**
  * Factory class for creating instances of {@link DemographicAuthenticator}.
  * <p>
- * This factory initializes required services and manages the lifecycle of demographic validation authenticators.
+ * This factory initializes required services and manages the lifecycle of demographic validation authenticators. The
+ * {@code wireFormat} setting ({@code json} or {@code cbor}) selects the preferred encoding for verification requests.
+ * {@code baseUrl} may list several verification service replicas, separated by commas; requests are then hedged across
+ * them as described in {@link VerificationEndpoints}.
  * </p>
  */
 @JBossLog
@@ -30,14 +37,15 @@ class DemographicAuthenticatorFactory extends SimpleAuthenticatorFactory impleme
 	private static final Requirement[]                  REQUIREMENT_CHOICES = { REQUIRED, ALTERNATIVE, DISABLED };
 	public static final  String                         PROVIDER_ID         = "demographic-validation-authenticator";
 
-	private String baseUrl;
+	private VerificationEndpoints endpoints  = VerificationEndpoints.fromConfig( null );
+	private WireFormat            wireFormat = WireFormat.JSON;
 
 	static {
 		var baseUrlProperty = new ProviderConfigProperty( );
 		baseUrlProperty.setName( "baseUrl" );
 		baseUrlProperty.setLabel( "Base URL" );
 		baseUrlProperty.setType( ProviderConfigProperty.STRING_TYPE );
-		baseUrlProperty.setHelpText( "Base URL for demographic verification service." );
+		baseUrlProperty.setHelpText( "Base URL for demographic verification service; separate several replicas with commas." );
 		CONFIG_PROPERTIES.add( baseUrlProperty );
 	}
 
@@ -54,7 +62,7 @@ class DemographicAuthenticatorFactory extends SimpleAuthenticatorFactory impleme
 	DemographicAuthenticator create( KeycloakSession session ) {
 
 		try {
-			return new DemographicAuthenticatorImpl( session, baseUrl );
+			return new DemographicAuthenticatorImpl( session, endpoints, wireFormat );
 		} catch ( Exception e ) {
 			log.error( "Error creating DemographicAuthenticator", e );
 			throw new RuntimeException( "Failed to create DemographicAuthenticator", e );
@@ -96,10 +104,47 @@ class DemographicAuthenticatorFactory extends SimpleAuthenticatorFactory impleme
 	void init( Config.Scope config ) {
 
 		if ( config != null ) {
-			baseUrl = config.get( "baseUrl" );
+			endpoints = VerificationEndpoints.shared( config );
+			wireFormat = WireFormat.of( config.get( "wireFormat" ) );
+			UserEmailCache.configure( config.getInt( "userEmailCacheSize", 10_000 ) );
 		}
 	}
 
+	/**
+	 * Registers the listener that evicts removed users and realms from the {@link UserEmailCache} and schedules the
+	 * verification endpoint health probes and statistics once the database is ready.
+	 *
+	 * @param factory
+	 * 		the Keycloak session factory.
+	 */
+	@Override
+	public
+	void postInit( KeycloakSessionFactory factory ) {
+
+		super.postInit( factory );
+
+		factory.register( event -> {
+			if ( event instanceof PostMigrationEvent ) {
+				KeycloakModelUtils.runJobInTransaction( factory, session -> endpoints.scheduleTasks( factory, session.getProvider( TimerProvider.class ) ) );
+			} else if ( event instanceof UserModel.UserRemovedEvent removed ) {
+				UserEmailCache.onUserRemoved( removed );
+			} else if ( event instanceof RealmModel.RealmRemovedEvent removed ) {
+				UserEmailCache.onRealmRemoved( removed.getRealm( )
+				                                      .getId( ) );
+			}
+		} );
+	}
+
+	/**
+	 * Releases the shared verification endpoints, stopping their pools once no other factory uses them.
+	 */
+	@Override
+	public
+	void close( ) {
+
+		endpoints.close( );
+	}
+
 	/**
 	 * Determines if this authenticator is configurable.
 	 *
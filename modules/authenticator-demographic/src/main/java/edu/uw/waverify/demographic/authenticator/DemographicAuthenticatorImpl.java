@@ -13,6 +13,7 @@ import edu.uw.waverify.pin.PinCredentialProvider;
 import edu.uw.waverify.pin.PinCredentialProviderFactory;
 import edu.uw.waverify.pin.credential.PinCredentialModel;
 
+import jakarta.ws.rs.core.Response;
 import lombok.Getter;
 import lombok.Setter;
 import lombok.extern.jbosslog.JBossLog;
@@ -22,8 +23,8 @@ import static org.keycloak.authentication.AuthenticationFlowError.*;
 /**
  * Authenticator for demographic-based user validation in a Keycloak authentication flow.
  * <p>
- * This authenticator collects demographic data, verifies it against an external service, and registers users with
- * optional PIN credential storage.
+ * This authenticator collects demographic data, verifies it against an external service when one is configured, and
+ * registers users with optional PIN credential storage.
  * </p>
  */
 @Setter
@@ -33,6 +34,7 @@ public
 class DemographicAuthenticatorImpl extends SimpleAuthenticator implements DemographicAuthenticator {
 
 	private DemographicVerificationService verificationService;
+	private PinCredentialProvider          pinCredentialProvider;
 
 	/**
 	 * Constructs a demographic authenticator.
@@ -45,7 +47,39 @@ class DemographicAuthenticatorImpl extends SimpleAuthenticator implements Demogr
 	public
 	DemographicAuthenticatorImpl( KeycloakSession session, String baseUrl ) {
 
-		this.verificationService = new DemographicVerificationServiceImpl( session, baseUrl );
+		this( session, baseUrl, WireFormat.JSON );
+	}
+
+	/**
+	 * Constructs a demographic authenticator with a preferred verification wire format.
+	 *
+	 * @param session
+	 * 		the Keycloak session.
+	 * @param baseUrl
+	 * 		the base URL of the demographic verification service.
+	 * @param wireFormat
+	 * 		the preferred wire format for verification requests.
+	 */
+	public
+	DemographicAuthenticatorImpl( KeycloakSession session, String baseUrl, WireFormat wireFormat ) {
+
+		this( session, VerificationEndpoints.of( baseUrl ), wireFormat );
+	}
+
+	/**
+	 * Constructs a demographic authenticator that verifies against a set of service replicas.
+	 *
+	 * @param session
+	 * 		the Keycloak session.
+	 * @param endpoints
+	 * 		the verification service replicas, shared by all sessions on this node.
+	 * @param wireFormat
+	 * 		the preferred wire format for verification requests.
+	 */
+	public
+	DemographicAuthenticatorImpl( KeycloakSession session, VerificationEndpoints endpoints, WireFormat wireFormat ) {
+
+		this.verificationService = new DemographicVerificationServiceImpl( session, endpoints, wireFormat );
 	}
 
 	/**
@@ -98,20 +132,83 @@ class DemographicAuthenticatorImpl extends SimpleAuthenticator implements Demogr
 			return;
 		}
 
+		if ( !verify( context, demographicData ) ) {
+			return;
+		}
+
 		var authSession = context.getAuthenticationSession( );
-		DemographicDataHelper.storeInAuthSession( authSession, demographicData );
+		DemographicDataHelper.storeInAuthSession( context.getSession( ), authSession, demographicData );
 
 		var user = DemographicDataHelper.saveUser( context.getSession( ), context.getRealm( ), authSession );
 		context.setUser( user );
 
-		if ( demographicData.getPin( ) != null ) {
-			storePinCredential( context.getSession( ), context.getRealm( ), user, demographicData.getPin( ) );
+		var pinCredential = DemographicDataHelper.takePinCredential( context.getSession( ) );
+		if ( pinCredential != null ) {
+			storePinCredential( context.getSession( ), context.getRealm( ), user, pinCredential );
 		}
 
 		EmailLoginLinkGenerator.sendLoginEmail( context.getSession( ), user );
 		context.success( );
 	}
 
+	/**
+	 * Verifies the submitted data against the verification service, if one is configured.
+	 * <p>
+	 * Only a rejection by the service counts as a failed attempt. When the service could not give an answer for now,
+	 * e.g. because it is at its concurrency limit and the request was shed before it was sent, the form is shown again
+	 * with a {@code 503} status and a message asking the user to retry. Any other outcome, such as an answer that could
+	 * not be understood, fails the flow with an internal error.
+	 * </p>
+	 *
+	 * @param context
+	 * 		the authentication flow context.
+	 * @param demographicData
+	 * 		the submitted data.
+	 *
+	 * @return {@code true} if the flow may continue; otherwise a challenge has been set.
+	 */
+	private
+	boolean verify( AuthenticationFlowContext context, DemographicData demographicData ) {
+
+		if ( !verificationService.isConfigured( ) ) {
+			return true;
+		}
+
+		var result = verificationService.verify( demographicData );
+		if ( result.isVerified( ) ) {
+			return true;
+		}
+
+		if ( result.getStatus( ) == VerificationResult.Status.REJECTED ) {
+			var challenge = context.form( )
+			                       .setAttribute( "demographicRequired", true )
+			                       .setError( "verificationRejected" )
+			                       .createForm( "login.ftl" );
+			context.failureChallenge( INVALID_CREDENTIALS, challenge );
+			return false;
+		}
+
+		if ( !result.isTransient( ) ) {
+			log.errorf( "Demographic verification failed: %s", result );
+			var challenge = context.form( )
+			                       .setAttribute( "demographicRequired", true )
+			                       .setError( "verificationError" )
+			                       .setStatus( Response.Status.INTERNAL_SERVER_ERROR )
+			                       .createForm( "login.ftl" );
+			context.failure( INTERNAL_ERROR, challenge );
+			return false;
+		}
+
+		log.warnf( "Demographic verification gave no answer: %s", result );
+		var challenge = context.form( )
+		                       .setAttribute( "demographicRequired", true )
+		                       .setError( "verificationBusy" )
+		                       .setStatus( Response.Status.SERVICE_UNAVAILABLE )
+		                       .createForm( "login.ftl" );
+		context.challenge( challenge );
+		return false;
+	}
+
 	/**
 	 * Checks if this authenticator is configured for a user.
 	 *
@@ -133,21 +230,36 @@ class DemographicAuthenticatorImpl extends SimpleAuthenticator implements Demogr
 
 	/**
 	 * Validates demographic data using the verification service.
+	 * <p>
+	 * Data without a first and last name is rejected locally, without a request.
+	 * </p>
 	 *
 	 * @param demographics
 	 * 		a map containing key-value pairs of demographic attributes.
 	 *
-	 * @return {@code true} if the demographic data is valid, {@code false} otherwise.
+	 * @return the result of the validation.
 	 */
 	@Override
 	public
-	boolean validateDemographics( Map< String, String > demographics ) {
+	VerificationResult validateDemographics( Map< String, String > demographics ) {
 
+		if ( demographics == null || isBlank( demographics.get( "firstName" ) ) || isBlank( demographics.get( "lastName" ) ) ) {
+			return VerificationResult.local( VerificationResult.Status.INVALID_INPUT, "First and last name are required" );
+		}
 		return verificationService.verify( demographics );
 	}
 
+	private static
+	boolean isBlank( String value ) {
+
+		return value == null || value.isBlank( );
+	}
+
 	/**
 	 * Stores or updates the user's PIN credential.
+	 * <p>
+	 * The PIN credential provider is resolved once per authenticator instance, i.e. once per session.
+	 * </p>
 	 *
 	 * @param session
 	 * 		the Keycloak session.
@@ -155,24 +267,16 @@ class DemographicAuthenticatorImpl extends SimpleAuthenticator implements Demogr
 	 * 		the Keycloak realm.
 	 * @param user
 	 * 		the user model.
-	 * @param pin
-	 * 		the user's PIN.
+	 * @param pinCredential
+	 * 		the user's hashed PIN.
 	 */
 	private
-	void storePinCredential( KeycloakSession session, RealmModel realm, UserModel user, String pin ) {
-
-		var provider = ( PinCredentialProvider ) session.getProvider( CredentialProvider.class, PinCredentialProviderFactory.PROVIDER_ID );
-
-		user.credentialManager( )
-		    .getStoredCredentialsByTypeStream( provider.getType( ) )
-		    .findFirst( )
-		    .ifPresentOrElse( existingCredential -> {
-			    var updatedModel = PinCredentialModel.createPin( pin, existingCredential.getId( ) );
-			    provider.updateCredential( user, updatedModel, pin );
-		    }, ( ) -> {
-			    var pinCredentialModel = PinCredentialModel.createPin( pin );
-			    provider.createCredential( realm, user, pinCredentialModel );
-		    } );
+	void storePinCredential( KeycloakSession session, RealmModel realm, UserModel user, PinCredentialModel pinCredential ) {
+
+		if ( pinCredentialProvider == null ) {
+			pinCredentialProvider = ( PinCredentialProvider ) session.getProvider( CredentialProvider.class, PinCredentialProviderFactory.PROVIDER_ID );
+		}
+		pinCredentialProvider.upsertPin( realm, user, pinCredential );
 	}
 
 }
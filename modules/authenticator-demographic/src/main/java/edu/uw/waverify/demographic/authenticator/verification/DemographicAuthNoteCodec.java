@@ -0,0 +1,117 @@
+package edu.uw.waverify.demographic.authenticator.verification;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+/**
+ * Encodes {@link DemographicData} into a single compact authentication note.
+ * <p>
+ * The note is a Base64 string of a small binary record: a version byte followed by the first name, last name, date of
+ * birth and email as length-prefixed UTF-8. One note replaces the five separate notes previously written, which shrinks
+ * the replicated entry. The PIN is never part of the note; see {@link DemographicDataHelper#storeInAuthSession}.
+ * </p>
+ */
+public
+class DemographicAuthNoteCodec {
+
+	/**
+	 * The name of the authentication note holding the encoded demographic data.
+	 */
+	public static final String NOTE = "demographicData";
+
+	private static final byte VERSION     = 1;
+	private static final int  NULL_LENGTH = 0xFFFF;
+
+	private static final Base64.Encoder ENCODER = Base64.getUrlEncoder( )
+	                                                    .withoutPadding( );
+	private static final Base64.Decoder DECODER = Base64.getUrlDecoder( );
+
+	/**
+	 * Encodes demographic data, leaving out the PIN.
+	 *
+	 * @param data
+	 * 		the demographic data to encode.
+	 *
+	 * @return the encoded note value.
+	 *
+	 * @throws IllegalStateException
+	 * 		if the data cannot be encoded.
+	 */
+	public static
+	String encode( DemographicData data ) {
+
+		try {
+			var bytes = new ByteArrayOutputStream( 96 );
+			var out   = new DataOutputStream( bytes );
+
+			out.writeByte( VERSION );
+			writeString( out, data.getFirstName( ) );
+			writeString( out, data.getLastName( ) );
+			writeString( out, data.getDateOfBirth( ) );
+			writeString( out, data.getEmail( ) );
+			out.flush( );
+			return ENCODER.encodeToString( bytes.toByteArray( ) );
+		} catch ( IOException e ) {
+			throw new IllegalStateException( "Failed to encode demographic data.", e );
+		}
+	}
+
+	/**
+	 * Decodes a note.
+	 *
+	 * @param note
+	 * 		the note value, may be {@code null}.
+	 *
+	 * @return the decoded demographic data with a {@code null} PIN, or {@code null} if there is no note.
+	 *
+	 * @throws IllegalStateException
+	 * 		if the note is malformed.
+	 */
+	public static
+	DemographicData decode( String note ) {
+
+		if ( note == null ) {
+			return null;
+		}
+		try {
+			var in = new DataInputStream( new ByteArrayInputStream( DECODER.decode( note ) ) );
+			if ( in.readByte( ) != VERSION ) {
+				throw new IllegalStateException( "Unsupported demographic note version." );
+			}
+			return new DemographicData( readString( in ), readString( in ), readString( in ), readString( in ), null );
+		} catch ( IOException | IllegalArgumentException e ) {
+			throw new IllegalStateException( "Failed to decode demographic data.", e );
+		}
+	}
+
+	private static
+	void writeString( DataOutputStream out, String value ) throws IOException {
+
+		if ( value == null ) {
+			out.writeShort( NULL_LENGTH );
+			return;
+		}
+		var bytes = value.getBytes( StandardCharsets.UTF_8 );
+		if ( bytes.length >= NULL_LENGTH ) {
+			throw new IOException( "Demographic field too long." );
+		}
+		out.writeShort( bytes.length );
+		out.write( bytes );
+	}
+
+	private static
+	String readString( DataInputStream in ) throws IOException {
+
+		var length = in.readUnsignedShort( );
+		if ( length == NULL_LENGTH ) {
+			return null;
+		}
+		var bytes = in.readNBytes( length );
+		if ( bytes.length != length ) {
+			throw new EOFException( "Truncated demographic note." );
+		}
+		return new String( bytes, StandardCharsets.UTF_8 );
+	}
+
+}
@@ -1,61 +1,231 @@
 package edu.uw.waverify.demographic.authenticator.verification;
 
+import java.io.*;
 import java.util.Map;
 
-import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.core.*;
+import com.fasterxml.jackson.core.io.SerializedString;
 import com.fasterxml.jackson.databind.ObjectMapper;
 
 /**
  * Utility class for encoding and decoding demographic data into JSON.
  * <p>
  * This class provides methods for serializing and deserializing demographic data, ensuring separation of concerns
- * between data representation and business logic.
+ * between data representation and business logic. The verification request and response are handled with Jackson's
+ * streaming API: the request fields are written straight from {@link DemographicData} by a {@link JsonGenerator}, and
+ * the response is scanned by a {@link JsonParser} that stops as soon as the {@code valid} field has been read, so no
+ * intermediate map or tree is built. Requests are written directly to the HTTP entity stream, so no request body is
+ * buffered either. The same calls handle every {@link WireFormat}.
  * </p>
  */
 public
 class DemographicDataCodec {
 
 	private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper( );
+	private static final JsonFactory  JSON_FACTORY  = OBJECT_MAPPER.getFactory( );
+
+	private static final SerializedString FIRST_NAME    = new SerializedString( "firstName" );
+	private static final SerializedString LAST_NAME     = new SerializedString( "lastName" );
+	private static final SerializedString DATE_OF_BIRTH = new SerializedString( "dateOfBirth" );
 
 	/**
-	 * Decodes a JSON string into a map containing demographic data.
+	 * Writes the fields checked by the verification service as a JSON object.
 	 *
-	 * @param json
-	 * 		The JSON string to decode.
+	 * @param data
+	 * 		the demographic data to write.
+	 * @param out
+	 * 		the stream to write to; it is not closed.
+	 *
+	 * @throws IOException
+	 * 		if writing fails.
+	 */
+	public static
+	void write( DemographicData data, OutputStream out ) throws IOException {
+
+		write( data, out, WireFormat.JSON );
+	}
+
+	/**
+	 * Writes the fields checked by the verification service in the given wire format.
 	 *
-	 * @return A map representing the decoded demographic data.
+	 * @param data
+	 * 		the demographic data to write.
+	 * @param out
+	 * 		the stream to write to; it is not closed.
+	 * @param format
+	 * 		the wire format.
 	 *
-	 * @throws RuntimeException
-	 * 		if the decoding process fails.
+	 * @throws IOException
+	 * 		if writing fails.
 	 */
 	public static
-	Map< String, Object > decode( String json ) {
+	void write( DemographicData data, OutputStream out, WireFormat format ) throws IOException {
 
-		try {
-			return OBJECT_MAPPER.readValue( json, new TypeReference<>( ) { } );
-		} catch ( Exception e ) {
-			throw new RuntimeException( "Failed to decode JSON string.", e );
+		try ( var generator = factory( format ).createGenerator( out ) ) {
+			generator.disable( JsonGenerator.Feature.AUTO_CLOSE_TARGET );
+			generator.writeStartObject( );
+			writeField( generator, FIRST_NAME, data.getFirstName( ) );
+			writeField( generator, LAST_NAME, data.getLastName( ) );
+			writeField( generator, DATE_OF_BIRTH, data.getDateOfBirth( ) );
+			generator.writeEndObject( );
 		}
 	}
 
 	/**
-	 * Encodes demographic data into a JSON string.
+	 * Writes a map of demographic attributes as a JSON object.
+	 *
+	 * @param demographics
+	 * 		the attributes to write.
+	 * @param out
+	 * 		the stream to write to; it is not closed.
+	 *
+	 * @throws IOException
+	 * 		if writing fails.
+	 */
+	public static
+	void write( Map< String, String > demographics, OutputStream out ) throws IOException {
+
+		write( demographics, out, WireFormat.JSON );
+	}
+
+	/**
+	 * Writes a map of demographic attributes in the given wire format.
 	 *
 	 * @param demographics
-	 * 		The demographic data to encode.
+	 * 		the attributes to write.
+	 * @param out
+	 * 		the stream to write to; it is not closed.
+	 * @param format
+	 * 		the wire format.
+	 *
+	 * @throws IOException
+	 * 		if writing fails.
+	 */
+	public static
+	void write( Map< String, String > demographics, OutputStream out, WireFormat format ) throws IOException {
+
+		try ( var generator = factory( format ).createGenerator( out ) ) {
+			generator.disable( JsonGenerator.Feature.AUTO_CLOSE_TARGET );
+			generator.writeStartObject( );
+			for ( var entry : demographics.entrySet( ) ) {
+				generator.writeStringField( entry.getKey( ), entry.getValue( ) );
+			}
+			generator.writeEndObject( );
+		}
+	}
+
+	/**
+	 * Reads the {@code valid} flag of a verification response.
+	 * <p>
+	 * Parsing stops as soon as the top-level {@code valid} field has been read; other fields are skipped without being
+	 * materialized.
+	 * </p>
+	 *
+	 * @param in
+	 * 		the response body.
+	 *
+	 * @return {@code true} if the response contains {@code "valid": true}, otherwise {@code false}.
+	 *
+	 * @throws IOException
+	 * 		if the response is not a JSON object or cannot be read.
+	 */
+	public static
+	boolean readValid( InputStream in ) throws IOException {
+
+		return readValid( in, WireFormat.JSON );
+	}
+
+	/**
+	 * Reads the {@code valid} flag of a verification response in the given wire format.
+	 *
+	 * @param in
+	 * 		the response body.
+	 * @param format
+	 * 		the wire format.
+	 *
+	 * @return {@code true} if the response contains {@code valid = true}, otherwise {@code false}.
+	 *
+	 * @throws IOException
+	 * 		if the response is not an object or cannot be read.
+	 */
+	public static
+	boolean readValid( InputStream in, WireFormat format ) throws IOException {
+
+		return Boolean.TRUE.equals( readVerdict( in, format ) );
+	}
+
+	/**
+	 * Reads the {@code valid} flag of a verification response in the given wire format, telling a missing flag apart
+	 * from {@code valid = false}.
+	 *
+	 * @param in
+	 * 		the response body.
+	 * @param format
+	 * 		the wire format.
+	 *
+	 * @return the flag, or {@code null} if the response has no boolean {@code valid} field.
+	 *
+	 * @throws IOException
+	 * 		if the response is not an object or cannot be read.
+	 */
+	public static
+	Boolean readVerdict( InputStream in, WireFormat format ) throws IOException {
+
+		try ( var parser = factory( format ).createParser( in ) ) {
+			return readVerdict( parser );
+		}
+	}
+
+	/**
+	 * Reads the {@code valid} flag of a verification response held in a string.
+	 *
+	 * @param json
+	 * 		the response body.
 	 *
-	 * @return A JSON string representing the encoded data.
+	 * @return {@code true} if the response contains {@code "valid": true}, otherwise {@code false}.
 	 *
-	 * @throws RuntimeException
-	 * 		if the encoding process fails.
+	 * @throws IOException
+	 * 		if the response is not a JSON object.
 	 */
 	public static
-	String encode( Map< String, String > demographics ) {
+	boolean readValid( String json ) throws IOException {
+
+		try ( var parser = JSON_FACTORY.createParser( json ) ) {
+			return Boolean.TRUE.equals( readVerdict( parser ) );
+		}
+	}
+
+	private static
+	Boolean readVerdict( JsonParser parser ) throws IOException {
+
+		if ( parser.nextToken( ) != JsonToken.START_OBJECT ) {
+			throw new JsonParseException( parser, "Expected a JSON object" );
+		}
+		while ( parser.nextToken( ) == JsonToken.FIELD_NAME ) {
+			var isValid = "valid".equals( parser.currentName( ) );
+			var value   = parser.nextToken( );
+			if ( isValid ) {
+				return value == JsonToken.VALUE_TRUE || value == JsonToken.VALUE_FALSE ? value == JsonToken.VALUE_TRUE : null;
+			}
+			parser.skipChildren( );
+		}
+		return null;
+	}
+
+	private static
+	JsonFactory factory( WireFormat format ) {
+
+		return format == WireFormat.JSON ? JSON_FACTORY : format.getFactory( );
+	}
+
+	private static
+	void writeField( JsonGenerator generator, SerializableString name, String value ) throws IOException {
 
-		try {
-			return OBJECT_MAPPER.writeValueAsString( demographics );
-		} catch ( Exception e ) {
-			throw new RuntimeException( "Failed to encode demographic data.", e );
+		generator.writeFieldName( name );
+		if ( value == null ) {
+			generator.writeNull( );
+		} else {
+			generator.writeString( value );
 		}
 	}
 
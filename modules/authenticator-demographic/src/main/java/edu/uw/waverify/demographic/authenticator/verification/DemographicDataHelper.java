@@ -1,11 +1,17 @@
 package edu.uw.waverify.demographic.authenticator.verification;
 
+import java.util.Objects;
 import java.util.Optional;
 
+import org.keycloak.credential.CredentialProvider;
 import org.keycloak.http.HttpRequest;
 import org.keycloak.models.*;
 import org.keycloak.sessions.AuthenticationSessionModel;
 
+import edu.uw.waverify.pin.PinCredentialProvider;
+import edu.uw.waverify.pin.PinCredentialProviderFactory;
+import edu.uw.waverify.pin.credential.PinCredentialModel;
+
 /**
  * Utility class for handling demographic data extraction, validation, and storage within authentication workflows.
  * <p>
@@ -16,13 +22,19 @@ import org.keycloak.sessions.AuthenticationSessionModel;
 public
 class DemographicDataHelper {
 
+	private static final String PIN_CREDENTIAL_ATTRIBUTE = "demographic.pinCredential";
+
 	/**
 	 * Extracts demographic data from an HTTP request.
+	 * <p>
+	 * The values are returned in canonical form (see {@link DemographicDataNormalizer}), so they can be used as is for
+	 * validation, verification and persistence.
+	 * </p>
 	 *
 	 * @param request
 	 * 		the HTTP request containing form parameters.
 	 *
-	 * @return a {@link DemographicData} object populated with the extracted values.
+	 * @return a {@link DemographicData} object populated with the normalized values.
 	 */
 	public static
 	DemographicData extractFromRequest( HttpRequest request ) {
@@ -35,11 +47,14 @@ class DemographicDataHelper {
 		var email       = formData.getFirst( "email" );
 		var pin         = formData.getFirst( "pin" );
 
-		return new DemographicData( firstName, lastName, dateOfBirth, email, pin );
+		return DemographicDataNormalizer.normalize( new DemographicData( firstName, lastName, dateOfBirth, email, pin ) );
 	}
 
 	/**
 	 * Extracts demographic data from an authentication session.
+	 * <p>
+	 * The data is read from the single note written by {@link #storeInAuthSession}; it never contains the PIN.
+	 * </p>
 	 *
 	 * @param authSession
 	 * 		the authentication session containing stored user attributes.
@@ -49,13 +64,24 @@ class DemographicDataHelper {
 	public static
 	DemographicData extractFromSession( AuthenticationSessionModel authSession ) {
 
-		var firstName   = authSession.getAuthNote( "firstName" );
-		var lastName    = authSession.getAuthNote( "lastName" );
-		var dateOfBirth = authSession.getAuthNote( "dateOfBirth" );
-		var email       = authSession.getAuthNote( "email" );
-		var pin         = authSession.getAuthNote( "pin" );
+		var data = DemographicAuthNoteCodec.decode( authSession.getAuthNote( DemographicAuthNoteCodec.NOTE ) );
+		return data != null ? data : new DemographicData( );
+	}
+
+	/**
+	 * Returns the PIN credential hashed by {@link #storeInAuthSession} during this request and forgets it.
+	 *
+	 * @param session
+	 * 		the Keycloak session.
+	 *
+	 * @return the hashed PIN credential, or {@code null} if no PIN was submitted in this request.
+	 */
+	public static
+	PinCredentialModel takePinCredential( KeycloakSession session ) {
 
-		return new DemographicData( firstName, lastName, dateOfBirth, email, pin );
+		var credential = session.getAttribute( PIN_CREDENTIAL_ATTRIBUTE, PinCredentialModel.class );
+		session.removeAttribute( PIN_CREDENTIAL_ATTRIBUTE );
+		return credential;
 	}
 
 	private static
@@ -75,8 +101,22 @@ class DemographicDataHelper {
 	public static
 	boolean isValid( DemographicData data ) {
 
+		return hasDemographics( data ) && isNotBlank( data.getPin( ) );
+	}
+
+	/**
+	 * Validates whether the given demographic data has every field needed to identify a user, regardless of the PIN.
+	 *
+	 * @param data
+	 * 		the demographic data to validate.
+	 *
+	 * @return {@code true} if first name, last name, date of birth and email are non-null and non-blank.
+	 */
+	public static
+	boolean hasDemographics( DemographicData data ) {
+
 		return Optional.ofNullable( data )
-		               .map( d -> isNotBlank( d.getFirstName( ) ) && isNotBlank( d.getLastName( ) ) && isNotBlank( d.getDateOfBirth( ) ) && isNotBlank( d.getEmail( ) ) && isNotBlank( d.getPin( ) ) )
+		               .map( d -> isNotBlank( d.getFirstName( ) ) && isNotBlank( d.getLastName( ) ) && isNotBlank( d.getDateOfBirth( ) ) && isNotBlank( d.getEmail( ) ) )
 		               .orElse( false );
 	}
 
@@ -84,7 +124,7 @@ class DemographicDataHelper {
 	 * Retrieves or creates a user based on the provided demographic data.
 	 * <p>
 	 * If the user does not exist, a new one is created with the provided email. The retrieved or newly created user is
-	 * then updated with demographic details.
+	 * then updated with the demographic details that changed. Users are looked up through {@link UserEmailCache}.
 	 * </p>
 	 *
 	 * @param session
@@ -102,49 +142,111 @@ class DemographicDataHelper {
 	public static
 	UserModel saveUser( KeycloakSession session, RealmModel realm, AuthenticationSessionModel authSession ) {
 
-		var email = authSession.getAuthNote( "email" );
+		var data  = DemographicAuthNoteCodec.decode( authSession.getAuthNote( DemographicAuthNoteCodec.NOTE ) );
+		var email = data != null ? data.getEmail( ) : null;
 
 		if ( email == null || email.isBlank( ) ) {
 			throw new IllegalArgumentException( "Email is required for user registration." );
 		}
 
-		var userProvider = session.users( );
-		var user         = userProvider.getUserByEmail( realm, email );
+		var user = UserEmailCache.getUserByEmail( session, realm, email );
 
 		if ( user == null ) {
-			user = userProvider.addUser( realm, email );
-			user.setEnabled( true );
-			user.setEmail( email );
-			user.setEmailVerified( true );
+			user = createUser( session, realm, email );
 		}
 
-		var firstName   = authSession.getAuthNote( "firstName" );
-		var lastName    = authSession.getAuthNote( "lastName" );
-		var dateOfBirth = authSession.getAuthNote( "dateOfBirth" );
-
-		user.setFirstName( firstName );
-		user.setLastName( lastName );
-		user.setSingleAttribute( "dateOfBirth", dateOfBirth );
+		applyDemographics( user, data );
+		return user;
+	}
 
+	/**
+	 * Creates an enabled user with a verified email address.
+	 *
+	 * @param session
+	 * 		the Keycloak session.
+	 * @param realm
+	 * 		the Keycloak realm.
+	 * @param email
+	 * 		the email address, also used as the username.
+	 *
+	 * @return the new {@link UserModel}.
+	 */
+	public static
+	UserModel createUser( KeycloakSession session, RealmModel realm, String email ) {
+
+		var user = session.users( )
+		                  .addUser( realm, email );
+		user.setEnabled( true );
+		user.setEmail( email );
+		user.setEmailVerified( true );
+		UserEmailCache.put( realm, user );
 		return user;
 	}
 
+	/**
+	 * Copies demographic details onto a user, writing only the fields that differ.
+	 * <p>
+	 * Every setter on a JPA-backed user marks the entity dirty, so a returning user whose details are unchanged must not
+	 * be touched at all; this keeps such submissions free of UPDATE statements. Names are compared case-insensitively
+	 * (see {@link DemographicDataNormalizer#foldName}), so a stored {@code "Smith"} is kept when {@code "smith"} is
+	 * submitted.
+	 * </p>
+	 *
+	 * @param user
+	 * 		the user to update.
+	 * @param data
+	 * 		the demographic data to apply.
+	 *
+	 * @return {@code true} if any field was written.
+	 */
+	public static
+	boolean applyDemographics( UserModel user, DemographicData data ) {
+
+		var changed = false;
+		if ( !sameName( user.getFirstName( ), data.getFirstName( ) ) ) {
+			user.setFirstName( data.getFirstName( ) );
+			changed = true;
+		}
+		if ( !sameName( user.getLastName( ), data.getLastName( ) ) ) {
+			user.setLastName( data.getLastName( ) );
+			changed = true;
+		}
+		if ( !Objects.equals( user.getFirstAttribute( "dateOfBirth" ), data.getDateOfBirth( ) ) ) {
+			user.setSingleAttribute( "dateOfBirth", data.getDateOfBirth( ) );
+			changed = true;
+		}
+		return changed;
+	}
+
+	private static
+	boolean sameName( String stored, String submitted ) {
+
+		return Objects.equals( DemographicDataNormalizer.foldName( stored ), DemographicDataNormalizer.foldName( submitted ) );
+	}
+
 	/**
 	 * Stores demographic data in an authentication session.
+	 * <p>
+	 * The demographic fields are written to a single compact note; see {@link DemographicAuthNoteCodec}. The PIN is
+	 * hashed right away and kept only as a request-scoped session attribute for {@link #takePinCredential}, so neither
+	 * the PIN nor its hash is replicated with the authentication session.
+	 * </p>
 	 *
+	 * @param session
+	 * 		the Keycloak session.
 	 * @param authSession
 	 * 		the authentication session in which to store demographic attributes.
 	 * @param data
 	 * 		the demographic data to store.
 	 */
 	public static
-	void storeInAuthSession( AuthenticationSessionModel authSession, DemographicData data ) {
+	void storeInAuthSession( KeycloakSession session, AuthenticationSessionModel authSession, DemographicData data ) {
 
-		authSession.setAuthNote( "firstName", data.getFirstName( ) );
-		authSession.setAuthNote( "lastName", data.getLastName( ) );
-		authSession.setAuthNote( "dateOfBirth", data.getDateOfBirth( ) );
-		authSession.setAuthNote( "email", data.getEmail( ) );
-		authSession.setAuthNote( "pin", data.getPin( ) );
+		authSession.setAuthNote( DemographicAuthNoteCodec.NOTE, DemographicAuthNoteCodec.encode( data ) );
+		if ( data.getPin( ) != null ) {
+			var provider = ( PinCredentialProvider ) session.getProvider( CredentialProvider.class, PinCredentialProviderFactory.PROVIDER_ID );
+			session.setAttribute( PIN_CREDENTIAL_ATTRIBUTE, provider.hashPin( data.getPin( ) ) );
+		}
 	}
 
 }
@@ -0,0 +1,148 @@
+package edu.uw.waverify.demographic.authenticator.verification;
+
+import java.text.Normalizer;
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.time.format.ResolverStyle;
+import java.util.Locale;
+import java.util.regex.Pattern;
+
+/**
+ * Canonical form of demographic data.
+ * <p>
+ * Submitted values are normalized once, where they enter the SPI, so that the same person always produces the same
+ * verification request and user attributes: {@code "Smith "} and {@code "Smith"} or {@code "1990-1-2"} and
+ * {@code "1990-01-02"} no longer differ. Names are NFKC normalized and have their whitespace collapsed, but keep their
+ * case, since they are stored and displayed as entered; email addresses are NFKC normalized, trimmed and lower-cased,
+ * and dates of birth are parsed as ISO-8601 calendar dates and written back in
+ * {@link DateTimeFormatter#ISO_LOCAL_DATE} form. The PIN is left untouched.
+ * </p>
+ * <p>
+ * Where names are compared or used as cache keys, {@link #foldName} additionally folds their case, so that
+ * {@code "Smith"} and {@code "SMITH"} are treated as the same name without rewriting either.
+ * </p>
+ */
+public
+class DemographicDataNormalizer {
+
+	private static final Pattern WHITESPACE = Pattern.compile( "\\s+" );
+
+	private static final DateTimeFormatter DATE = DateTimeFormatter.ofPattern( "uuuu-M-d", Locale.ROOT )
+	                                                               .withResolverStyle( ResolverStyle.STRICT );
+
+	private
+	DemographicDataNormalizer( ) {
+
+	}
+
+	/**
+	 * Returns the canonical form of demographic data.
+	 * <p>
+	 * Blank values become {@code null}, as does a date of birth that is not a valid ISO-8601 date, so the result can be
+	 * checked with {@link DemographicDataHelper#isValid} as before.
+	 * </p>
+	 *
+	 * @param data
+	 * 		the submitted data, may be {@code null}.
+	 *
+	 * @return a new, normalized {@link DemographicData}, or {@code null} if {@code data} is {@code null}.
+	 */
+	public static
+	DemographicData normalize( DemographicData data ) {
+
+		if ( data == null ) {
+			return null;
+		}
+		var dateOfBirth = parseDate( data.getDateOfBirth( ) );
+		return new DemographicData( normalizeName( data.getFirstName( ) ),
+		                            normalizeName( data.getLastName( ) ),
+		                            dateOfBirth != null ? dateOfBirth.toString( ) : null,
+		                            normalizeEmail( data.getEmail( ) ),
+		                            data.getPin( ) );
+	}
+
+	/**
+	 * Normalizes a name for storage and display: NFKC, whitespace collapsed to single spaces and trimmed.
+	 *
+	 * @param name
+	 * 		the name, may be {@code null}.
+	 *
+	 * @return the canonical name in its original case, or {@code null} if the name is {@code null} or blank.
+	 */
+	public static
+	String normalizeName( String name ) {
+
+		return collapse( name );
+	}
+
+	/**
+	 * Folds a name for comparison: {@linkplain #normalizeName normalized}, then case folded.
+	 *
+	 * @param name
+	 * 		the name, may be {@code null}.
+	 *
+	 * @return the folded name, or {@code null} if the name is {@code null} or blank.
+	 */
+	public static
+	String foldName( String name ) {
+
+		var value = collapse( name );
+		if ( value == null ) {
+			return null;
+		}
+		// upper-casing first folds characters such as 'ß' the way full case folding does
+		return value.toUpperCase( Locale.ROOT )
+		            .toLowerCase( Locale.ROOT );
+	}
+
+	/**
+	 * Normalizes an email address: NFKC, trimmed, lower-cased.
+	 *
+	 * @param email
+	 * 		the email address, may be {@code null}.
+	 *
+	 * @return the canonical address, or {@code null} if the address is {@code null} or blank.
+	 */
+	public static
+	String normalizeEmail( String email ) {
+
+		var value = collapse( email );
+		return value != null ? value.toLowerCase( Locale.ROOT ) : null;
+	}
+
+	/**
+	 * Parses an ISO-8601 calendar date, allowing single-digit months and days.
+	 *
+	 * @param date
+	 * 		the date, e.g. {@code 1990-1-2}, may be {@code null}.
+	 *
+	 * @return the date, or {@code null} if the value is blank or not a valid date.
+	 */
+	public static
+	LocalDate parseDate( String date ) {
+
+		var value = collapse( date );
+		if ( value == null ) {
+			return null;
+		}
+		try {
+			return LocalDate.parse( value, DATE );
+		} catch ( DateTimeParseException e ) {
+			return null;
+		}
+	}
+
+	private static
+	String collapse( String value ) {
+
+		if ( value == null ) {
+			return null;
+		}
+		var normalized = WHITESPACE.matcher( Normalizer.normalize( value, Normalizer.Form.NFKC ) )
+		                           .replaceAll( " " )
+		                           .trim( );
+		return normalized.isEmpty( ) ? null : normalized;
+	}
+
+}
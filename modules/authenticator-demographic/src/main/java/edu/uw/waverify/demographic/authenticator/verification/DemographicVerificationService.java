@@ -1,12 +1,14 @@
 package edu.uw.waverify.demographic.authenticator.verification;
 
+import java.util.HashMap;
 import java.util.Map;
 
 /**
  * Interface defining the contract for demographic verification services.
  * <p>
  * Implementations of this interface are responsible for validating demographic information provided by users, ensuring
- * that it meets the required criteria for authentication or registration.
+ * that it meets the required criteria for authentication or registration. The outcome is a {@link VerificationResult},
+ * which tells a rejection apart from a failure to get an answer.
  * </p>
  */
 public
@@ -19,8 +21,40 @@ interface DemographicVerificationService {
 	 * 		a map containing demographic data where keys represent attribute names and values represent their corresponding
 	 * 		values.
 	 *
-	 * @return {@code true} if the demographic information is valid, otherwise {@code false}.
+	 * @return the result of the verification.
 	 */
-	boolean verify( Map< String, String > demographics );
+	VerificationResult verify( Map< String, String > demographics );
+
+	/**
+	 * Tells whether a verification service is configured at all.
+	 *
+	 * @return {@code true} if submissions can be verified; the default implementation always can.
+	 */
+	default
+	boolean isConfigured( ) {
+
+		return true;
+	}
+
+	/**
+	 * Verifies the demographic fields of the given data.
+	 * <p>
+	 * The default implementation delegates to {@link #verify(Map)}; implementations may encode the data directly.
+	 * </p>
+	 *
+	 * @param data
+	 * 		the demographic data to verify.
+	 *
+	 * @return the result of the verification.
+	 */
+	default
+	VerificationResult verify( DemographicData data ) {
+
+		var demographics = new HashMap< String, String >( );
+		demographics.put( "firstName", data.getFirstName( ) );
+		demographics.put( "lastName", data.getLastName( ) );
+		demographics.put( "dateOfBirth", data.getDateOfBirth( ) );
+		return verify( demographics );
+	}
 
 }
@@ -1,23 +1,41 @@
 package edu.uw.waverify.demographic.authenticator.verification;
 
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.ConnectException;
 import java.util.Map;
+import java.util.concurrent.*;
 
-import org.keycloak.broker.provider.util.SimpleHttp;
+import org.keycloak.connections.httpclient.HttpClientProvider;
 import org.keycloak.models.KeycloakSession;
 
+import edu.uw.waverify.demographic.authenticator.verification.VerificationResult.Status;
+import edu.uw.waverify.ratelimit.AdaptiveConcurrencyLimiter;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
 import lombok.Getter;
 import lombok.Setter;
 import lombok.extern.jbosslog.JBossLog;
-import org.apache.http.entity.StringEntity;
-
-import static org.apache.http.entity.ContentType.APPLICATION_JSON;
+import org.apache.http.*;
+import org.apache.http.client.HttpResponseException;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.conn.ConnectTimeoutException;
+import org.apache.http.entity.EntityTemplate;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.util.EntityUtils;
 
 /**
  * Implementation of the {@link DemographicVerificationService} interface.
  * <p>
- * This service verifies demographic information by sending it to the mock-vp server using Keycloak's {@link SimpleHttp}
- * utility. It encodes the demographic data into JSON, sends an HTTP POST request, and processes the response to
- * determine validity.
+ * This service verifies demographic information by sending it to the mock-vp server through the HTTP client managed by
+ * Keycloak's {@link HttpClientProvider}. The request body is written by {@link DemographicDataCodec} straight into the
+ * outgoing request stream, and the response is parsed straight from the connection's input stream, so the payload is
+ * never copied into intermediate strings or arrays; the codec's buffers are recycled by Jackson and the connection is
+ * returned to the client's pool once the response has been consumed. The wire format is negotiated: a preferred
+ * binary {@link WireFormat} is sent with matching {@code Content-Type} and {@code Accept} headers, and JSON is used for
+ * a while with services that reject it. Several replicas can be configured; requests are balanced across them, hedged
+ * and kept away from unhealthy replicas, and transient failures are retried within a retry budget, see
+ * {@link VerificationEndpoints}.
  * </p>
  */
 @Setter
@@ -26,11 +44,14 @@ import static org.apache.http.entity.ContentType.APPLICATION_JSON;
 public
 class DemographicVerificationServiceImpl implements DemographicVerificationService {
 
-	private final KeycloakSession session;
-	private       String          baseUrl;
+	private static final ScheduledThreadPoolExecutor TIMEOUTS = createTimeoutTimer( );
+
+	private final KeycloakSession       session;
+	private       VerificationEndpoints endpoints;
+	private       WireFormat            wireFormat;
 
 	/**
-	 * Constructs a new instance of {@code DemographicVerificationServiceImpl}.
+	 * Constructs a new instance of {@code DemographicVerificationServiceImpl} that speaks JSON.
 	 *
 	 * @param session
 	 * 		the Keycloak session used for HTTP requests.
@@ -40,8 +61,67 @@ class DemographicVerificationServiceImpl implements DemographicVerificationServi
 	public
 	DemographicVerificationServiceImpl( KeycloakSession session, String baseUrl ) {
 
+		this( session, baseUrl, WireFormat.JSON );
+	}
+
+	/**
+	 * Constructs a new instance of {@code DemographicVerificationServiceImpl}.
+	 *
+	 * @param session
+	 * 		the Keycloak session used for HTTP requests.
+	 * @param baseUrl
+	 * 		the base URL of the verification service.
+	 * @param wireFormat
+	 * 		the preferred wire format; services that reject it are spoken to in JSON instead.
+	 */
+	public
+	DemographicVerificationServiceImpl( KeycloakSession session, String baseUrl, WireFormat wireFormat ) {
+
+		this( session, VerificationEndpoints.of( baseUrl ), wireFormat );
+	}
+
+	/**
+	 * Constructs a new instance of {@code DemographicVerificationServiceImpl} for a set of replicas.
+	 *
+	 * @param session
+	 * 		the Keycloak session used for HTTP requests.
+	 * @param endpoints
+	 * 		the verification service replicas, shared by all sessions on this node.
+	 * @param wireFormat
+	 * 		the preferred wire format; services that reject it are spoken to in JSON instead.
+	 */
+	public
+	DemographicVerificationServiceImpl( KeycloakSession session, VerificationEndpoints endpoints, WireFormat wireFormat ) {
+
 		this.session = session;
-		this.baseUrl = baseUrl;
+		this.endpoints = endpoints;
+		this.wireFormat = wireFormat;
+	}
+
+	private static
+	ScheduledThreadPoolExecutor createTimeoutTimer( ) {
+
+		var timer = new ScheduledThreadPoolExecutor( 1, runnable -> {
+			var thread = new Thread( runnable, "verification-timeout" );
+			thread.setDaemon( true );
+			return thread;
+		} );
+		timer.setRemoveOnCancelPolicy( true );
+		timer.setKeepAliveTime( 60, TimeUnit.SECONDS );
+		timer.allowCoreThreadTimeOut( true );
+		return timer;
+	}
+
+	/**
+	 * Tells whether at least one verification service endpoint is configured.
+	 *
+	 * @return {@code true} if requests can be sent.
+	 */
+	@Override
+	public
+	boolean isConfigured( ) {
+
+		return endpoints != null && !endpoints.isEmpty( );
 	}
 
 	/**
@@ -51,27 +131,453 @@ class DemographicVerificationServiceImpl implements DemographicVerificationServi
 	 * 		a map containing demographic data where keys represent attribute names and values represent corresponding
 	 * 		user-provided values.
 	 *
-	 * @return {@code true} if the demographic information is valid, otherwise {@code false}.
+	 * @return the result of the verification.
 	 */
 	@Override
 	public
-	boolean verify( Map< String, String > demographics ) {
+	VerificationResult verify( Map< String, String > demographics ) {
 
+		if ( demographics == null || demographics.isEmpty( ) ) {
+			return count( VerificationResult.local( Status.INVALID_INPUT, "No demographic data" ) );
+		}
+		return count( post( ( out, format ) -> DemographicDataCodec.write( demographics, out, format ) ) );
+	}
+
+	/**
+	 * Verifies the provided demographic data by sending it to the mock-vp server.
+	 * <p>
+	 * The request body is written straight from {@code data} by the streaming codec, without building a map. Definitive
+	 * answers are cached on the local node, see {@link VerificationResultCache}, so the same data submitted again is not
+	 * sent to the service until the entry expires.
+	 * </p>
+	 *
+	 * @param data
+	 * 		the demographic data to verify.
+	 *
+	 * @return the result of the verification.
+	 */
+	@Override
+	public
+	VerificationResult verify( DemographicData data ) {
+
+		if ( data == null ) {
+			return count( VerificationResult.local( Status.INVALID_INPUT, "No demographic data" ) );
+		}
+		if ( !isConfigured( ) ) {
+			return count( post( ( out, format ) -> DemographicDataCodec.write( data, out, format ) ) );
+		}
+
+		var start  = System.nanoTime( );
+		var cache  = endpoints.getResultCache( );
+		var cached = cache.get( data );
+		if ( cached != null ) {
+			return count( cached.fromCache( System.nanoTime( ) - start ) );
+		}
+		var result = post( ( out, format ) -> DemographicDataCodec.write( data, out, format ) );
+		cache.put( data, result );
+		return count( result );
+	}
+
+	private
+	VerificationResult count( VerificationResult result ) {
+
+		if ( endpoints != null ) {
+			endpoints.count( result );
+		}
+		return result;
+	}
+
+	/**
+	 * Posts a request body to the verification service and reads the {@code valid} flag of the response.
+	 * <p>
+	 * The request first takes a permit from the pool's concurrency limiter and is shed if none is available; retries
+	 * take permits of their own, see {@link #retry}. With
+	 * several endpoints the request is hedged, see {@link VerificationEndpoints}; otherwise it is sent on the calling
+	 * thread. Either way, it is given up after {@link VerificationEndpoints#getTimeoutMillis()}.
+	 * </p>
+	 *
+	 * @param body
+	 * 		writes the request body in a given format.
+	 *
+	 * @return the result, with the time taken by all attempts as its latency.
+	 */
+	private
+	VerificationResult post( BodyWriter body ) {
+
+		if ( !isConfigured( ) ) {
+			log.warn( "No demographic verification service is configured" );
+			return VerificationResult.local( Status.NOT_CONFIGURED, "No demographic verification service is configured" );
+		}
+		var start = System.nanoTime( );
 		try {
-			var requestBody = DemographicDataCodec.encode( demographics );
+			var client = session.getProvider( HttpClientProvider.class )
+			                    .getHttpClient( );
+			var permit = endpoints.getLimiter( )
+			                      .tryAcquire( );
+			if ( permit == null ) {
+				log.warn( "Demographic verification shed at its concurrency limit" );
+				return VerificationResult.local( Status.OVERLOADED, "Demographic verification is at its concurrency limit" );
+			}
+			var answer = retry( client, body, permit );
+			return VerificationResult.service( answer.getStatus( ), answer.getReason( ), System.nanoTime( ) - start );
+		} catch ( ExecutionException e ) {
+			return failure( e.getCause( ), start );
+		} catch ( InterruptedException e ) {
+			Thread.currentThread( )
+			      .interrupt( );
+			return VerificationResult.service( Status.UNAVAILABLE, "Interrupted", System.nanoTime( ) - start );
+		} catch ( Exception e ) {
+			return failure( e, start );
+		}
+	}
 
-			var responseBody = SimpleHttp.doPost( baseUrl, session )
-			                             .header( "Content-Type", "application/json" )
-			                             .entity( new StringEntity( requestBody, APPLICATION_JSON ) )
-			                             .asString( );
+	/**
+	 * Classifies a failed call: an unreadable answer is an error, while failures to reach the service or get an answer
+	 * in time make it unavailable.
+	 */
+	private static
+	VerificationResult failure( Throwable failure, long start ) {
 
-			var decodedResponse = DemographicDataCodec.decode( responseBody );
+		log.error( "Error during demographic verification: " + failure.getMessage( ), failure );
+		var status = failure instanceof JsonProcessingException || !( failure instanceof IOException || failure instanceof TimeoutException ) ? Status.ERROR : Status.UNAVAILABLE;
+		var reason = failure.getMessage( ) != null ? failure.getMessage( ) : failure.getClass( )
+		                                                                            .getSimpleName( );
+		return VerificationResult.service( status, reason, System.nanoTime( ) - start );
+	}
 
-			return Boolean.TRUE.equals( decodedResponse.get( "valid" ) );
+	/**
+	 * Makes the call, retrying connection failures and {@code 502}, {@code 503} and {@code 504} answers.
+	 * <p>
+	 * Verification only reads from the service, so repeating a request is safe. Each retry picks the endpoints anew,
+	 * which steers it away from the replica that just failed, and waits a decorrelated-jitter delay first. Retries stop
+	 * after {@link VerificationEndpoints#getRetryMaxAttempts()} attempts or when the node's {@link VerificationEndpoints#getRetryBudget()
+	 * retry budget} is exhausted, so a failing service does not receive a multiple of its normal load. All attempts
+	 * share one deadline, and no retry is made that could not start before it.
+	 * </p>
+	 * <p>
+	 * Every attempt holds its own concurrency limiter permit, released as soon as the attempt ends, so a request waiting
+	 * out its backoff occupies no slot and the limiter only samples the round trips of actual requests. A retry that
+	 * finds the limiter full is not made.
+	 * </p>
+	 *
+	 * @param permit
+	 * 		the permit for the first attempt.
+	 */
+	private
+	VerificationResult retry( CloseableHttpClient client, BodyWriter body, AdaptiveConcurrencyLimiter.Permit permit ) throws IOException, InterruptedException, ExecutionException, TimeoutException {
+
+		var budget   = endpoints.getRetryBudget( );
+		var deadline = System.nanoTime( ) + TimeUnit.MILLISECONDS.toNanos( endpoints.getTimeoutMillis( ) );
+		budget.onRequest( );
+		long delay = 0;
+		for ( var attempt = 1; ; attempt++ ) {
+			try {
+				return attempt( client, body, deadline, permit );
+			} catch ( IOException | ExecutionException e ) {
+				var cause = e instanceof ExecutionException ? e.getCause( ) : e;
+				if ( attempt >= endpoints.getRetryMaxAttempts( ) || !isRetryable( cause ) ) {
+					throw e;
+				}
+				delay = endpoints.nextRetryDelayMillis( delay );
+				if ( TimeUnit.MILLISECONDS.toNanos( delay ) >= remainingNanos( deadline ) ) {
+					log.debugf( "Verification timeout reached, not retrying demographic verification after %s", cause );
+					throw e;
+				}
+				if ( !budget.tryRetry( ) ) {
+					log.debugf( "Retry budget exhausted, not retrying demographic verification after %s", cause );
+					throw e;
+				}
+				log.debugf( "Retrying demographic verification in %d ms after %s (attempt %d)", (Object) delay, cause, attempt + 1 );
+				Thread.sleep( delay );
+				permit = endpoints.getLimiter( )
+				                  .tryAcquire( );
+				if ( permit == null ) {
+					log.debugf( "Concurrency limit reached, not retrying demographic verification after %s", cause );
+					throw e;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Makes one attempt and completes its permit: an answer feeds its round trip into the limit, a failure lowers it.
+	 */
+	private
+	VerificationResult attempt( CloseableHttpClient client, BodyWriter body, long deadline, AdaptiveConcurrencyLimiter.Permit permit ) throws IOException, InterruptedException, ExecutionException, TimeoutException {
+
+		try {
+			var answer = call( client, body, deadline );
+			permit.success( );
+			return answer;
+		} catch ( InterruptedException e ) {
+			permit.ignore( );
+			throw e;
 		} catch ( Exception e ) {
-			log.error( "Error during demographic verification: " + e.getMessage( ), e );
+			permit.dropped( );
+			throw e;
 		}
-		return false;
+	}
+
+	private
+	VerificationResult call( CloseableHttpClient client, BodyWriter body, long deadline ) throws IOException, InterruptedException, ExecutionException, TimeoutException {
+
+		var selected = endpoints.select( );
+		return endpoints.isHedging( ) && selected.size( ) > 1 ? hedge( client, selected.get( 0 ), selected.get( 1 ), body, deadline ) : exchangeWithin( client, selected.get( 0 ), body, deadline );
+	}
+
+	private static
+	long remainingNanos( long deadline ) {
+
+		return deadline - System.nanoTime( );
+	}
+
+	private static
+	boolean isRetryable( Throwable failure ) {
+
+		if ( failure instanceof HttpResponseException e ) {
+			var status = e.getStatusCode( );
+			return status == HttpStatus.SC_BAD_GATEWAY || status == HttpStatus.SC_SERVICE_UNAVAILABLE || status == HttpStatus.SC_GATEWAY_TIMEOUT;
+		}
+		return failure instanceof ConnectException || failure instanceof ConnectTimeoutException || failure instanceof NoHttpResponseException;
+	}
+
+	/**
+	 * Sends the request to the chosen endpoint and, if it has not answered within its hedging delay, also to the
+	 * alternative. The first answer wins and the other request is aborted.
+	 * <p>
+	 * A request that fails before the hedging delay is not hedged: the failure is left to {@link #retry}, which draws
+	 * from the retry budget, so an outage does not double the requests sent per attempt.
+	 * </p>
+	 */
+	private
+	VerificationResult hedge( CloseableHttpClient client, VerificationEndpoint first, VerificationEndpoint second, BodyWriter body, long deadline ) throws IOException, InterruptedException, ExecutionException, TimeoutException {
+
+		var primary = submit( client, first, body );
+		if ( primary == null ) {
+			return exchangeWithin( client, first, body, deadline );
+		}
+
+		Attempt secondary = null;
+		try {
+			try {
+				return primary.result.get( Math.min( endpoints.hedgeDelayNanos( first ), remainingNanos( deadline ) ), TimeUnit.NANOSECONDS );
+			} catch ( TimeoutException e ) {
+				log.debugf( "Hedging demographic verification to %s", second );
+			}
+			if ( remainingNanos( deadline ) <= 0 ) {
+				throw new TimeoutException( "No answer within " + endpoints.getTimeoutMillis( ) + " ms" );
+			}
+			secondary = submit( client, second, body );
+			var answer = secondary != null ? firstAnswer( primary.result, secondary.result ) : primary.result;
+			return answer.get( remainingNanos( deadline ), TimeUnit.NANOSECONDS );
+		} finally {
+			primary.abort( );
+			if ( secondary != null ) {
+				secondary.abort( );
+			}
+		}
+	}
+
+	/**
+	 * Runs an exchange on the calling thread, aborting it if it is still running at the deadline.
+	 */
+	private
+	VerificationResult exchangeWithin( CloseableHttpClient client, VerificationEndpoint endpoint, BodyWriter body, long deadline ) throws IOException, TimeoutException {
+
+		var attempt = new Attempt( );
+		var timeout = TIMEOUTS.schedule( attempt::expire, remainingNanos( deadline ), TimeUnit.NANOSECONDS );
+		try {
+			return exchange( client, endpoint, body, attempt );
+		} catch ( IOException e ) {
+			if ( attempt.expired ) {
+				throw new TimeoutException( "No answer from " + endpoint + " within " + endpoints.getTimeoutMillis( ) + " ms" );
+			}
+			throw e;
+		} finally {
+			timeout.cancel( false );
+		}
+	}
+
+	/**
+	 * Runs an exchange on the hedging pool.
+	 *
+	 * @return the running attempt, or {@code null} if the pool is saturated.
+	 */
+	private
+	Attempt submit( CloseableHttpClient client, VerificationEndpoint endpoint, BodyWriter body ) {
+
+		var attempt = new Attempt( );
+		try {
+			endpoints.getExecutor( )
+			         .execute( ( ) -> {
+				         try {
+					         attempt.result.complete( exchange( client, endpoint, body, attempt ) );
+				         } catch ( Exception e ) {
+					         attempt.result.completeExceptionally( e );
+				         }
+			         } );
+			return attempt;
+		} catch ( RejectedExecutionException e ) {
+			return null;
+		}
+	}
+
+	private static
+	CompletableFuture< VerificationResult > firstAnswer( CompletableFuture< VerificationResult > a, CompletableFuture< VerificationResult > b ) {
+
+		var winner = new CompletableFuture< VerificationResult >( );
+		a.whenComplete( ( value, error ) -> settle( winner, value, error, b ) );
+		b.whenComplete( ( value, error ) -> settle( winner, value, error, a ) );
+		return winner;
+	}
+
+	private static
+	void settle( CompletableFuture< VerificationResult > winner, VerificationResult value, Throwable error, CompletableFuture< VerificationResult > other ) {
+
+		if ( error == null ) {
+			winner.complete( value );
+		} else if ( other.isCompletedExceptionally( ) ) {
+			winner.completeExceptionally( error );
+		}
+	}
+
+	/**
+	 * Sends one request to an endpoint, falling back to JSON if the endpoint rejects the preferred format, and records
+	 * the observed latency.
+	 * <p>
+	 * If the service answers {@code 406} or {@code 415}, the endpoint is {@linkplain VerificationEndpoint#markJsonOnly()
+	 * spoken to in JSON} for a while. A {@code 5xx}
+	 * answer counts as a failure of the endpoint, which may eject it from the rotation.
+	 * </p>
+	 */
+	private
+	VerificationResult exchange( CloseableHttpClient client, VerificationEndpoint endpoint, BodyWriter body, Attempt attempt ) throws IOException {
+
+		var url    = endpoint.getUrl( );
+		var format = wireFormat == null || endpoint.isJsonOnly( ) ? WireFormat.JSON : wireFormat;
+		var start  = System.nanoTime( );
+		endpoint.acquire( );
+		try {
+			var result = send( client, url, body, format, attempt );
+			if ( result == null ) {
+				log.infof( "Verification service %s does not accept %s, falling back to JSON", url, format.getMediaType( ) );
+				endpoint.markJsonOnly( );
+				result = send( client, url, body, WireFormat.JSON, attempt );
+			}
+			endpoint.record( System.nanoTime( ) - start );
+			return result;
+		} catch ( IOException e ) {
+			if ( attempt.aborted ) {
+				// lost the race: it took at least this long
+				endpoint.record( System.nanoTime( ) - start );
+			} else {
+				endpoint.recordFailure( System.nanoTime( ) - start );
+			}
+			throw e;
+		} finally {
+			endpoint.release( );
+		}
+	}
+
+	/**
+	 * Sends one request in the given format.
+	 *
+	 * @return the answer, without latency, or {@code null} if the service rejected a non-JSON format.
+	 */
+	private
+	VerificationResult send( CloseableHttpClient client, String url, BodyWriter body, WireFormat format, Attempt attempt ) throws IOException {
+
+		var entity = new EntityTemplate( out -> body.write( out, format ) );
+		entity.setContentType( format.getMediaType( ) );
+
+		var request = new HttpPost( url );
+		request.setHeader( HttpHeaders.ACCEPT, format.getMediaType( ) );
+		request.setEntity( entity );
+		attempt.request = request;
+		if ( attempt.aborted || attempt.expired ) {
+			request.abort( );
+		}
+
+		try ( var response = client.execute( request ) ) {
+			var responseEntity = response.getEntity( );
+			var status         = response.getStatusLine( )
+			                             .getStatusCode( );
+			try {
+				if ( format != WireFormat.JSON && ( status == HttpStatus.SC_NOT_ACCEPTABLE || status == HttpStatus.SC_UNSUPPORTED_MEDIA_TYPE ) ) {
+					return null;
+				}
+				if ( status >= 500 ) {
+					throw new HttpResponseException( status, "Verification service failed" );
+				}
+				if ( status < 200 || status >= 300 || responseEntity == null ) {
+					log.warnf( "Demographic verification returned HTTP %d", status );
+					return VerificationResult.service( Status.ERROR, "HTTP " + status, 0 );
+				}
+				var responseFormat = isJson( responseEntity.getContentType( ) ) ? WireFormat.JSON : format;
+				Boolean verdict;
+				try ( var in = responseEntity.getContent( ) ) {
+					verdict = DemographicDataCodec.readVerdict( in, responseFormat );
+				}
+				if ( verdict == null ) {
+					log.warn( "Demographic verification response has no valid flag" );
+					return VerificationResult.service( Status.ERROR, "Response has no valid flag", 0 );
+				}
+				return verdict ? VerificationResult.service( Status.VERIFIED, null, 0 ) : VerificationResult.service( Status.REJECTED, "Rejected by the verification service", 0 );
+			} finally {
+				EntityUtils.consumeQuietly( responseEntity );
+			}
+		}
+	}
+
+	private static
+	boolean isJson( Header contentType ) {
+
+		return contentType != null && contentType.getValue( )
+		                                         .startsWith( WireFormat.JSON.getMediaType( ) );
+	}
+
+	/**
+	 * Writes a request body in a given wire format.
+	 */
+	@FunctionalInterface
+	private
+	interface BodyWriter {
+
+		void write( OutputStream out, WireFormat format ) throws IOException;
+
+	}
+
+	/**
+	 * One request to one endpoint, which can be aborted once another endpoint has answered.
+	 */
+	private static
+	class Attempt {
+
+		private final    CompletableFuture< VerificationResult > result = new CompletableFuture<>( );
+		private volatile HttpPost                                request;
+		private volatile boolean                                 aborted;
+		private volatile boolean                                 expired;
+
+		private
+		void abort( ) {
+
+			aborted = true;
+			var current = request;
+			if ( current != null && !result.isDone( ) ) {
+				current.abort( );
+			}
+		}
+
+		private
+		void expire( ) {
+
+			expired = true;
+			var current = request;
+			if ( current != null ) {
+				current.abort( );
+			}
+		}
+
 	}
 
 }
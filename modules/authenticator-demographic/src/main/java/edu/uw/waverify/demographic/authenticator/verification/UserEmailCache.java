@@ -0,0 +1,143 @@
+package edu.uw.waverify.demographic.authenticator.verification;
+
+import java.util.*;
+
+import org.keycloak.models.*;
+
+/**
+ * Realm-scoped cache from email address to user ID, held in memory on the local node.
+ * <p>
+ * A cached ID is only trusted after the user it points to has been loaded by ID, which Keycloak's user cache usually
+ * answers without a query, and still has the same email; otherwise the entry is dropped and the email search runs as
+ * before. Removed users and realms are evicted through {@link UserModel.UserRemovedEvent} and
+ * {@link RealmModel.RealmRemovedEvent}.
+ * </p>
+ */
+public
+class UserEmailCache {
+
+	private static final int DEFAULT_MAX_SIZE = 10_000;
+
+	private static volatile Map< String, String > entries = create( DEFAULT_MAX_SIZE );
+
+	private
+	UserEmailCache( ) {
+
+	}
+
+	/**
+	 * Replaces the cache with an empty one of the given size.
+	 *
+	 * @param maxSize
+	 * 		the maximum number of cached emails; {@code 0} or less disables caching.
+	 */
+	public static
+	void configure( int maxSize ) {
+
+		entries = create( maxSize );
+	}
+
+	/**
+	 * Finds a user by email, consulting the cache before searching the user store.
+	 *
+	 * @param session
+	 * 		the Keycloak session.
+	 * @param realm
+	 * 		the realm to search.
+	 * @param email
+	 * 		the email address.
+	 *
+	 * @return the user, or {@code null} if no user has this email.
+	 */
+	public static
+	UserModel getUserByEmail( KeycloakSession session, RealmModel realm, String email ) {
+
+		var key    = key( realm.getId( ), email );
+		var userId = entries.get( key );
+		var users  = session.users( );
+
+		if ( userId != null ) {
+			var user = users.getUserById( realm, userId );
+			if ( user != null && email.equalsIgnoreCase( user.getEmail( ) ) ) {
+				return user;
+			}
+			entries.remove( key );
+		}
+
+		var user = users.getUserByEmail( realm, email );
+		if ( user != null ) {
+			entries.put( key, user.getId( ) );
+		}
+		return user;
+	}
+
+	/**
+	 * Records the email of a user, typically one that was just created.
+	 *
+	 * @param realm
+	 * 		the user's realm.
+	 * @param user
+	 * 		the user.
+	 */
+	public static
+	void put( RealmModel realm, UserModel user ) {
+
+		if ( user.getEmail( ) != null ) {
+			entries.put( key( realm.getId( ), user.getEmail( ) ), user.getId( ) );
+		}
+	}
+
+	/**
+	 * Evicts the entry of a removed user.
+	 *
+	 * @param event
+	 * 		the user removal event.
+	 */
+	public static
+	void onUserRemoved( UserModel.UserRemovedEvent event ) {
+
+		var email = event.getUser( )
+		                 .getEmail( );
+		if ( email != null ) {
+			entries.remove( key( event.getRealm( )
+			                          .getId( ), email ) );
+		}
+	}
+
+	/**
+	 * Evicts all entries of a removed realm.
+	 *
+	 * @param realmId
+	 * 		the ID of the removed realm.
+	 */
+	public static
+	void onRealmRemoved( String realmId ) {
+
+		var prefix = realmId + ":";
+		synchronized ( entries ) {
+			entries.keySet( )
+			       .removeIf( key -> key.startsWith( prefix ) );
+		}
+	}
+
+	private static
+	String key( String realmId, String email ) {
+
+		return realmId + ":" + email.toLowerCase( Locale.ROOT );
+	}
+
+	private static
+	Map< String, String > create( int maxSize ) {
+
+		return Collections.synchronizedMap( new LinkedHashMap<>( 16, 0.75f, true ) {
+
+			@Override
+			protected
+			boolean removeEldestEntry( Map.Entry< String, String > eldest ) {
+
+				return size( ) > maxSize;
+			}
+		} );
+	}
+
+}
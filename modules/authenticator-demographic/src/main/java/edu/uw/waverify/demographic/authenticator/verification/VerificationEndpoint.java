@@ -0,0 +1,221 @@
+package edu.uw.waverify.demographic.authenticator.verification;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import lombok.Getter;
+
+/**
+ * A verification service replica together with the latencies observed for it on the local node.
+ * <p>
+ * Latencies feed an exponentially weighted moving average, used to rank endpoints, and a window of the most recent
+ * samples from which the 95th percentile is recomputed every few samples, used as the hedging delay. The endpoint also
+ * counts its requests in flight, for load balancing, and is taken out of rotation while an active health probe reports
+ * it down or after a run of consecutive failures (passive ejection). An endpoint that rejects a binary wire format is
+ * spoken to in JSON for a while, and offered the binary format again after that.
+ * </p>
+ */
+public
+class VerificationEndpoint {
+
+	static final int  MIN_SAMPLES             = 20;
+	static final int  DEFAULT_EJECT_AFTER     = 5;
+	static final long DEFAULT_EJECTION_MILLIS = 30_000;
+	static final long JSON_ONLY_MILLIS        = 300_000;
+
+	private static final int    WINDOW             = 128;
+	private static final int    RECOMPUTE_INTERVAL = 16;
+	private static final double ALPHA              = 0.2;
+
+	@Getter
+	private final String        url;
+	private final int           ejectAfterFailures;
+	private final long          ejectionNanos;
+	private final long[]        window   = new long[ WINDOW ];
+	private final AtomicInteger inFlight = new AtomicInteger( );
+	private       long          count;
+	private       int           consecutiveFailures;
+
+	private volatile double  ewmaNanos;
+	private volatile long    p95Nanos;
+	private volatile long    ejectedUntil;
+	private volatile boolean ejected;
+	private volatile long    jsonOnlyUntil;
+	private volatile boolean jsonOnly;
+	@Getter
+	private volatile boolean healthy = true;
+
+	/**
+	 * Creates an endpoint without any observed latency, using the default ejection policy.
+	 *
+	 * @param url
+	 * 		the URL verification requests are posted to.
+	 */
+	public
+	VerificationEndpoint( String url ) {
+
+		this( url, DEFAULT_EJECT_AFTER, DEFAULT_EJECTION_MILLIS );
+	}
+
+	/**
+	 * Creates an endpoint without any observed latency.
+	 *
+	 * @param url
+	 * 		the URL verification requests are posted to.
+	 * @param ejectAfterFailures
+	 * 		the number of consecutive failures after which the endpoint is ejected; {@code 0} disables ejection.
+	 * @param ejectionMillis
+	 * 		how long an ejected endpoint stays out of rotation.
+	 */
+	public
+	VerificationEndpoint( String url, int ejectAfterFailures, long ejectionMillis ) {
+
+		this.url = url;
+		this.ejectAfterFailures = ejectAfterFailures;
+		this.ejectionNanos = TimeUnit.MILLISECONDS.toNanos( ejectionMillis );
+	}
+
+	/**
+	 * Tells whether requests may be sent to this endpoint.
+	 *
+	 * @return {@code true} unless the last health probe failed or the endpoint is ejected.
+	 */
+	public
+	boolean isAvailable( ) {
+
+		return healthy && ( !ejected || System.nanoTime( ) - ejectedUntil >= 0 );
+	}
+
+	/**
+	 * Returns the number of requests currently in flight to this endpoint from the local node.
+	 *
+	 * @return the in-flight count.
+	 */
+	public
+	int getInFlight( ) {
+
+		return inFlight.get( );
+	}
+
+	/**
+	 * Marks the start of a request.
+	 */
+	void acquire( ) {
+
+		inFlight.incrementAndGet( );
+	}
+
+	/**
+	 * Marks the end of a request started with {@link #acquire()}.
+	 */
+	void release( ) {
+
+		inFlight.decrementAndGet( );
+	}
+
+	/**
+	 * Tells whether this endpoint recently rejected a binary wire format.
+	 *
+	 * @return {@code true} until {@link #JSON_ONLY_MILLIS} have passed since the last {@link #markJsonOnly()}.
+	 */
+	public
+	boolean isJsonOnly( ) {
+
+		return jsonOnly && System.nanoTime( ) - jsonOnlyUntil < 0;
+	}
+
+	/**
+	 * Remembers that this endpoint rejected a binary wire format. The rejection may come from a replica that is being
+	 * redeployed, so it only lasts {@link #JSON_ONLY_MILLIS}.
+	 */
+	void markJsonOnly( ) {
+
+		jsonOnlyUntil = System.nanoTime( ) + TimeUnit.MILLISECONDS.toNanos( JSON_ONLY_MILLIS );
+		jsonOnly = true;
+	}
+
+	/**
+	 * Records the outcome of an active health probe.
+	 *
+	 * @param healthy
+	 * 		whether the probe succeeded.
+	 */
+	public
+	void setHealthy( boolean healthy ) {
+
+		this.healthy = healthy;
+	}
+
+	/**
+	 * Records the latency of a completed request.
+	 *
+	 * @param nanos
+	 * 		the time between sending the request and reading the answer.
+	 */
+	public synchronized
+	void record( long nanos ) {
+
+		consecutiveFailures = 0;
+		ejected = false;
+		ewmaNanos = count == 0 ? nanos : ewmaNanos + ALPHA * ( nanos - ewmaNanos );
+		window[ ( int ) ( count % WINDOW ) ] = nanos;
+		count++;
+		if ( count >= MIN_SAMPLES && count % RECOMPUTE_INTERVAL == 0 ) {
+			var sorted = Arrays.copyOf( window, ( int ) Math.min( count, WINDOW ) );
+			Arrays.sort( sorted );
+			p95Nanos = sorted[ ( int ) Math.ceil( sorted.length * 0.95 ) - 1 ];
+		}
+	}
+
+	/**
+	 * Records a failed request.
+	 * <p>
+	 * A replica that fails fast must not look fast, so a failure doubles the average instead of being recorded as a
+	 * sample. After {@code ejectAfterFailures} consecutive failures the endpoint is ejected for the ejection period;
+	 * the first request after that period serves as the trial that either restores or ejects it again.
+	 * </p>
+	 *
+	 * @param nanos
+	 * 		the time until the request failed.
+	 */
+	public synchronized
+	void recordFailure( long nanos ) {
+
+		ewmaNanos = Math.max( ewmaNanos * 2, nanos );
+		if ( ejectAfterFailures > 0 && ++consecutiveFailures >= ejectAfterFailures ) {
+			ejectedUntil = System.nanoTime( ) + ejectionNanos;
+			ejected = true;
+		}
+	}
+
+	/**
+	 * Returns the moving average latency.
+	 *
+	 * @return the average in nanoseconds, or {@code 0} if nothing has been recorded yet.
+	 */
+	public
+	double getEwmaNanos( ) {
+
+		return ewmaNanos;
+	}
+
+	/**
+	 * Returns the 95th percentile of the recent latencies.
+	 *
+	 * @return the percentile in nanoseconds, or {@code 0} until enough samples have been recorded.
+	 */
+	public
+	long getP95Nanos( ) {
+
+		return p95Nanos;
+	}
+
+	@Override
+	public
+	String toString( ) {
+
+		return url;
+	}
+
+}
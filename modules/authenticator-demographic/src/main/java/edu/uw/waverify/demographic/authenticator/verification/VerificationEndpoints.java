@@ -0,0 +1,560 @@
+package edu.uw.waverify.demographic.authenticator.verification;
+
+import java.net.URI;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+import org.keycloak.Config;
+import org.keycloak.connections.httpclient.HttpClientProvider;
+import org.keycloak.models.KeycloakSession;
+import org.keycloak.models.KeycloakSessionFactory;
+import org.keycloak.services.scheduled.ScheduledTaskRunner;
+import org.keycloak.timer.TimerProvider;
+
+import edu.uw.waverify.ratelimit.AdaptiveConcurrencyLimiter;
+import edu.uw.waverify.ratelimit.RetryBudget;
+
+import lombok.Getter;
+import lombok.extern.jbosslog.JBossLog;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.util.EntityUtils;
+
+/**
+ * The verification service replicas known to the local node and the policy for hedging requests across them.
+ * <p>
+ * Endpoints are configured as a comma-separated {@code baseUrl}. Each request picks two available endpoints at random
+ * and goes to the one with fewer requests in flight, ties going to the lower moving average latency (power of two
+ * choices). When more than one endpoint is configured, a request that has not been answered after the chosen
+ * endpoint's observed 95th percentile latency ({@code hedgeDelayMillis} until enough samples exist, never less than
+ * {@code hedgeMinDelayMillis}) is duplicated to the other choice and the first answer wins. Hedged requests run on a
+ * small daemon pool ({@code hedgeThreads}). Hedged or not, no verification waits longer than
+ * {@code verificationTimeoutMillis} in all, retries included; a request still running by then is aborted.
+ * </p>
+ * <p>
+ * An endpoint leaves the rotation when its health probe fails or after {@code ejectAfterFailures} consecutive failed
+ * requests, in which case it returns after {@code ejectionMillis}. Every {@code healthCheckInterval} seconds all
+ * endpoints are probed in parallel with {@code GET healthPath}, each given up after {@code healthCheckTimeoutMillis}.
+ * The health path is resolved against the endpoint URL like a relative link, so the default
+ * {@code ../actuator/health} turns {@code http://vp/app/api/validation} into {@code http://vp/app/actuator/health};
+ * an absolute path starts at the root of the host. If no endpoint is available, all of them are
+ * used, so that a misbehaving probe can never take verification down on its own.
+ * </p>
+ * <p>
+ * Requests to the pool as a whole pass through an {@link AdaptiveConcurrencyLimiter}
+ * ({@code verificationConcurrencyInitial}, {@code verificationConcurrencyMin}, {@code verificationConcurrencyMax}); a
+ * request beyond its limit is shed with a {@link VerificationResult.Status#OVERLOADED} result instead of being queued.
+ * </p>
+ * <p>
+ * Connection failures and {@code 502}, {@code 503} and {@code 504} answers are retried, up to {@code retryMaxAttempts}
+ * attempts in all, with decorrelated jitter between {@code retryBaseDelayMillis} and {@code retryMaxDelayMillis}. Retries
+ * are limited by a node-wide {@link RetryBudget} ({@code retryBudgetPercent} of requests, {@code retryBudgetReserve}).
+ * </p>
+ * <p>
+ * Definitive answers are kept in a {@link VerificationResultCache} ({@code verificationCacheSize},
+ * {@code verificationCacheTtl} in seconds), and the outcomes of all verifications are counted per status. Every
+ * {@code verificationStatsInterval} seconds the node logs these counts together with the cache hits, the retries granted
+ * and refused by the retry budget and the current concurrency limit, if any verification was made since the last
+ * summary.
+ * </p>
+ * <p>
+ * Factories obtain their endpoints through {@link #shared}, so every factory on a node configured with the same
+ * {@code baseUrl} uses one set of pools, limiter, retry budget, cache and health probes. The other settings of a shared
+ * instance are taken from the first factory to initialize.
+ * </p>
+ */
+@JBossLog
+public
+class VerificationEndpoints implements AutoCloseable {
+
+	private static final long   DEFAULT_HEDGE_DELAY      = 250;
+	private static final long   DEFAULT_HEDGE_MIN_DELAY  = 10;
+	private static final long   DEFAULT_TIMEOUT          = 10_000;
+	private static final long   DEFAULT_HEALTH_INTERVAL  = 10;
+	private static final long   DEFAULT_HEALTH_TIMEOUT   = 2000;
+	private static final String DEFAULT_HEALTH_PATH      = "../actuator/health";
+	private static final int    DEFAULT_RETRY_ATTEMPTS   = 3;
+	private static final long   DEFAULT_RETRY_BASE_DELAY = 50;
+	private static final long   DEFAULT_RETRY_MAX_DELAY  = 1000;
+	private static final long   DEFAULT_STATS_INTERVAL   = 300;
+	private static final String HEALTH_CHECK_TASK_NAME   = "demographic-verification-health";
+	private static final String STATS_TASK_NAME          = "demographic-verification-stats";
+
+	private static final Map< String, VerificationEndpoints > SHARED = new HashMap<>( );
+
+	private static final Comparator< VerificationEndpoint > LOAD_ORDER = Comparator.comparingInt( VerificationEndpoint::getInFlight )
+	                                                                               .thenComparingDouble( VerificationEndpoint::getEwmaNanos );
+
+	private final List< VerificationEndpoint > endpoints;
+	private final long                         hedgeDelayNanos;
+	private final long                         hedgeMinDelayNanos;
+	@Getter
+	private final long                         timeoutMillis;
+	@Getter
+	private final ExecutorService              executor;
+	@Getter
+	private       long                         healthCheckInterval = DEFAULT_HEALTH_INTERVAL;
+	private       long                         healthCheckTimeout  = DEFAULT_HEALTH_TIMEOUT;
+	private       String                       healthPath          = DEFAULT_HEALTH_PATH;
+	private       ExecutorService              probeExecutor;
+	private       long                         statsInterval       = DEFAULT_STATS_INTERVAL;
+	@Getter
+	private       AdaptiveConcurrencyLimiter   limiter             = createLimiter( null );
+	@Getter
+	private       RetryBudget                  retryBudget         = createRetryBudget( null );
+	@Getter
+	private       int                          retryMaxAttempts    = DEFAULT_RETRY_ATTEMPTS;
+	private       long                         retryBaseDelay      = DEFAULT_RETRY_BASE_DELAY;
+	private       long                         retryMaxDelay       = DEFAULT_RETRY_MAX_DELAY;
+	@Getter
+	private       VerificationResultCache      resultCache         = new VerificationResultCache( VerificationResultCache.DEFAULT_MAX_SIZE, VerificationResultCache.DEFAULT_TTL );
+
+	private final Map< VerificationResult.Status, LongAdder > outcomes  = new EnumMap<>( VerificationResult.Status.class );
+	private final LongAdder                                   cacheHits = new LongAdder( );
+
+	private String  sharedKey;
+	private int     users;
+	private boolean scheduled;
+	private long    reported;
+
+	VerificationEndpoints( List< VerificationEndpoint > endpoints, long hedgeDelayMillis, long hedgeMinDelayMillis, long timeoutMillis, ExecutorService executor ) {
+
+		this.endpoints = List.copyOf( endpoints );
+		this.hedgeDelayNanos = TimeUnit.MILLISECONDS.toNanos( hedgeDelayMillis );
+		this.hedgeMinDelayNanos = TimeUnit.MILLISECONDS.toNanos( hedgeMinDelayMillis );
+		this.timeoutMillis = timeoutMillis;
+		this.executor = executor;
+		for ( var status : VerificationResult.Status.values( ) ) {
+			outcomes.put( status, new LongAdder( ) );
+		}
+	}
+
+	/**
+	 * Creates the endpoints from SPI configuration.
+	 *
+	 * @param config
+	 * 		the configuration scope, may be {@code null}.
+	 *
+	 * @return the endpoints; empty if no {@code baseUrl} is configured.
+	 */
+	public static
+	VerificationEndpoints fromConfig( Config.Scope config ) {
+
+		if ( config == null ) {
+			return of( null );
+		}
+		var processors = Runtime.getRuntime( )
+		                        .availableProcessors( );
+		var ejectAfter = config.getInt( "ejectAfterFailures", VerificationEndpoint.DEFAULT_EJECT_AFTER );
+		var ejection   = config.getLong( "ejectionMillis", VerificationEndpoint.DEFAULT_EJECTION_MILLIS );
+		var endpoints  = parse( config.get( "baseUrl" ), url -> new VerificationEndpoint( url, ejectAfter, ejection ) );
+		var threads    = config.getInt( "hedgeThreads", processors * 2 );
+		var executor   = endpoints.size( ) > 1 && threads > 0 ? createExecutor( threads ) : null;
+		var result     = new VerificationEndpoints( endpoints,
+		                                            config.getLong( "hedgeDelayMillis", DEFAULT_HEDGE_DELAY ),
+		                                            config.getLong( "hedgeMinDelayMillis", DEFAULT_HEDGE_MIN_DELAY ),
+		                                            config.getLong( "verificationTimeoutMillis", DEFAULT_TIMEOUT ),
+		                                            executor );
+		result.healthCheckInterval = config.getLong( "healthCheckInterval", DEFAULT_HEALTH_INTERVAL );
+		result.healthCheckTimeout = config.getLong( "healthCheckTimeoutMillis", DEFAULT_HEALTH_TIMEOUT );
+		result.healthPath = config.get( "healthPath", DEFAULT_HEALTH_PATH );
+		result.statsInterval = config.getLong( "verificationStatsInterval", DEFAULT_STATS_INTERVAL );
+		result.limiter = createLimiter( config );
+		result.retryBudget = createRetryBudget( config );
+		result.retryMaxAttempts = config.getInt( "retryMaxAttempts", DEFAULT_RETRY_ATTEMPTS );
+		result.retryBaseDelay = config.getLong( "retryBaseDelayMillis", DEFAULT_RETRY_BASE_DELAY );
+		result.retryMaxDelay = config.getLong( "retryMaxDelayMillis", DEFAULT_RETRY_MAX_DELAY );
+		result.resultCache = new VerificationResultCache( config.getInt( "verificationCacheSize", VerificationResultCache.DEFAULT_MAX_SIZE ),
+		                                                  config.getLong( "verificationCacheTtl", VerificationResultCache.DEFAULT_TTL ) );
+		return result;
+	}
+
+	/**
+	 * Returns the endpoints shared by every factory on the local node that is configured with the same {@code baseUrl},
+	 * creating them from this configuration on first use.
+	 * <p>
+	 * Each call must be matched by a {@link #close()}; the pools are stopped when the last user closes them.
+	 * </p>
+	 *
+	 * @param config
+	 * 		the configuration scope, may be {@code null}.
+	 *
+	 * @return the shared endpoints; empty, and not shared, if no {@code baseUrl} is configured.
+	 */
+	public static
+	VerificationEndpoints shared( Config.Scope config ) {
+
+		var key = String.join( ",", parse( config != null ? config.get( "baseUrl" ) : null, url -> url ) );
+		if ( key.isEmpty( ) ) {
+			return fromConfig( config );
+		}
+		synchronized ( SHARED ) {
+			var endpoints = SHARED.computeIfAbsent( key, url -> {
+				var created = fromConfig( config );
+				created.sharedKey = url;
+				return created;
+			} );
+			endpoints.users++;
+			return endpoints;
+		}
+	}
+
+	/**
+	 * Creates endpoints that are used one at a time, without hedging.
+	 *
+	 * @param baseUrl
+	 * 		one or more comma-separated URLs, may be {@code null}.
+	 *
+	 * @return the endpoints.
+	 */
+	public static
+	VerificationEndpoints of( String baseUrl ) {
+
+		return new VerificationEndpoints( parse( baseUrl, VerificationEndpoint::new ), DEFAULT_HEDGE_DELAY, DEFAULT_HEDGE_MIN_DELAY, DEFAULT_TIMEOUT, null );
+	}
+
+	private static < T >
+	List< T > parse( String baseUrl, Function< String, T > factory ) {
+
+		if ( baseUrl == null ) {
+			return List.of( );
+		}
+		return Arrays.stream( baseUrl.split( "," ) )
+		             .map( String::trim )
+		             .filter( url -> !url.isEmpty( ) )
+		             .distinct( )
+		             .map( factory )
+		             .toList( );
+	}
+
+	private static
+	AdaptiveConcurrencyLimiter createLimiter( Config.Scope config ) {
+
+		return AdaptiveConcurrencyLimiter.fromConfig( config, "verificationConcurrency", 20, 2, 200 );
+	}
+
+	private static
+	RetryBudget createRetryBudget( Config.Scope config ) {
+
+		return RetryBudget.fromConfig( config, "retryBudget", 10, 10 );
+	}
+
+	private static
+	ExecutorService createExecutor( int threads ) {
+
+		return createExecutor( "verification-hedge", threads );
+	}
+
+	private static
+	ExecutorService createExecutor( String name, int threads ) {
+
+		var executor = new ThreadPoolExecutor( threads, threads, 60, TimeUnit.SECONDS, new ArrayBlockingQueue<>( threads * 16 ), runnable -> {
+			var thread = new Thread( runnable, name );
+			thread.setDaemon( true );
+			return thread;
+		}, new ThreadPoolExecutor.AbortPolicy( ) );
+		executor.allowCoreThreadTimeOut( true );
+		return executor;
+	}
+
+	/**
+	 * Tells whether any endpoint is configured.
+	 *
+	 * @return {@code true} if there is no endpoint.
+	 */
+	public
+	boolean isEmpty( ) {
+
+		return endpoints.isEmpty( );
+	}
+
+	/**
+	 * Tells whether requests are hedged.
+	 *
+	 * @return {@code true} if there are at least two endpoints and a pool to run duplicate requests on.
+	 */
+	public
+	boolean isHedging( ) {
+
+		return executor != null && endpoints.size( ) > 1;
+	}
+
+	/**
+	 * Returns all configured endpoints, in configuration order.
+	 *
+	 * @return an unmodifiable list of the endpoints.
+	 */
+	public
+	List< VerificationEndpoint > getEndpoints( ) {
+
+		return endpoints;
+	}
+
+	/**
+	 * Chooses where to send a request, by power of two choices.
+	 * <p>
+	 * Two distinct available endpoints are drawn at random; the one with fewer requests in flight, or the lower moving
+	 * average latency on a tie, comes first and the other second, as the hedging target.
+	 * </p>
+	 *
+	 * @return one endpoint, or two if more than one is configured.
+	 */
+	public
+	List< VerificationEndpoint > select( ) {
+
+		var candidates = endpoints.stream( )
+		                          .filter( VerificationEndpoint::isAvailable )
+		                          .toList( );
+		if ( candidates.isEmpty( ) ) {
+			candidates = endpoints;
+		}
+		if ( candidates.size( ) == 1 ) {
+			return candidates;
+		}
+
+		var random = ThreadLocalRandom.current( );
+		var i      = random.nextInt( candidates.size( ) );
+		var j      = random.nextInt( candidates.size( ) - 1 );
+		var a      = candidates.get( i );
+		var b      = candidates.get( j >= i ? j + 1 : j );
+		return LOAD_ORDER.compare( a, b ) <= 0 ? List.of( a, b ) : List.of( b, a );
+	}
+
+	/**
+	 * Returns how long to wait for an endpoint before hedging.
+	 *
+	 * @param endpoint
+	 * 		the endpoint the request was sent to first.
+	 *
+	 * @return the delay in nanoseconds.
+	 */
+	public
+	long hedgeDelayNanos( VerificationEndpoint endpoint ) {
+
+		var p95 = endpoint.getP95Nanos( );
+		return Math.max( p95 > 0 ? p95 : hedgeDelayNanos, hedgeMinDelayNanos );
+	}
+
+	/**
+	 * Counts the outcome of a verification.
+	 *
+	 * @param result
+	 * 		the result handed to the caller.
+	 */
+	public
+	void count( VerificationResult result ) {
+
+		outcomes.get( result.getStatus( ) )
+		        .increment( );
+		if ( result.getSource( ) == VerificationResult.Source.CACHE ) {
+			cacheHits.increment( );
+		}
+		log.debugf( "Demographic verification %s from %s in %d ms", result.getStatus( ), result.getSource( ), TimeUnit.NANOSECONDS.toMillis( result.getLatencyNanos( ) ) );
+	}
+
+	/**
+	 * Returns the number of verifications that ended with a given status on the local node.
+	 *
+	 * @param status
+	 * 		the status.
+	 *
+	 * @return the count.
+	 */
+	public
+	long getOutcomes( VerificationResult.Status status ) {
+
+		return outcomes.get( status )
+		               .sum( );
+	}
+
+	/**
+	 * Returns the number of verifications answered from the {@link #getResultCache() result cache}.
+	 *
+	 * @return the count.
+	 */
+	public
+	long getCacheHits( ) {
+
+		return cacheHits.sum( );
+	}
+
+	/**
+	 * Returns how long to wait before the next retry, using decorrelated jitter.
+	 * <p>
+	 * The delay is drawn uniformly between the base delay and three times the previous delay, capped at the maximum, so
+	 * retries from many requests spread out instead of arriving in waves.
+	 * </p>
+	 *
+	 * @param previousMillis
+	 * 		the previous delay, or {@code 0} before the first retry.
+	 *
+	 * @return the delay in milliseconds.
+	 */
+	public
+	long nextRetryDelayMillis( long previousMillis ) {
+
+		var upper = Math.max( retryBaseDelay, previousMillis * 3 );
+		var delay = upper > retryBaseDelay ? ThreadLocalRandom.current( )
+		                                                      .nextLong( retryBaseDelay, upper ) : retryBaseDelay;
+		return Math.min( retryMaxDelay, delay );
+	}
+
+	/**
+	 * Schedules the periodic tasks of the local node: the health probes, if there is more than one endpoint to choose
+	 * from, and the statistics summary.
+	 * <p>
+	 * Every factory sharing these endpoints calls this; the tasks are scheduled on the first call only.
+	 * </p>
+	 *
+	 * @param factory
+	 * 		the Keycloak session factory.
+	 * @param timer
+	 * 		the timer provider.
+	 */
+	public synchronized
+	void scheduleTasks( KeycloakSessionFactory factory, TimerProvider timer ) {
+
+		if ( scheduled || endpoints.isEmpty( ) ) {
+			return;
+		}
+		scheduled = true;
+		if ( endpoints.size( ) > 1 && healthCheckInterval > 0 ) {
+			probeExecutor = createExecutor( "verification-health", endpoints.size( ) );
+			timer.schedule( new ScheduledTaskRunner( factory, this::probe ), healthCheckInterval * 1000, taskName( HEALTH_CHECK_TASK_NAME ) );
+		}
+		if ( statsInterval > 0 ) {
+			timer.schedule( this::logStats, statsInterval * 1000, taskName( STATS_TASK_NAME ) );
+		}
+	}
+
+	private
+	String taskName( String name ) {
+
+		return sharedKey != null ? name + ":" + sharedKey : name;
+	}
+
+	/**
+	 * Logs the verification counts of the local node, unless nothing was verified since the last summary.
+	 */
+	void logStats( ) {
+
+		var total = outcomes.values( )
+		                    .stream( )
+		                    .mapToLong( LongAdder::sum )
+		                    .sum( );
+		synchronized ( this ) {
+			if ( total == reported ) {
+				return;
+			}
+			reported = total;
+		}
+		log.info( stats( ) );
+	}
+
+	/**
+	 * Describes the verification counts of the local node since startup.
+	 *
+	 * @return a one-line summary.
+	 */
+	String stats( ) {
+
+		var counts = new StringJoiner( ", " );
+		outcomes.forEach( ( status, count ) -> counts.add( status + "=" + count.sum( ) ) );
+		return String.format( "Demographic verification: %s; %d answered from cache; %d requests, %d retries, %d retries refused by the budget; concurrency limit %d",
+		                      counts, getCacheHits( ), retryBudget.getRequests( ), retryBudget.getRetries( ), retryBudget.getExhausted( ), limiter.getLimit( ) );
+	}
+
+	/**
+	 * Probes the health endpoint of every replica and takes failing ones out of rotation.
+	 * <p>
+	 * Once {@linkplain #scheduleTasks scheduled}, the replicas are probed in parallel, so a replica that hangs
+	 * does not hold up the others; each probe is given up after {@code healthCheckTimeoutMillis}.
+	 * </p>
+	 *
+	 * @param session
+	 * 		the Keycloak session providing the HTTP client.
+	 */
+	public
+	void probe( KeycloakSession session ) {
+
+		var client   = session.getProvider( HttpClientProvider.class )
+		                      .getHttpClient( );
+		var executor = probeExecutor != null ? probeExecutor : ( Executor ) Runnable::run;
+		var probes   = endpoints.stream( )
+		                        .map( endpoint -> CompletableFuture.runAsync( ( ) -> probe( client, endpoint ), executor ) )
+		                        .toArray( CompletableFuture[]::new );
+		CompletableFuture.allOf( probes )
+		                 .join( );
+	}
+
+	private
+	void probe( CloseableHttpClient client, VerificationEndpoint endpoint ) {
+
+		var timeout = ( int ) healthCheckTimeout;
+		var request = new HttpGet( healthUri( endpoint.getUrl( ), healthPath ) );
+		request.setConfig( RequestConfig.custom( )
+		                                .setConnectionRequestTimeout( timeout )
+		                                .setConnectTimeout( timeout )
+		                                .setSocketTimeout( timeout )
+		                                .build( ) );
+		var healthy = false;
+		try ( var response = client.execute( request ) ) {
+			var status = response.getStatusLine( )
+			                     .getStatusCode( );
+			healthy = status >= 200 && status < 300;
+			EntityUtils.consumeQuietly( response.getEntity( ) );
+		} catch ( Exception e ) {
+			log.debugf( "Health probe of %s failed: %s", endpoint, e.getMessage( ) );
+		}
+		if ( healthy != endpoint.isHealthy( ) ) {
+			log.infof( "Verification endpoint %s is %s", endpoint, healthy ? "healthy again" : "unhealthy" );
+		}
+		endpoint.setHealthy( healthy );
+	}
+
+	/**
+	 * Resolves the health path against an endpoint URL, the way a relative link is resolved.
+	 *
+	 * @param url
+	 * 		the endpoint URL.
+	 * @param healthPath
+	 * 		the health path, relative to the endpoint URL or absolute.
+	 *
+	 * @return the URI to probe.
+	 */
+	static
+	URI healthUri( String url, String healthPath ) {
+
+		return URI.create( url )
+		          .resolve( healthPath );
+	}
+
+	/**
+	 * Stops the hedging and health probe pools, once every user of {@linkplain #shared shared} endpoints has closed
+	 * them.
+	 */
+	@Override
+	public
+	void close( ) {
+
+		synchronized ( SHARED ) {
+			if ( users > 1 ) {
+				users--;
+				return;
+			}
+			if ( sharedKey != null ) {
+				SHARED.remove( sharedKey, this );
+			}
+		}
+		if ( executor != null ) {
+			executor.shutdownNow( );
+		}
+		if ( probeExecutor != null ) {
+			probeExecutor.shutdownNow( );
+		}
+	}
+
+}
@@ -0,0 +1,190 @@
+package edu.uw.waverify.demographic.authenticator.verification;
+
+import lombok.AccessLevel;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.ToString;
+
+/**
+ * Outcome of one demographic verification.
+ * <p>
+ * Besides telling whether the data was verified, the result says why not: whether the verification service rejected the
+ * data, or could not be asked, or gave an answer that could not be understood. Only {@linkplain #isDefinitive()
+ * definitive} answers may be cached, and only {@linkplain #isTransient() transient} failures are worth trying again.
+ * </p>
+ */
+@Getter
+@ToString
+@AllArgsConstructor(access = AccessLevel.PRIVATE)
+public final
+class VerificationResult {
+
+	/**
+	 * What the verification concluded.
+	 */
+	private final Status status;
+
+	/**
+	 * A short description of why the data was not verified, or {@code null} if it was.
+	 */
+	private final String reason;
+
+	/**
+	 * How long the verification took, in nanoseconds; {@code 0} if no request was sent.
+	 */
+	private final long latencyNanos;
+
+	/**
+	 * Where the result came from.
+	 */
+	private final Source source;
+
+	/**
+	 * Creates a result that was decided without asking the verification service.
+	 *
+	 * @param status
+	 * 		the status.
+	 * @param reason
+	 * 		why the data was not verified.
+	 *
+	 * @return the result.
+	 */
+	public static
+	VerificationResult local( Status status, String reason ) {
+
+		return new VerificationResult( status, reason, 0, Source.LOCAL );
+	}
+
+	/**
+	 * Creates a result from an answer, or a failure, of the verification service.
+	 *
+	 * @param status
+	 * 		the status.
+	 * @param reason
+	 * 		why the data was not verified, or {@code null} if it was.
+	 * @param latencyNanos
+	 * 		how long the service took, including retries.
+	 *
+	 * @return the result.
+	 */
+	public static
+	VerificationResult service( Status status, String reason, long latencyNanos ) {
+
+		return new VerificationResult( status, reason, latencyNanos, Source.SERVICE );
+	}
+
+	/**
+	 * Returns this result as served from the cache.
+	 *
+	 * @param latencyNanos
+	 * 		how long the lookup took.
+	 *
+	 * @return a copy of this result with {@link Source#CACHE} as its source.
+	 */
+	public
+	VerificationResult fromCache( long latencyNanos ) {
+
+		return new VerificationResult( status, reason, latencyNanos, Source.CACHE );
+	}
+
+	/**
+	 * Tells whether the data was verified.
+	 *
+	 * @return {@code true} if the status is {@link Status#VERIFIED}.
+	 */
+	public
+	boolean isVerified( ) {
+
+		return status == Status.VERIFIED;
+	}
+
+	/**
+	 * Tells whether the verification service decided on the data itself.
+	 *
+	 * @return {@code true} if the status is {@link Status#VERIFIED} or {@link Status#REJECTED}.
+	 */
+	public
+	boolean isDefinitive( ) {
+
+		return status == Status.VERIFIED || status == Status.REJECTED;
+	}
+
+	/**
+	 * Tells whether the same data may well be verified if submitted again shortly.
+	 *
+	 * @return {@code true} if the status is {@link Status#UNAVAILABLE} or {@link Status#OVERLOADED}.
+	 */
+	public
+	boolean isTransient( ) {
+
+		return status == Status.UNAVAILABLE || status == Status.OVERLOADED;
+	}
+
+	/**
+	 * Possible conclusions of a verification.
+	 */
+	public
+	enum Status {
+
+		/**
+		 * The verification service confirmed the data.
+		 */
+		VERIFIED,
+
+		/**
+		 * The verification service answered that the data does not match.
+		 */
+		REJECTED,
+
+		/**
+		 * The data was incomplete and was not sent.
+		 */
+		INVALID_INPUT,
+
+		/**
+		 * No verification service is configured.
+		 */
+		NOT_CONFIGURED,
+
+		/**
+		 * The request was shed because the verification service is at its concurrency limit; it was never sent.
+		 */
+		OVERLOADED,
+
+		/**
+		 * The verification service could not be reached, timed out or answered with a server error, even after
+		 * retrying.
+		 */
+		UNAVAILABLE,
+
+		/**
+		 * The verification service gave an answer that could not be understood, or refused the request.
+		 */
+		ERROR
+
+	}
+
+	/**
+	 * Where a result came from.
+	 */
+	public
+	enum Source {
+
+		/**
+		 * Decided locally, without a request.
+		 */
+		LOCAL,
+
+		/**
+		 * Answered by the verification service.
+		 */
+		SERVICE,
+
+		/**
+		 * A definitive answer of the verification service, remembered on the local node.
+		 */
+		CACHE
+
+	}
+
+}
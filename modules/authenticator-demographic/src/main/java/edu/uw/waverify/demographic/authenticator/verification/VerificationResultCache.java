@@ -0,0 +1,129 @@
+package edu.uw.waverify.demographic.authenticator.verification;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+/**
+ * Bounded, per-node LRU cache of definitive verification results.
+ * <p>
+ * Entries are keyed by the case-folded name and the date of birth that are sent to the verification service, and expire
+ * after a fixed time so that corrections made at the service are picked up. Only {@linkplain
+ * VerificationResult#isDefinitive() definitive} results are stored: a timeout or an overloaded service says nothing about
+ * the data, so the next submission must ask again.
+ * </p>
+ */
+public
+class VerificationResultCache {
+
+	static final int  DEFAULT_MAX_SIZE = 10_000;
+	static final long DEFAULT_TTL      = 300;
+
+	private final Map< String, Entry > entries;
+	private final long                 ttlNanos;
+	private final LongSupplier         clock;
+
+	/**
+	 * Creates a cache.
+	 *
+	 * @param maxSize
+	 * 		the maximum number of cached results; {@code 0} or less disables caching.
+	 * @param ttlSeconds
+	 * 		how long a result is reused; {@code 0} or less disables caching.
+	 */
+	public
+	VerificationResultCache( int maxSize, long ttlSeconds ) {
+
+		this( maxSize, ttlSeconds, System::nanoTime );
+	}
+
+	/**
+	 * Creates a cache with the given time source.
+	 *
+	 * @param maxSize
+	 * 		the maximum number of cached results.
+	 * @param ttlSeconds
+	 * 		how long a result is reused.
+	 * @param clock
+	 * 		the nanosecond time source.
+	 */
+	VerificationResultCache( int maxSize, long ttlSeconds, LongSupplier clock ) {
+
+		this.ttlNanos = ttlSeconds > 0 && maxSize > 0 ? TimeUnit.SECONDS.toNanos( ttlSeconds ) : 0;
+		this.clock = clock;
+		this.entries = Collections.synchronizedMap( new LinkedHashMap<>( 16, 0.75f, true ) {
+
+			@Override
+			protected
+			boolean removeEldestEntry( Map.Entry< String, Entry > eldest ) {
+
+				return size( ) > maxSize;
+			}
+		} );
+	}
+
+	/**
+	 * Returns the cached result for some data.
+	 *
+	 * @param data
+	 * 		the demographic data.
+	 *
+	 * @return the result, or {@code null} if none is cached or it has expired.
+	 */
+	public
+	VerificationResult get( DemographicData data ) {
+
+		if ( ttlNanos == 0 ) {
+			return null;
+		}
+		var key    = key( data );
+		var cached = entries.get( key );
+		if ( cached == null ) {
+			return null;
+		}
+		if ( clock.getAsLong( ) - cached.expires( ) >= 0 ) {
+			entries.remove( key );
+			return null;
+		}
+		return cached.result( );
+	}
+
+	/**
+	 * Caches a result, if it is definitive.
+	 *
+	 * @param data
+	 * 		the demographic data.
+	 * @param result
+	 * 		the result of verifying it.
+	 */
+	public
+	void put( DemographicData data, VerificationResult result ) {
+
+		if ( ttlNanos > 0 && result.isDefinitive( ) ) {
+			entries.put( key( data ), new Entry( clock.getAsLong( ) + ttlNanos, result ) );
+		}
+	}
+
+	/**
+	 * Returns the number of cached results, including expired ones not yet evicted.
+	 *
+	 * @return the cache size.
+	 */
+	public
+	int size( ) {
+
+		return entries.size( );
+	}
+
+	private static
+	String key( DemographicData data ) {
+
+		return DemographicDataNormalizer.foldName( data.getFirstName( ) ) + '\u0000' + DemographicDataNormalizer.foldName( data.getLastName( ) ) + '\u0000' + data.getDateOfBirth( );
+	}
+
+	private
+	record Entry( long expires, VerificationResult result ) {
+
+	}
+
+}
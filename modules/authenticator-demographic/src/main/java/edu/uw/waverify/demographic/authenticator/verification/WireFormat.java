@@ -0,0 +1,91 @@
+package edu.uw.waverify.demographic.authenticator.verification;
+
+import java.util.Locale;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+
+/**
+ * Encodings the verification service can be spoken to in.
+ * <p>
+ * Both formats carry the same data model and are read and written through the same Jackson streaming calls; CBOR is
+ * smaller than JSON text. The provider only compiles against {@code jackson-dataformat-cbor}: at runtime it relies on
+ * the copy Keycloak ships for WebAuthn. The CBOR factory is created on first use, so JSON works without it, and
+ * {@link #of(String)} refuses {@code cbor} at startup if the server does not provide it.
+ * </p>
+ */
+@Getter
+@RequiredArgsConstructor
+public
+enum WireFormat {
+
+	/**
+	 * JSON text, understood by every verification service.
+	 */
+	JSON( "application/json" ),
+
+	/**
+	 * Binary CBOR (RFC 8949).
+	 */
+	CBOR( "application/cbor" );
+
+	private final String mediaType;
+
+	/**
+	 * Parses a configured format name, case-insensitively.
+	 *
+	 * @param name
+	 * 		the format name, may be {@code null}.
+	 *
+	 * @return the format, or {@link #JSON} if the name is {@code null} or blank.
+	 *
+	 * @throws IllegalArgumentException
+	 * 		if the name is not a known format, or the format's codec is not available on the server.
+	 */
+	public static
+	WireFormat of( String name ) {
+
+		if ( name == null || name.isBlank( ) ) {
+			return JSON;
+		}
+		var format = valueOf( name.trim( )
+		                          .toUpperCase( Locale.ROOT ) );
+		try {
+			format.getFactory( );
+		} catch ( LinkageError e ) {
+			throw new IllegalArgumentException( "Wire format " + name + " needs jackson-dataformat-cbor on the server classpath", e );
+		}
+		return format;
+	}
+
+	/**
+	 * Returns the Jackson factory that reads and writes this format.
+	 *
+	 * @return the factory, shared by all callers.
+	 *
+	 * @throws NoClassDefFoundError
+	 * 		if the format is {@link #CBOR} and {@code jackson-dataformat-cbor} is not on the classpath.
+	 */
+	public
+	JsonFactory getFactory( ) {
+
+		return this == JSON ? JsonHolder.FACTORY : CborHolder.FACTORY;
+	}
+
+	private static
+	class JsonHolder {
+
+		private static final JsonFactory FACTORY = new JsonFactory( );
+
+	}
+
+	private static
+	class CborHolder {
+
+		private static final JsonFactory FACTORY = new CBORFactory( );
+
+	}
+
+}
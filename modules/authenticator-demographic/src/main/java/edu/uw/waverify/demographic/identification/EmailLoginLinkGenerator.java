@@ -80,7 +80,7 @@ class EmailLoginLinkGenerator {
 		var tokenData = UserTokenGenerator.retrieveStoredToken( user );
 
 		if ( tokenData == null ) {
-			tokenData = UserTokenGenerator.generateAndStoreToken( user );
+			tokenData = UserTokenGenerator.generateAndStoreToken( session, realm, user );
 		}
 
 		var encodedRealm    = URLEncoder.encode( realm.getName( ), StandardCharsets.UTF_8 );
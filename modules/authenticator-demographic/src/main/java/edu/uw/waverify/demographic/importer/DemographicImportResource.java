@@ -0,0 +1,98 @@
+package edu.uw.waverify.demographic.importer;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+
+import org.keycloak.models.RealmModel;
+import org.keycloak.services.resources.admin.permissions.AdminPermissionEvaluator;
+import org.keycloak.util.JsonSerialization;
+
+import jakarta.ws.rs.*;
+import jakarta.ws.rs.core.*;
+import lombok.RequiredArgsConstructor;
+
+/**
+ * JAX-RS resource that imports demographic users from a CSV or NDJSON upload.
+ * <p>
+ * The response is an NDJSON stream with one {@link DemographicImportResult} per data row, in row order, written as
+ * batches are committed. Example:
+ * {@code POST /admin/realms/{realm}/demographic-import?batchSize=500&verify=true} with {@code Content-Type: text/csv}.
+ * To resume an interrupted import, upload the same file again with {@code skip} set to the number of result lines that
+ * were already received; every row up to the last reported one has been committed or has failed.
+ * </p>
+ */
+@RequiredArgsConstructor
+public
+class DemographicImportResource {
+
+	private final RealmModel               realm;
+	private final AdminPermissionEvaluator auth;
+	private final DemographicImportService service;
+
+	/**
+	 * Imports the uploaded rows, streaming a result per row.
+	 *
+	 * @param headers
+	 * 		the request headers, used to tell CSV from NDJSON.
+	 * @param skip
+	 * 		optional number of leading data rows to skip.
+	 * @param batchSize
+	 * 		optional number of rows per transaction, overriding the configured default.
+	 * @param verify
+	 * 		whether rows must be accepted by the verification service.
+	 * @param body
+	 * 		the uploaded rows.
+	 *
+	 * @return the streamed results.
+	 */
+	@POST
+	@Consumes({ DemographicRowReader.CSV, DemographicRowReader.NDJSON })
+	@Produces(DemographicRowReader.NDJSON)
+	public
+	Response importUsers( @Context HttpHeaders headers, @QueryParam("skip") @DefaultValue("0") long skip, @QueryParam("batchSize") Integer batchSize, @QueryParam("verify") @DefaultValue("false") boolean verify, InputStream body ) {
+
+		auth.users( )
+		    .requireManage( );
+
+		if ( skip < 0 ) {
+			throw new BadRequestException( "skip must not be negative" );
+		}
+		if ( batchSize != null && batchSize <= 0 ) {
+			throw new BadRequestException( "batchSize must be positive" );
+		}
+		if ( verify && !service.isVerificationAvailable( ) ) {
+			throw new BadRequestException( "No verification service is configured" );
+		}
+
+		var csv = MediaType.valueOf( DemographicRowReader.CSV )
+		                   .isCompatible( headers.getMediaType( ) );
+		DemographicRowReader reader;
+		try {
+			reader = DemographicRowReader.open( body, csv );
+		} catch ( IllegalArgumentException e ) {
+			throw new BadRequestException( e.getMessage( ) );
+		} catch ( IOException e ) {
+			throw new InternalServerErrorException( "Failed to read upload", e );
+		}
+
+		var realmId = realm.getId( );
+		StreamingOutput output = out -> {
+			var writer = new BufferedWriter( new OutputStreamWriter( out, StandardCharsets.UTF_8 ) );
+			try ( reader ) {
+				service.importRows( realmId, reader, skip, batchSize, verify, result -> {
+					try {
+						writer.write( JsonSerialization.writeValueAsString( result ) );
+						writer.write( '\n' );
+						writer.flush( );
+					} catch ( IOException e ) {
+						throw new UncheckedIOException( e );
+					}
+				} );
+			}
+			writer.flush( );
+		};
+		return Response.ok( output, DemographicRowReader.NDJSON )
+		               .build( );
+	}
+
+}
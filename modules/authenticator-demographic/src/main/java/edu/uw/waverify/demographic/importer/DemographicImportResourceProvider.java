@@ -0,0 +1,50 @@
+package edu.uw.waverify.demographic.importer;
+
+import org.keycloak.models.KeycloakSession;
+import org.keycloak.models.RealmModel;
+import org.keycloak.services.resources.admin.AdminEventBuilder;
+import org.keycloak.services.resources.admin.ext.AdminRealmResourceProvider;
+import org.keycloak.services.resources.admin.permissions.AdminPermissionEvaluator;
+
+import lombok.RequiredArgsConstructor;
+
+/**
+ * Admin realm resource provider exposing the demographic import endpoint.
+ */
+@RequiredArgsConstructor
+public
+class DemographicImportResourceProvider implements AdminRealmResourceProvider {
+
+	private final DemographicImportService service;
+
+	/**
+	 * Returns the JAX-RS resource handling import requests for the given realm.
+	 *
+	 * @param session
+	 * 		the Keycloak session.
+	 * @param realm
+	 * 		the realm addressed by the request.
+	 * @param auth
+	 * 		the admin permission evaluator.
+	 * @param adminEvent
+	 * 		the admin event builder.
+	 *
+	 * @return the {@link DemographicImportResource}.
+	 */
+	@Override
+	public
+	Object getResource( KeycloakSession session, RealmModel realm, AdminPermissionEvaluator auth, AdminEventBuilder adminEvent ) {
+
+		return new DemographicImportResource( realm, auth, service );
+	}
+
+	/**
+	 * Closes any resources used by this provider.
+	 */
+	@Override
+	public
+	void close( ) {
+
+	}
+
+}
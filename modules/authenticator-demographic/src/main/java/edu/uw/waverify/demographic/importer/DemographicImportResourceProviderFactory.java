@@ -0,0 +1,125 @@
+package edu.uw.waverify.demographic.importer;
+
+import org.keycloak.Config;
+import org.keycloak.models.KeycloakSession;
+import org.keycloak.models.KeycloakSessionFactory;
+import org.keycloak.models.utils.KeycloakModelUtils;
+import org.keycloak.models.utils.PostMigrationEvent;
+import org.keycloak.services.resources.admin.ext.AdminRealmResourceProvider;
+import org.keycloak.services.resources.admin.ext.AdminRealmResourceProviderFactory;
+import org.keycloak.timer.TimerProvider;
+
+import edu.uw.waverify.demographic.authenticator.verification.VerificationEndpoints;
+import edu.uw.waverify.demographic.authenticator.verification.WireFormat;
+
+import lombok.extern.jbosslog.JBossLog;
+
+/**
+ * Factory for the demographic import admin endpoint.
+ * <p>
+ * Registers {@code /admin/realms/{realm}/demographic-import}. The default batch size, the worker count and the URL of
+ * the verification service used by {@code verify=true} and its preferred wire format can be set through the SPI
+ * configuration ({@code batchSize}, {@code parallelism}, {@code baseUrl}, {@code wireFormat}); {@code baseUrl} may list
+ * several replicas, see {@link VerificationEndpoints}.
+ * </p>
+ */
+@JBossLog
+public
+class DemographicImportResourceProviderFactory implements AdminRealmResourceProviderFactory {
+
+	/**
+	 * The provider ID, which is also the path segment of the endpoint under the admin realm resource.
+	 */
+	public static final String PROVIDER_ID = "demographic-import";
+
+	private static final int DEFAULT_BATCH_SIZE = 200;
+
+	private int                      batchSize   = DEFAULT_BATCH_SIZE;
+	private int                      parallelism = Runtime.getRuntime( )
+	                                                      .availableProcessors( );
+	private VerificationEndpoints    endpoints   = VerificationEndpoints.fromConfig( null );
+	private WireFormat               wireFormat  = WireFormat.JSON;
+	private DemographicImportService service;
+
+	/**
+	 * Creates a new {@link DemographicImportResourceProvider}.
+	 *
+	 * @param session
+	 * 		the Keycloak session.
+	 *
+	 * @return a provider bound to the configured defaults.
+	 */
+	@Override
+	public
+	AdminRealmResourceProvider create( KeycloakSession session ) {
+
+		return new DemographicImportResourceProvider( service );
+	}
+
+	/**
+	 * Initializes the factory with configuration values.
+	 *
+	 * @param config
+	 * 		the configuration scope.
+	 *
+	 * @throws IllegalArgumentException
+	 * 		if the batch size or parallelism is not positive.
+	 */
+	@Override
+	public
+	void init( Config.Scope config ) {
+
+		if ( config != null ) {
+			batchSize = config.getInt( "batchSize", DEFAULT_BATCH_SIZE );
+			parallelism = config.getInt( "parallelism", parallelism );
+			endpoints = VerificationEndpoints.shared( config );
+			wireFormat = WireFormat.of( config.get( "wireFormat" ) );
+		}
+		if ( batchSize <= 0 || parallelism <= 0 ) {
+			throw new IllegalArgumentException( "Demographic import batchSize and parallelism must be positive" );
+		}
+	}
+
+	/**
+	 * Creates the import service once the session factory is available and schedules the verification endpoint health
+	 * probes and statistics once the database is ready.
+	 *
+	 * @param factory
+	 * 		the Keycloak session factory.
+	 */
+	@Override
+	public
+	void postInit( KeycloakSessionFactory factory ) {
+
+		this.service = new DemographicImportService( factory, batchSize, parallelism, endpoints, wireFormat );
+		factory.register( event -> {
+			if ( event instanceof PostMigrationEvent ) {
+				KeycloakModelUtils.runJobInTransaction( factory, session -> endpoints.scheduleTasks( factory, session.getProvider( TimerProvider.class ) ) );
+			}
+		} );
+		log.info( "Initialized: " + getClass( ).getName( ) );
+	}
+
+	/**
+	 * Closes any resources used by this factory.
+	 */
+	@Override
+	public
+	void close( ) {
+
+		endpoints.close( );
+	}
+
+	/**
+	 * Returns the unique provider ID.
+	 *
+	 * @return the provider ID.
+	 */
+	@Override
+	public
+	String getId( ) {
+
+		return PROVIDER_ID;
+	}
+
+}
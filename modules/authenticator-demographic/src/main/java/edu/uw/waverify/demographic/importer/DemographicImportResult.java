@@ -0,0 +1,74 @@
+package edu.uw.waverify.demographic.importer;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+/**
+ * Outcome of importing one row, written as one line of the import response.
+ */
+@Data
+@AllArgsConstructor
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public
+class DemographicImportResult {
+
+	/**
+	 * The 1-based number of the data row in the uploaded file, not counting a CSV header.
+	 */
+	private long row;
+
+	/**
+	 * The email address of the row, if it could be read.
+	 */
+	private String email;
+
+	/**
+	 * What happened to the row.
+	 */
+	private Status status;
+
+	/**
+	 * Details for rows that were not imported.
+	 */
+	private String message;
+
+	/**
+	 * Possible outcomes of a row.
+	 */
+	public
+	enum Status {
+
+		/**
+		 * A new user was created.
+		 */
+		CREATED,
+
+		/**
+		 * An existing user's details were changed.
+		 */
+		UPDATED,
+
+		/**
+		 * An existing user already had the same details.
+		 */
+		UNCHANGED,
+
+		/**
+		 * The row is malformed or incomplete.
+		 */
+		INVALID,
+
+		/**
+		 * The verification service rejected the row.
+		 */
+		UNVERIFIED,
+
+		/**
+		 * The row could not be verified because the verification service gave no answer, or the batch containing the row
+		 * could not be committed.
+		 */
+		FAILED
+	}
+
+}
@@ -0,0 +1,483 @@
+package edu.uw.waverify.demographic.importer;
+
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.Consumer;
+
+import org.keycloak.models.KeycloakSessionFactory;
+import org.keycloak.models.utils.KeycloakModelUtils;
+
+import edu.uw.waverify.demographic.authenticator.verification.*;
+
+import lombok.extern.jbosslog.JBossLog;
+
+import static edu.uw.waverify.demographic.importer.DemographicImportResult.Status.*;
+
+/**
+ * Imports demographic users from a row stream.
+ * <p>
+ * Rows are read on the calling thread and grouped into batches. Each batch is handed to a worker pool, which checks
+ * its rows against the verification service when requested and then creates or updates the users in a single
+ * transaction. Results are reported strictly in row order: a batch that finishes early is held back until every
+ * earlier batch has been reported. At most {@code 2 * parallelism} batches are queued or held back at any time, so
+ * memory stays bounded regardless of the upload size.
+ * </p>
+ * <p>
+ * Users are matched by email and only changed fields are written, so running an import again is harmless. A row whose
+ * email also appears in a batch that is still running waits for that batch, so two transactions never try to create
+ * the same user. Because every row up to the last reported one has been committed or has failed, an interrupted import
+ * can be resumed by skipping the rows that were already reported.
+ * </p>
+ */
+@JBossLog
+public
+class DemographicImportService {
+
+	private final KeycloakSessionFactory sessionFactory;
+	private final int                    defaultBatchSize;
+	private final int                    parallelism;
+	private final VerificationEndpoints  endpoints;
+	private final WireFormat             wireFormat;
+	private final BatchProcessor         processor;
+
+	/**
+	 * Creates a service that imports into the user store of the given session factory.
+	 *
+	 * @param sessionFactory
+	 * 		the Keycloak session factory.
+	 * @param defaultBatchSize
+	 * 		the number of rows per transaction when an import does not specify one; must be positive.
+	 * @param parallelism
+	 * 		the number of batches processed concurrently; must be positive.
+	 * @param endpoints
+	 * 		the verification service endpoints, may be {@code null}.
+	 * @param wireFormat
+	 * 		the format of verification requests.
+	 *
+	 * @throws IllegalArgumentException
+	 * 		if the batch size or parallelism is not positive.
+	 */
+	public
+	DemographicImportService( KeycloakSessionFactory sessionFactory, int defaultBatchSize, int parallelism, VerificationEndpoints endpoints, WireFormat wireFormat ) {
+
+		this( sessionFactory, defaultBatchSize, parallelism, endpoints, wireFormat, null );
+	}
+
+	/**
+	 * Creates a service that hands batches to the given processor and cannot verify rows.
+	 *
+	 * @param defaultBatchSize
+	 * 		the default number of rows per batch.
+	 * @param parallelism
+	 * 		the number of batches processed concurrently.
+	 * @param processor
+	 * 		imports a batch.
+	 */
+	DemographicImportService( int defaultBatchSize, int parallelism, BatchProcessor processor ) {
+
+		this( null, defaultBatchSize, parallelism, null, null, processor );
+	}
+
+	private
+	DemographicImportService( KeycloakSessionFactory sessionFactory, int defaultBatchSize, int parallelism, VerificationEndpoints endpoints, WireFormat wireFormat, BatchProcessor processor ) {
+
+		if ( defaultBatchSize <= 0 ) {
+			throw new IllegalArgumentException( "batchSize must be positive" );
+		}
+		if ( parallelism <= 0 ) {
+			throw new IllegalArgumentException( "parallelism must be positive" );
+		}
+		this.sessionFactory = sessionFactory;
+		this.defaultBatchSize = defaultBatchSize;
+		this.parallelism = parallelism;
+		this.endpoints = endpoints;
+		this.wireFormat = wireFormat;
+		this.processor = processor != null ? processor : this::processBatch;
+	}
+
+	/**
+	 * Tells whether rows can be checked against a verification service.
+	 *
+	 * @return {@code true} if at least one verification service endpoint is configured.
+	 */
+	public
+	boolean isVerificationAvailable( ) {
+
+		return endpoints != null && !endpoints.isEmpty( );
+	}
+
+	/**
+	 * Imports all rows of a reader.
+	 *
+	 * @param realmId
+	 * 		the ID of the realm to import into.
+	 * @param reader
+	 * 		the row source.
+	 * @param skip
+	 * 		the number of leading rows to skip, for resuming an interrupted import.
+	 * @param batchSize
+	 * 		the number of rows per transaction, or {@code null} to use the configured default.
+	 * @param verify
+	 * 		whether rows must be accepted by the verification service before they are imported.
+	 * @param results
+	 * 		receives the result of each row, in row order; called from several threads, one call at a time.
+	 *
+	 * @throws IllegalArgumentException
+	 * 		if {@code batchSize} is not positive.
+	 * @throws IllegalStateException
+	 * 		if verification is requested but no verification service is configured, or if the import is interrupted.
+	 */
+	public
+	void importRows( String realmId, DemographicRowReader reader, long skip, Integer batchSize, boolean verify, Consumer< DemographicImportResult > results ) {
+
+		if ( batchSize != null && batchSize <= 0 ) {
+			throw new IllegalArgumentException( "batchSize must be positive" );
+		}
+		if ( verify && !isVerificationAvailable( ) ) {
+			throw new IllegalStateException( "No verification service is configured" );
+		}
+
+		var size     = batchSize != null ? batchSize : defaultBatchSize;
+		var permits  = new Semaphore( parallelism * 2 );
+		var ordered  = new OrderedResults( results, permits );
+		var executor = Executors.newFixedThreadPool( parallelism );
+		var pending  = new HashMap< Long, Future< ? > >( );
+		var inFlight = new ConcurrentHashMap< String, Long >( );
+		var batch    = new Batch( 0, size );
+
+		try {
+			while ( true ) {
+				DemographicData data  = null;
+				String          error = null;
+				try {
+					data = reader.next( );
+					if ( data == null ) {
+						break;
+					}
+				} catch ( IllegalArgumentException e ) {
+					error = e.getMessage( );
+				}
+				if ( reader.getRow( ) <= skip ) {
+					continue;
+				}
+
+				if ( error != null ) {
+					batch.invalid.add( new DemographicImportResult( reader.getRow( ), null, INVALID, error ) );
+				} else if ( !DemographicDataHelper.hasDemographics( data ) ) {
+					batch.invalid.add( new DemographicImportResult( reader.getRow( ), data.getEmail( ), INVALID, "First name, last name, date of birth and email are required" ) );
+				} else {
+					awaitEarlierBatch( inFlight.put( emailKey( data ), batch.sequence ), batch.sequence, pending );
+					batch.rows.add( new Row( reader.getRow( ), data ) );
+				}
+				if ( batch.size( ) >= size ) {
+					submit( realmId, batch, verify, ordered, executor, pending, inFlight );
+					batch = new Batch( batch.sequence + 1, size );
+				}
+			}
+			if ( batch.size( ) > 0 ) {
+				submit( realmId, batch, verify, ordered, executor, pending, inFlight );
+			}
+
+			for ( var future : pending.values( ) ) {
+				future.get( );
+			}
+			ordered.rethrow( );
+		} catch ( IOException e ) {
+			throw new IllegalStateException( "Failed to read import rows", e );
+		} catch ( InterruptedException e ) {
+			Thread.currentThread( )
+			      .interrupt( );
+			throw new IllegalStateException( "Demographic import interrupted", e );
+		} catch ( ExecutionException e ) {
+			throw new IllegalStateException( "Demographic import failed", e.getCause( ) );
+		} finally {
+			executor.shutdownNow( );
+		}
+	}
+
+	/**
+	 * Hands a batch to the worker pool, waiting while {@code 2 * parallelism} batches are unreported.
+	 *
+	 * @param realmId
+	 * 		the realm ID.
+	 * @param batch
+	 * 		the batch.
+	 * @param verify
+	 * 		whether the rows must be verified first.
+	 * @param ordered
+	 * 		reports the results in row order.
+	 * @param executor
+	 * 		the worker pool.
+	 * @param pending
+	 * 		the unfinished batches by sequence number.
+	 * @param inFlight
+	 * 		the sequence number of the latest batch holding each email.
+	 *
+	 * @throws InterruptedException
+	 * 		if interrupted while waiting.
+	 */
+	private
+	void submit( String realmId, Batch batch, boolean verify, OrderedResults ordered, ExecutorService executor, Map< Long, Future< ? > > pending, Map< String, Long > inFlight ) throws InterruptedException {
+
+		ordered.rethrow( );
+		ordered.permits.acquire( );
+		pending.put( batch.sequence, executor.submit( ( ) -> {
+			var results = new ArrayList<>( batch.invalid );
+			try {
+				if ( !batch.rows.isEmpty( ) ) {
+					results.addAll( processor.process( realmId, batch.rows, verify ) );
+				}
+			} catch ( RuntimeException e ) {
+				log.errorf( e, "Demographic import batch of %d rows failed in realm %s", batch.rows.size( ), realmId );
+				results = new ArrayList<>( batch.invalid );
+				for ( var row : batch.rows ) {
+					results.add( new DemographicImportResult( row.number, row.data.getEmail( ), FAILED, e.getMessage( ) ) );
+				}
+			} finally {
+				batch.rows.forEach( row -> inFlight.remove( emailKey( row.data ), batch.sequence ) );
+			}
+			results.sort( Comparator.comparingLong( DemographicImportResult::getRow ) );
+			ordered.complete( batch.sequence, results );
+		} ) );
+		pending.values( )
+		       .removeIf( Future::isDone );
+	}
+
+	/**
+	 * Waits until an earlier batch holding the same email has finished.
+	 *
+	 * @param previous
+	 * 		the sequence number of the latest batch that held the email, or {@code null}.
+	 * @param current
+	 * 		the sequence number of the batch being filled.
+	 * @param pending
+	 * 		the unfinished batches by sequence number.
+	 *
+	 * @throws InterruptedException
+	 * 		if interrupted while waiting.
+	 * @throws ExecutionException
+	 * 		if the earlier batch could not report its results.
+	 */
+	private static
+	void awaitEarlierBatch( Long previous, long current, Map< Long, Future< ? > > pending ) throws InterruptedException, ExecutionException {
+
+		if ( previous == null || previous == current ) {
+			return;
+		}
+		var future = pending.get( previous );
+		if ( future != null ) {
+			future.get( );
+		}
+	}
+
+	/**
+	 * Verifies and imports a batch.
+	 *
+	 * @param realmId
+	 * 		the realm ID.
+	 * @param rows
+	 * 		the rows of the batch.
+	 * @param verify
+	 * 		whether the rows must be verified first.
+	 *
+	 * @return a result for every row.
+	 */
+	private
+	List< DemographicImportResult > processBatch( String realmId, List< Row > rows, boolean verify ) {
+
+		var results  = new ArrayList< DemographicImportResult >( rows.size( ) );
+		var accepted = verify ? verifyBatch( rows, results ) : rows;
+		if ( !accepted.isEmpty( ) ) {
+			try {
+				results.addAll( importBatch( realmId, accepted ) );
+			} catch ( RuntimeException e ) {
+				log.errorf( e, "Demographic import batch of %d rows failed in realm %s", accepted.size( ), realmId );
+				for ( var row : accepted ) {
+					results.add( new DemographicImportResult( row.number, row.data.getEmail( ), FAILED, e.getMessage( ) ) );
+				}
+			}
+		}
+		return results;
+	}
+
+	/**
+	 * Checks a batch against the verification service.
+	 * <p>
+	 * The remote calls run on a session of their own that never begins a transaction, so no database connection is
+	 * held while waiting for the service; the session is only used to obtain the HTTP client.
+	 * </p>
+	 *
+	 * @param rows
+	 * 		the rows to verify.
+	 * @param rejected
+	 * 		receives the results of rejected rows.
+	 *
+	 * @return the accepted rows.
+	 */
+	private
+	List< Row > verifyBatch( List< Row > rows, List< DemographicImportResult > rejected ) {
+
+		var accepted = new ArrayList< Row >( rows.size( ) );
+		try ( var session = sessionFactory.create( ) ) {
+			var verifier = new DemographicVerificationServiceImpl( session, endpoints, wireFormat );
+			for ( var row : rows ) {
+				var result = verifier.verify( row.data );
+				if ( result.isVerified( ) ) {
+					accepted.add( row );
+				} else {
+					rejected.add( new DemographicImportResult( row.number, row.data.getEmail( ), result.isDefinitive( ) ? UNVERIFIED : FAILED, result.getReason( ) ) );
+				}
+			}
+		}
+		return accepted;
+	}
+
+	/**
+	 * Creates or updates the users of a batch in a single transaction.
+	 *
+	 * @param realmId
+	 * 		the realm ID.
+	 * @param rows
+	 * 		the rows to import.
+	 *
+	 * @return the results, valid once the transaction has committed.
+	 */
+	private
+	List< DemographicImportResult > importBatch( String realmId, List< Row > rows ) {
+
+		var results = new ArrayList< DemographicImportResult >( rows.size( ) );
+		KeycloakModelUtils.runJobInTransaction( sessionFactory, session -> {
+			var realm = session.realms( )
+			                   .getRealm( realmId );
+			for ( var row : rows ) {
+				var email  = row.data.getEmail( );
+				var user   = UserEmailCache.getUserByEmail( session, realm, email );
+				var status = UNCHANGED;
+				if ( user == null ) {
+					user = DemographicDataHelper.createUser( session, realm, email );
+					status = CREATED;
+				}
+				if ( DemographicDataHelper.applyDemographics( user, row.data ) && status != CREATED ) {
+					status = UPDATED;
+				}
+				results.add( new DemographicImportResult( row.number, email, status, null ) );
+			}
+		} );
+		return results;
+	}
+
+	private static
+	String emailKey( DemographicData data ) {
+
+		return data.getEmail( )
+		           .toLowerCase( Locale.ROOT );
+	}
+
+	/**
+	 * Imports a batch of rows, returning a result for every row.
+	 */
+	@FunctionalInterface
+	interface BatchProcessor {
+
+		List< DemographicImportResult > process( String realmId, List< Row > rows, boolean verify );
+
+	}
+
+	/**
+	 * A numbered row waiting to be imported.
+	 */
+	record Row( long number, DemographicData data ) {
+
+	}
+
+	/**
+	 * Rows read for one transaction, with the results of the invalid rows among them.
+	 */
+	private static
+	class Batch {
+
+		private final long                            sequence;
+		private final List< Row >                     rows;
+		private final List< DemographicImportResult > invalid = new ArrayList<>( );
+
+		private
+		Batch( long sequence, int size ) {
+
+			this.sequence = sequence;
+			this.rows = new ArrayList<>( size );
+		}
+
+		private
+		int size( ) {
+
+			return rows.size( ) + invalid.size( );
+		}
+
+	}
+
+	/**
+	 * Reorder buffer that reports the results of finished batches in batch order.
+	 * <p>
+	 * A batch's permit is returned only once its results have been reported, so batches held back behind a slow one
+	 * count against the limit. If reporting fails, for instance because the client went away, later results are
+	 * dropped and the failure is raised on the reading thread.
+	 * </p>
+	 */
+	private static
+	class OrderedResults {
+
+		private final    Consumer< DemographicImportResult >          sink;
+		private final    Semaphore                                    permits;
+		private final    Map< Long, List< DemographicImportResult > > finished = new HashMap<>( );
+		private          long                                         next;
+		private volatile RuntimeException                             failure;
+
+		private
+		OrderedResults( Consumer< DemographicImportResult > sink, Semaphore permits ) {
+
+			this.sink = sink;
+			this.permits = permits;
+		}
+
+		/**
+		 * Records the results of a batch and reports every batch that is now next in line.
+		 *
+		 * @param sequence
+		 * 		the batch's sequence number.
+		 * @param results
+		 * 		the batch's results, in row order.
+		 */
+		synchronized
+		void complete( long sequence, List< DemographicImportResult > results ) {
+
+			finished.put( sequence, results );
+			for ( var ready = finished.remove( next ); ready != null; ready = finished.remove( next ) ) {
+				next++;
+				permits.release( );
+				if ( failure == null ) {
+					try {
+						ready.forEach( sink );
+					} catch ( RuntimeException e ) {
+						failure = e;
+					}
+				}
+			}
+		}
+
+		/**
+		 * Raises a reporting failure, if one occurred.
+		 *
+		 * @throws IllegalStateException
+		 * 		if results could not be reported.
+		 */
+		void rethrow( ) {
+
+			if ( failure != null ) {
+				throw new IllegalStateException( "Failed to report import results", failure );
+			}
+		}
+
+	}
+
+}
@@ -0,0 +1,200 @@
+package edu.uw.waverify.demographic.importer;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import edu.uw.waverify.demographic.authenticator.verification.DemographicData;
+import edu.uw.waverify.demographic.authenticator.verification.DemographicDataNormalizer;
+
+/**
+ * Reads demographic rows one at a time from a CSV or NDJSON upload.
+ * <p>
+ * CSV input must start with a header naming the {@code firstName}, {@code lastName}, {@code dateOfBirth} and
+ * {@code email} columns, in any order; quoted fields may contain commas and doubled quotes but not line breaks. NDJSON
+ * input holds one JSON object with the same property names per line. Only the current line is held in memory.
+ * </p>
+ */
+public
+class DemographicRowReader implements Closeable {
+
+	/**
+	 * Media type of CSV uploads.
+	 */
+	public static final String CSV = "text/csv";
+
+	/**
+	 * Media type of NDJSON uploads and of the import response.
+	 */
+	public static final String NDJSON = "application/x-ndjson";
+
+	private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper( ).configure( DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false );
+
+	private final BufferedReader reader;
+	private final boolean        csv;
+	private       int[]          columns;
+	private       long           row;
+
+	private
+	DemographicRowReader( BufferedReader reader, boolean csv ) {
+
+		this.reader = reader;
+		this.csv = csv;
+	}
+
+	/**
+	 * Opens a reader, consuming the header of CSV input.
+	 *
+	 * @param input
+	 * 		the UTF-8 encoded upload.
+	 * @param csv
+	 * 		{@code true} for CSV, {@code false} for NDJSON.
+	 *
+	 * @return the reader, positioned before the first data row.
+	 *
+	 * @throws IOException
+	 * 		if the input cannot be read.
+	 * @throws IllegalArgumentException
+	 * 		if the CSV header is missing or lacks a required column.
+	 */
+	public static
+	DemographicRowReader open( InputStream input, boolean csv ) throws IOException {
+
+		var rowReader = new DemographicRowReader( new BufferedReader( new InputStreamReader( input, StandardCharsets.UTF_8 ) ), csv );
+		if ( csv ) {
+			var header = rowReader.nextLine( );
+			if ( header == null ) {
+				throw new IllegalArgumentException( "CSV header is missing" );
+			}
+			rowReader.columns = header( split( header ) );
+		}
+		return rowReader;
+	}
+
+	/**
+	 * Returns the number of the row last returned by {@link #next}.
+	 *
+	 * @return the 1-based row number.
+	 */
+	public
+	long getRow( ) {
+
+		return row;
+	}
+
+	/**
+	 * Reads the next non-empty row.
+	 *
+	 * @return the row's data in normalized form, or {@code null} at the end of the input.
+	 *
+	 * @throws IOException
+	 * 		if the input cannot be read.
+	 * @throws IllegalArgumentException
+	 * 		if the row is malformed; the reader stays usable and {@link #getRow} identifies the row.
+	 */
+	public
+	DemographicData next( ) throws IOException {
+
+		var line = nextLine( );
+		if ( line == null ) {
+			return null;
+		}
+
+		row++;
+		if ( !csv ) {
+			try {
+				return DemographicDataNormalizer.normalize( OBJECT_MAPPER.readValue( line, DemographicData.class ) );
+			} catch ( JsonProcessingException e ) {
+				throw new IllegalArgumentException( "Malformed JSON: " + e.getOriginalMessage( ) );
+			}
+		}
+
+		var fields = split( line );
+		return DemographicDataNormalizer.normalize( new DemographicData( field( fields, 0 ), field( fields, 1 ), field( fields, 2 ), field( fields, 3 ), null ) );
+	}
+
+	/**
+	 * Closes the underlying input.
+	 *
+	 * @throws IOException
+	 * 		if the input cannot be closed.
+	 */
+	@Override
+	public
+	void close( ) throws IOException {
+
+		reader.close( );
+	}
+
+	private
+	String nextLine( ) throws IOException {
+
+		String line;
+		do {
+			line = reader.readLine( );
+		} while ( line != null && line.isBlank( ) );
+		return line;
+	}
+
+	private
+	String field( List< String > fields, int column ) {
+
+		var index = columns[ column ];
+		return index < fields.size( ) ? fields.get( index ) : null;
+	}
+
+	private static
+	int[] header( List< String > names ) {
+
+		var required = new String[] { "firstName", "lastName", "dateOfBirth", "email" };
+		var columns  = new int[ required.length ];
+		for ( int i = 0; i < required.length; i++ ) {
+			columns[ i ] = names.indexOf( required[ i ] );
+			if ( columns[ i ] < 0 ) {
+				throw new IllegalArgumentException( "CSV header is missing the " + required[ i ] + " column" );
+			}
+		}
+		return columns;
+	}
+
+	private static
+	List< String > split( String line ) {
+
+		var fields  = new ArrayList< String >( );
+		var current = new StringBuilder( );
+		var quoted  = false;
+		for ( int i = 0; i < line.length( ); i++ ) {
+			var c = line.charAt( i );
+			if ( quoted ) {
+				if ( c == '"' && i + 1 < line.length( ) && line.charAt( i + 1 ) == '"' ) {
+					current.append( '"' );
+					i++;
+				} else if ( c == '"' ) {
+					quoted = false;
+				} else {
+					current.append( c );
+				}
+			} else if ( c == '"' ) {
+				quoted = true;
+			} else if ( c == ',' ) {
+				fields.add( current.toString( )
+				                   .trim( ) );
+				current.setLength( 0 );
+			} else {
+				current.append( c );
+			}
+		}
+		if ( quoted ) {
+			throw new IllegalArgumentException( "Unterminated quoted field" );
+		}
+		fields.add( current.toString( )
+		                   .trim( ) );
+		return fields;
+	}
+
+}
@@ -4,29 +4,51 @@ import java.util.ArrayList;
 import java.util.List;
 
 import org.keycloak.authentication.*;
+import org.keycloak.credential.CredentialProvider;
 import org.keycloak.forms.login.LoginFormsProvider;
 import org.keycloak.models.*;
 import org.keycloak.models.utils.FormMessage;
 
-import edu.uw.waverify.demographic.authenticator.verification.DemographicDataHelper;
-import edu.uw.waverify.demographic.authenticator.verification.DemographicVerificationServiceImpl;
+import edu.uw.waverify.demographic.authenticator.verification.*;
+import edu.uw.waverify.pin.PinCredentialProvider;
+import edu.uw.waverify.pin.PinCredentialProviderFactory;
+
+import lombok.extern.jbosslog.JBossLog;
 
 /**
  * Form action for collecting and processing demographic information during user registration.
  * <p>
  * This action ensures that the required demographic fields—first name, last name, date of birth, and email—are provided
- * during registration and stores them as user attributes.
+ * during registration, verifies them against the verification service when one is configured, and stores them as user
+ * attributes.
  * </p>
  */
+@JBossLog
 public
 class DemographicRegistrationFormAction implements FormAction {
 
-	private final DemographicVerificationServiceImpl verificationService;
+	private final DemographicVerificationService verificationService;
 
 	public
 	DemographicRegistrationFormAction( KeycloakSession session, String baseUrl ) {
 
-		this.verificationService = new DemographicVerificationServiceImpl( session, baseUrl );
+		this( session, VerificationEndpoints.of( baseUrl ), WireFormat.JSON );
+	}
+
+	/**
+	 * Creates the form action for a set of verification service replicas.
+	 *
+	 * @param session
+	 * 		the Keycloak session.
+	 * @param endpoints
+	 * 		the verification service replicas, shared by all sessions on this node.
+	 * @param wireFormat
+	 * 		the preferred wire format for verification requests.
+	 */
+	public
+	DemographicRegistrationFormAction( KeycloakSession session, VerificationEndpoints endpoints, WireFormat wireFormat ) {
+
+		this.verificationService = new DemographicVerificationServiceImpl( session, endpoints, wireFormat );
 	}
 
 	/**
@@ -46,6 +68,10 @@ class DemographicRegistrationFormAction implements FormAction {
 
 	/**
 	 * Validates the demographic information submitted by the user.
+	 * <p>
+	 * Data the verification service rejects is sent back to the user to correct; when the service gives no answer for
+	 * now, the user is asked to submit the form again shortly. Any other failure is logged and reported as an error.
+	 * </p>
 	 *
 	 * @param context
 	 * 		the validation context containing form data.
@@ -64,12 +90,32 @@ class DemographicRegistrationFormAction implements FormAction {
 			return;
 		}
 
-		DemographicDataHelper.storeInAuthSession( context.getAuthenticationSession( ), demographicData );
+		if ( verificationService.isConfigured( ) ) {
+			var result = verificationService.verify( demographicData );
+			if ( !result.isVerified( ) ) {
+				String message;
+				if ( result.getStatus( ) == VerificationResult.Status.REJECTED ) {
+					message = "verificationRejected";
+				} else if ( result.isTransient( ) ) {
+					message = "verificationBusy";
+				} else {
+					log.errorf( "Demographic verification failed: %s", result );
+					message = "verificationError";
+				}
+				List< FormMessage > errors = new ArrayList<>( );
+				errors.add( new FormMessage( null, message ) );
+				context.validationError( context.getHttpRequest( )
+				                                .getDecodedFormParameters( ), errors );
+				return;
+			}
+		}
+
+		DemographicDataHelper.storeInAuthSession( context.getSession( ), context.getAuthenticationSession( ), demographicData );
 		context.success( );
 	}
 
 	/**
-	 * Stores validated demographic information as user attributes.
+	 * Stores validated demographic information as user attributes and the PIN submitted with the form as a credential.
 	 *
 	 * @param context
 	 * 		the form context containing the user and session data.
@@ -80,6 +126,13 @@ class DemographicRegistrationFormAction implements FormAction {
 
 		var user = DemographicDataHelper.saveUser( context.getSession( ), context.getRealm( ), context.getAuthenticationSession( ) );
 		context.setUser( user );
+
+		var pinCredential = DemographicDataHelper.takePinCredential( context.getSession( ) );
+		if ( pinCredential != null ) {
+			var provider = ( PinCredentialProvider ) context.getSession( )
+			                                                .getProvider( CredentialProvider.class, PinCredentialProviderFactory.PROVIDER_ID );
+			provider.upsertPin( context.getRealm( ), user, pinCredential );
+		}
 	}
 
 	/**
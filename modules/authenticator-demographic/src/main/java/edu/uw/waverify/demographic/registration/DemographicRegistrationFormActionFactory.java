@@ -8,7 +8,13 @@ import org.keycloak.authentication.FormAction;
 import org.keycloak.authentication.FormActionFactory;
 import org.keycloak.models.KeycloakSession;
 import org.keycloak.models.KeycloakSessionFactory;
+import org.keycloak.models.utils.KeycloakModelUtils;
+import org.keycloak.models.utils.PostMigrationEvent;
 import org.keycloak.provider.ProviderConfigProperty;
+import org.keycloak.timer.TimerProvider;
+
+import edu.uw.waverify.demographic.authenticator.verification.VerificationEndpoints;
+import edu.uw.waverify.demographic.authenticator.verification.WireFormat;
 
 import static org.keycloak.models.AuthenticationExecutionModel.Requirement;
 import static org.keycloak.models.AuthenticationExecutionModel.Requirement.*;
@@ -25,7 +31,8 @@ class DemographicRegistrationFormActionFactory implements FormActionFactory {
 
 	private static final String                         PROVIDER_ID       = "demographic-registration-form-action";
 	private static final List< ProviderConfigProperty > CONFIG_PROPERTIES = new ArrayList<>( );
-	private              String                         baseUrl;
+	private              VerificationEndpoints          endpoints         = VerificationEndpoints.fromConfig( null );
+	private              WireFormat                     wireFormat        = WireFormat.JSON;
 
 	static {
 		ProviderConfigProperty baseUrlProperty = new ProviderConfigProperty( );
@@ -55,7 +62,7 @@ class DemographicRegistrationFormActionFactory implements FormActionFactory {
 	public
 	FormAction create( KeycloakSession session ) {
 
-		return new DemographicRegistrationFormAction( session, baseUrl );
+		return new DemographicRegistrationFormAction( session, endpoints, wireFormat );
 	}
 
 	/**
@@ -69,12 +76,13 @@ class DemographicRegistrationFormActionFactory implements FormActionFactory {
 	void init( Config.Scope scope ) {
 
 		if ( scope != null ) {
-			baseUrl = scope.get( "baseUrl" );
+			endpoints = VerificationEndpoints.shared( scope );
+			wireFormat = WireFormat.of( scope.get( "wireFormat" ) );
 		}
 	}
 
 	/**
-	 * Performs post-initialization tasks.
+	 * Schedules the verification endpoint health probes and statistics once the database is ready.
 	 *
 	 * @param factory
 	 * 		the Keycloak session factory.
@@ -82,16 +90,22 @@ class DemographicRegistrationFormActionFactory implements FormActionFactory {
 	@Override
 	public
 	void postInit( KeycloakSessionFactory factory ) {
-		// No post-initialization required
+
+		factory.register( event -> {
+			if ( event instanceof PostMigrationEvent ) {
+				KeycloakModelUtils.runJobInTransaction( factory, session -> endpoints.scheduleTasks( factory, session.getProvider( TimerProvider.class ) ) );
+			}
+		} );
 	}
 
 	/**
-	 * Cleans up resources when the factory is shut down.
+	 * Releases the shared verification endpoints when the factory is shut down.
 	 */
 	@Override
 	public
 	void close( ) {
-		// No cleanup required
+
+		endpoints.close( );
 	}
 
 	/**
@@ -3,11 +3,14 @@ package edu.uw.waverify.pin;
 import org.keycloak.authentication.*;
 import org.keycloak.credential.CredentialProvider;
 import org.keycloak.models.*;
+import org.keycloak.services.managers.BruteForceProtector;
 
 import edu.uw.waverify.SimpleAuthenticator;
 import edu.uw.waverify.pin.credential.PinCredentialModel;
+import edu.uw.waverify.ratelimit.TokenBucketRateLimiter;
 
 import jakarta.ws.rs.core.Response;
+import lombok.RequiredArgsConstructor;
 import lombok.extern.jbosslog.JBossLog;
 
 import static org.keycloak.authentication.AuthenticationFlowError.*;
@@ -15,13 +18,19 @@ import static org.keycloak.authentication.AuthenticationFlowError.*;
 /**
  * Authenticator for validating a user's PIN credential.
  * <p>
- * This authenticator challenges the user to enter a PIN and verifies it against stored credentials.
+ * This authenticator challenges the user to enter a PIN and verifies it against stored credentials. Submissions are
+ * rate limited per client IP, and users locked out by too many failed PINs are rejected, before the stored credential
+ * is read.
  * </p>
  */
 @JBossLog
+@RequiredArgsConstructor
 public
 class PinAuthenticator extends SimpleAuthenticator implements Authenticator, CredentialValidator< PinCredentialProvider > {
 
+	private final TokenBucketRateLimiter ipLimiter;
+	private final PinFailureTracker      failureTracker;
+
 	/**
 	 * Initiates the authentication challenge by prompting the user for a PIN.
 	 *
@@ -67,8 +76,36 @@ class PinAuthenticator extends SimpleAuthenticator implements Authenticator, Cre
 			return;
 		}
 
+		var clientIp = context.getConnection( )
+		                      .getRemoteAddr( );
+		if ( !ipLimiter.tryAcquire( clientIp ) ) {
+			log.warnf( "PIN submission from %s rate limited", clientIp );
+			rateLimited( context );
+			return;
+		}
+
+		var userId     = context.getUser( )
+		                        .getId( );
+		var failureKey = context.getRealm( )
+		                        .getId( ) + ":" + userId;
+		if ( isLockedOut( context, failureKey ) ) {
+			log.warnf( "PIN submission for locked out user %s rejected", userId );
+			context.form( )
+			       .setAttribute( "pinRequired", true );
+			context.form( )
+			       .setAttribute( "usernameHidden", true );
+			context.form( )
+			       .setAttribute( "demographicRequired", false );
+			Response challenge = context.form( )
+			                            .setError( "pinLockedOut" )
+			                            .createForm( "login.ftl" );
+			context.forceChallenge( challenge );
+			return;
+		}
+
 		boolean validated = validateAnswer( context );
 		if ( !validated ) {
+			failureTracker.recordFailure( failureKey );
 			context.form( )
 			       .setAttribute( "pinRequired", true );
 			context.form( )
@@ -82,10 +119,42 @@ class PinAuthenticator extends SimpleAuthenticator implements Authenticator, Cre
 			return;
 		}
 
+		failureTracker.reset( failureKey );
 		log.warn( "PIN validated" );
 		context.success( );
 	}
 
+	/**
+	 * Checks whether the user is locked out of PIN authentication.
+	 * <p>
+	 * The node-local sliding window is consulted first. When brute force detection is enabled for the realm, Keycloak's
+	 * {@link BruteForceProtector} is consulted as well; it counts the {@code INVALID_CREDENTIALS} failures reported by
+	 * this authenticator in the cluster-replicated login failure store.
+	 * </p>
+	 *
+	 * @param context
+	 * 		the authentication flow context.
+	 * @param failureKey
+	 * 		the key of the user in the failure tracker.
+	 *
+	 * @return {@code true} if the user is locked out.
+	 */
+	private
+	boolean isLockedOut( AuthenticationFlowContext context, String failureKey ) {
+
+		if ( failureTracker.isLockedOut( failureKey ) ) {
+			return true;
+		}
+		var realm = context.getRealm( );
+		if ( !realm.isBruteForceProtected( ) ) {
+			return false;
+		}
+		var session   = context.getSession( );
+		var user      = context.getUser( );
+		var protector = session.getProvider( BruteForceProtector.class );
+		return protector.isTemporarilyDisabled( session, realm, user ) || protector.isPermanentlyLockedOut( session, realm, user );
+	}
+
 	/**
 	 * Checks if the authenticator is configured for a given user.
 	 *
@@ -162,14 +231,7 @@ class PinAuthenticator extends SimpleAuthenticator implements Authenticator, Cre
 			return false;
 		}
 
-		var credentialId = credential.getId( );
-		if ( credentialId == null || credentialId.isEmpty( ) ) {
-			log.warn( "PIN credential ID is missing" );
-			return false;
-		}
-
-		var input = new UserCredentialModel( credentialId, getType( session ), pin );
-		return provider.isValid( context.getRealm( ), context.getUser( ), input );
+		return provider.verify( context.getRealm( ), context.getUser( ), credential, pin );
 	}
 
 }
@@ -1,9 +1,11 @@
 package edu.uw.waverify.pin;
 
+import org.keycloak.Config;
 import org.keycloak.authentication.*;
 import org.keycloak.models.KeycloakSession;
 
 import edu.uw.waverify.SimpleAuthenticatorFactory;
+import edu.uw.waverify.ratelimit.TokenBucketRateLimiter;
 
 import lombok.extern.jbosslog.JBossLog;
 
@@ -14,34 +16,56 @@ import static org.keycloak.models.AuthenticationExecutionModel.Requirement.*;
  * Factory class for the {@link PinAuthenticator}.
  * <p>
  * This factory is responsible for creating instances of {@code PinAuthenticator} and defining configuration options for
- * the PIN-based authentication process.
+ * the PIN-based authentication process. PIN submissions are rate limited per client IP ({@code ipRateLimitBurst},
+ * {@code ipRateLimitPerMinute}), and users are locked out after {@code lockoutMaxFailures} failed PINs within
+ * {@code lockoutWindow} seconds.
  * </p>
  */
 @JBossLog
 public
 class PinAuthenticatorFactory extends SimpleAuthenticatorFactory implements AuthenticatorFactory, ConfigurableAuthenticatorFactory {
 
-	private static final PinAuthenticator SINGLETON           = new PinAuthenticator( );
-	private static final Requirement[]    REQUIREMENT_CHOICES = { REQUIRED, ALTERNATIVE, DISABLED };
+	private static final Requirement[] REQUIREMENT_CHOICES = { REQUIRED, ALTERNATIVE, DISABLED };
 
 	/**
 	 * The unique provider ID for the PIN authenticator.
 	 */
 	public static final String PROVIDER_ID = "pin-authenticator";
 
+	private PinAuthenticator authenticator = createAuthenticator( null );
+
 	/**
 	 * Creates a new instance of the {@code PinAuthenticator}.
 	 *
 	 * @param session
 	 * 		the Keycloak session.
 	 *
-	 * @return a singleton instance of {@code PinAuthenticator}.
+	 * @return the shared instance of {@code PinAuthenticator}.
 	 */
 	@Override
 	public
 	Authenticator create( KeycloakSession session ) {
 
-		return SINGLETON;
+		return authenticator;
+	}
+
+	/**
+	 * Initializes the factory with configuration values.
+	 *
+	 * @param config
+	 * 		the configuration scope.
+	 */
+	@Override
+	public
+	void init( Config.Scope config ) {
+
+		authenticator = createAuthenticator( config );
+	}
+
+	private static
+	PinAuthenticator createAuthenticator( Config.Scope config ) {
+
+		return new PinAuthenticator( TokenBucketRateLimiter.fromConfig( config, "ipRateLimit", 10, 20 ), PinFailureTracker.fromConfig( config ) );
 	}
 
 	/**
@@ -18,18 +18,28 @@ import lombok.extern.jbosslog.JBossLog;
 public
 class PinCredentialProvider implements CredentialProvider< PinCredentialModel >, CredentialInputValidator {
 
-	protected KeycloakSession session;
+	private static final String CONFIGURED_ATTRIBUTE = "pin.configured.";
+
+	protected     KeycloakSession  session;
+	private final PinHasher        hasher;
+	private final PinVerifierCache verifiers;
 
 	/**
 	 * Constructs a new {@code PinCredentialProvider}.
 	 *
 	 * @param session
 	 * 		the Keycloak session.
+	 * @param hasher
+	 * 		the hasher used to store and verify PINs.
+	 * @param verifiers
+	 * 		the node-wide cache of decoded PIN credentials.
 	 */
 	public
-	PinCredentialProvider( KeycloakSession session ) {
+	PinCredentialProvider( KeycloakSession session, PinHasher hasher, PinVerifierCache verifiers ) {
 
 		this.session = session;
+		this.hasher = hasher;
+		this.verifiers = verifiers;
 	}
 
 	/**
@@ -46,6 +56,9 @@ class PinCredentialProvider implements CredentialProvider< PinCredentialModel >,
 
 	/**
 	 * Creates and stores a new PIN credential for a user.
+	 * <p>
+	 * A model holding a raw PIN is hashed before it is stored.
+	 * </p>
 	 *
 	 * @param realm
 	 * 		the Keycloak realm.
@@ -60,9 +73,11 @@ class PinCredentialProvider implements CredentialProvider< PinCredentialModel >,
 	public
 	CredentialModel createCredential( RealmModel realm, UserModel user, PinCredentialModel credentialModel ) {
 
+		credentialModel = hashIfRaw( credentialModel );
 		if ( credentialModel.getCreatedDate( ) == null ) {
 			credentialModel.setCreatedDate( Time.currentTimeMillis( ) );
 		}
+		forgetConfigured( user );
 		return user.credentialManager( )
 		           .createStoredCredential( credentialModel );
 	}
@@ -83,12 +98,17 @@ class PinCredentialProvider implements CredentialProvider< PinCredentialModel >,
 	public
 	boolean deleteCredential( RealmModel realm, UserModel user, String credentialId ) {
 
+		verifiers.invalidate( credentialId );
+		forgetConfigured( user );
 		return user.credentialManager( )
 		           .removeStoredCredentialById( credentialId );
 	}
 
 	/**
 	 * Converts a stored credential model into a {@code PinCredentialModel}.
+	 * <p>
+	 * Decoded credentials are cached per node, so repeated PIN attempts do not parse the stored JSON again.
+	 * </p>
 	 *
 	 * @param model
 	 * 		the stored credential model.
@@ -99,7 +119,7 @@ class PinCredentialProvider implements CredentialProvider< PinCredentialModel >,
 	public
 	PinCredentialModel getCredentialFromModel( CredentialModel model ) {
 
-		return PinCredentialModel.createFromCredentialModel( model );
+		return verifiers.get( model );
 	}
 
 	/**
@@ -141,6 +161,10 @@ class PinCredentialProvider implements CredentialProvider< PinCredentialModel >,
 
 	/**
 	 * Determines whether a user has a configured PIN credential.
+	 * <p>
+	 * Flow evaluation asks this repeatedly, so the result is memoized as a session attribute for the rest of the request
+	 * and dropped whenever a PIN credential of the user is created, updated or deleted through this provider.
+	 * </p>
 	 *
 	 * @param realm
 	 * 		the Keycloak realm.
@@ -158,10 +182,29 @@ class PinCredentialProvider implements CredentialProvider< PinCredentialModel >,
 		if ( !supportsCredentialType( credentialType ) ) {
 			return false;
 		}
-		return user.credentialManager( )
-		           .getStoredCredentialsByTypeStream( credentialType )
-		           .findAny( )
-		           .isPresent( );
+		var key    = CONFIGURED_ATTRIBUTE + user.getId( );
+		var cached = session.getAttribute( key, Boolean.class );
+		if ( cached != null ) {
+			return cached;
+		}
+		var configured = user.credentialManager( )
+		                     .getStoredCredentialsByTypeStream( credentialType )
+		                     .findAny( )
+		                     .isPresent( );
+		session.setAttribute( key, configured );
+		return configured;
+	}
+
+	/**
+	 * Drops the memoized {@link #isConfiguredFor} result of a user after its PIN credentials changed.
+	 *
+	 * @param user
+	 * 		the user whose credentials changed.
+	 */
+	private
+	void forgetConfigured( UserModel user ) {
+
+		session.removeAttribute( CONFIGURED_ATTRIBUTE + user.getId( ) );
 	}
 
 	/**
@@ -194,14 +237,154 @@ class PinCredentialProvider implements CredentialProvider< PinCredentialModel >,
 		}
 		CredentialModel credentialModel = user.credentialManager( )
 		                                      .getStoredCredentialById( input.getCredentialId( ) );
-		PinCredentialModel sqcm = getCredentialFromModel( credentialModel );
-		return sqcm.getPinSecretData( )
-		           .getPin( )
-		           .equals( challengeResponse );
+		return verify( realm, user, credentialModel, challengeResponse );
+	}
+
+	/**
+	 * Verifies a PIN against an already loaded credential.
+	 * <p>
+	 * Callers that have just read the credential, such as {@link PinAuthenticator}, use this to avoid a second
+	 * credential lookup.
+	 * </p>
+	 *
+	 * @param realm
+	 * 		the Keycloak realm.
+	 * @param user
+	 * 		the user owning the credential.
+	 * @param credentialModel
+	 * 		the stored PIN credential, may be {@code null}.
+	 * @param pin
+	 * 		the raw PIN to verify.
+	 *
+	 * @return {@code true} if the PIN matches, otherwise {@code false}.
+	 */
+	public
+	boolean verify( RealmModel realm, UserModel user, CredentialModel credentialModel, String pin ) {
+
+		if ( credentialModel == null || pin == null || !getType( ).equals( credentialModel.getType( ) ) ) {
+			return false;
+		}
+		PinCredentialModel stored = getCredentialFromModel( credentialModel );
+		if ( !hasher.verify( session, stored, pin ) ) {
+			return false;
+		}
+		if ( hasher.needsRehash( stored ) ) {
+			rehash( user, stored, pin );
+		}
+		return true;
+	}
+
+	/**
+	 * Replaces a raw or outdated PIN hash with one using the current parameters, after a successful verification.
+	 *
+	 * @param user
+	 * 		the user owning the credential.
+	 * @param stored
+	 * 		the stored credential.
+	 * @param pin
+	 * 		the verified raw PIN.
+	 */
+	private
+	void rehash( UserModel user, PinCredentialModel stored, String pin ) {
+
+		try {
+			updateCredential( user, PinCredentialModel.createPin( pin, stored.getId( ) ), pin );
+			log.debugf( "Rehashed PIN credential for user %s", user.getId( ) );
+		} catch ( RuntimeException e ) {
+			log.warnf( e, "Failed to rehash PIN credential for user %s", user.getId( ) );
+		}
+	}
+
+	/**
+	 * Hashes a model holding a raw PIN, keeping its ID, label and creation date.
+	 *
+	 * @param credentialModel
+	 * 		the credential model.
+	 *
+	 * @return the hashed model, or {@code credentialModel} if it is already hashed.
+	 */
+	private
+	PinCredentialModel hashIfRaw( PinCredentialModel credentialModel ) {
+
+		if ( credentialModel.getPinSecretData( )
+		                    .isHashed( ) ) {
+			return credentialModel;
+		}
+		PinCredentialModel hashed = hasher.hash( session, credentialModel.getPinSecretData( )
+		                                                                 .getPin( ) );
+		hashed.setId( credentialModel.getId( ) );
+		hashed.setUserLabel( credentialModel.getUserLabel( ) );
+		return hashed;
+	}
+
+	/**
+	 * Sets a user's PIN, replacing the existing PIN credential if there is one.
+	 *
+	 * @param realm
+	 * 		the Keycloak realm.
+	 * @param user
+	 * 		the user whose PIN is set.
+	 * @param pin
+	 * 		the raw PIN.
+	 *
+	 * @return the stored credential model.
+	 */
+	public
+	CredentialModel upsertPin( RealmModel realm, UserModel user, String pin ) {
+
+		return upsertPin( realm, user, PinCredentialModel.createPin( pin ) );
+	}
+
+	/**
+	 * Stores a PIN credential, replacing the user's existing PIN credential if there is one.
+	 * <p>
+	 * The existing credential is looked up once and then either updated in place or created, so setting a PIN costs one
+	 * credential read and one write within the current transaction.
+	 * </p>
+	 *
+	 * @param realm
+	 * 		the Keycloak realm.
+	 * @param user
+	 * 		the user whose PIN is set.
+	 * @param credentialModel
+	 * 		the PIN credential, raw or already hashed by {@link #hashPin}.
+	 *
+	 * @return the stored credential model.
+	 */
+	public
+	CredentialModel upsertPin( RealmModel realm, UserModel user, PinCredentialModel credentialModel ) {
+
+		var existing = user.credentialManager( )
+		                   .getStoredCredentialsByTypeStream( getType( ) )
+		                   .findFirst( )
+		                   .orElse( null );
+		if ( existing == null ) {
+			return createCredential( realm, user, credentialModel );
+		}
+		credentialModel.setId( existing.getId( ) );
+		credentialModel.setUserLabel( existing.getUserLabel( ) );
+		return updateCredential( user, credentialModel, null );
+	}
+
+	/**
+	 * Hashes a raw PIN into a credential model that can be stored later in the request.
+	 *
+	 * @param pin
+	 * 		the raw PIN.
+	 *
+	 * @return the hashed credential model, without an ID.
+	 */
+	public
+	PinCredentialModel hashPin( String pin ) {
+
+		return hasher.hash( session, pin );
 	}
 
 	/**
 	 * Updates an existing PIN credential for a user.
+	 * <p>
+	 * A model holding a raw PIN is hashed before it is stored.
+	 * </p>
 	 *
 	 * @param user
 	 * 		the user whose credential is to be updated.
@@ -209,15 +392,21 @@ class PinCredentialProvider implements CredentialProvider< PinCredentialModel >,
 	 * 		the new PIN credential model.
 	 * @param pin
 	 * 		the updated PIN value.
+	 *
+	 * @return the stored credential model, which holds the hash rather than the raw PIN.
 	 */
 	public
-	void updateCredential( UserModel user, PinCredentialModel pinCredentialModel, String pin ) {
+	PinCredentialModel updateCredential( UserModel user, PinCredentialModel pinCredentialModel, String pin ) {
 
+		pinCredentialModel = hashIfRaw( pinCredentialModel );
+		verifiers.invalidate( pinCredentialModel.getId( ) );
+		forgetConfigured( user );
 		if ( pinCredentialModel.getCreatedDate( ) == null ) {
 			pinCredentialModel.setCreatedDate( Time.currentTimeMillis( ) );
 		}
 		user.credentialManager( )
 		    .updateStoredCredential( pinCredentialModel );
+		return pinCredentialModel;
 	}
 
 }
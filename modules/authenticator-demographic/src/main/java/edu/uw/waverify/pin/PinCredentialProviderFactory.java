@@ -1,8 +1,11 @@
 package edu.uw.waverify.pin;
 
+import org.keycloak.Config;
 import org.keycloak.credential.CredentialProvider;
 import org.keycloak.credential.CredentialProviderFactory;
 import org.keycloak.models.KeycloakSession;
+import org.keycloak.models.KeycloakSessionFactory;
+import org.keycloak.models.utils.PostMigrationEvent;
 
 import edu.uw.waverify.pin.credential.PinCredentialModel;
 
@@ -23,6 +26,54 @@ class PinCredentialProviderFactory implements CredentialProviderFactory< PinCred
 	 */
 	public static final String PROVIDER_ID = TYPE;
 
+	private PinHasher        hasher    = new PinHasher( null );
+	private PinVerifierCache verifiers = new PinVerifierCache( );
+
+	/**
+	 * Initializes the PIN hasher and verifier cache from the SPI configuration.
+	 * <p>
+	 * Supported keys are {@code hashAlgorithm}, {@code hashIterations} (skips calibration when set),
+	 * {@code targetHashMillis}, {@code verifyThreads}, {@code verifyQueueSize}, {@code verifyTimeoutMillis} and
+	 * {@code verifierCacheSize}.
+	 * </p>
+	 *
+	 * @param config
+	 * 		the configuration scope.
+	 */
+	@Override
+	public
+	void init( Config.Scope config ) {
+
+		hasher = new PinHasher( config );
+		verifiers = new PinVerifierCache( config.getInt( "verifierCacheSize", 10_000 ) );
+	}
+
+	/**
+	 * Calibrates the PIN hash cost once the server has finished starting.
+	 *
+	 * @param factory
+	 * 		the Keycloak session factory.
+	 */
+	@Override
+	public
+	void postInit( KeycloakSessionFactory factory ) {
+
+		factory.register( event -> {
+			if ( event instanceof PostMigrationEvent ) {
+				hasher.calibrate( factory );
+			}
+		} );
+	}
+
+	/**
+	 * Closes the factory.
+	 */
+	@Override
+	public
+	void close( ) {
+		// No resources to clean up.
+	}
+
 	/**
 	 * Creates a new instance of {@link PinCredentialProvider} for the given session.
 	 *
@@ -35,7 +86,7 @@ class PinCredentialProviderFactory implements CredentialProviderFactory< PinCred
 	public
 	CredentialProvider< PinCredentialModel > create( KeycloakSession session ) {
 
-		return new PinCredentialProvider( session );
+		return new PinCredentialProvider( session, hasher, verifiers );
 	}
 
 	/**
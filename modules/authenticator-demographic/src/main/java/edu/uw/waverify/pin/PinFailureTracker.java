@@ -0,0 +1,174 @@
+package edu.uw.waverify.pin;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.LongSupplier;
+
+import org.keycloak.Config;
+
+/**
+ * Counts failed PIN attempts per user in a sliding time window, held in memory on the local node.
+ * <p>
+ * Each user is tracked by a ring of the last {@code maxFailures} failure timestamps; the user is locked out while the
+ * oldest of them is still inside the window. Entries expire lazily: stale rings are dropped when they are next read and
+ * by a sweep piggybacked on every {@value #SWEEP_INTERVAL}th recorded failure, so no background thread is needed.
+ * </p>
+ * <p>
+ * This complements Keycloak's {@code BruteForceProtector}, whose cluster-replicated counters apply when brute force
+ * detection is enabled for the realm.
+ * </p>
+ */
+public
+class PinFailureTracker {
+
+	private static final int SWEEP_INTERVAL = 256;
+
+	private static final PinFailureTracker DISABLED = new PinFailureTracker( 0, 0, System::nanoTime );
+
+	private final int                   maxFailures;
+	private final long                  windowNanos;
+	private final LongSupplier          clock;
+	private final Map< String, long[] > failures = new ConcurrentHashMap<>( );
+	private final AtomicInteger         recorded = new AtomicInteger( );
+
+	/**
+	 * Creates a tracker.
+	 *
+	 * @param maxFailures
+	 * 		the number of failures within the window that locks a user out; zero disables tracking.
+	 * @param windowSeconds
+	 * 		the length of the sliding window in seconds.
+	 * @param clock
+	 * 		the nanosecond time source.
+	 */
+	PinFailureTracker( int maxFailures, long windowSeconds, LongSupplier clock ) {
+
+		this.maxFailures = maxFailures;
+		this.windowNanos = TimeUnit.SECONDS.toNanos( windowSeconds );
+		this.clock = clock;
+	}
+
+	/**
+	 * Creates a tracker from SPI configuration.
+	 * <p>
+	 * Reads {@code lockoutMaxFailures} (default 5) and {@code lockoutWindow} in seconds (default 900); a non-positive
+	 * value for either disables tracking.
+	 * </p>
+	 *
+	 * @param config
+	 * 		the configuration scope, may be {@code null}.
+	 *
+	 * @return the configured tracker.
+	 */
+	public static
+	PinFailureTracker fromConfig( Config.Scope config ) {
+
+		var maxFailures = config != null ? config.getInt( "lockoutMaxFailures", 5 ) : 5;
+		var window      = config != null ? config.getLong( "lockoutWindow", 900L ) : 900L;
+		if ( maxFailures <= 0 || window <= 0 ) {
+			return DISABLED;
+		}
+		return new PinFailureTracker( maxFailures, window, System::nanoTime );
+	}
+
+	/**
+	 * Checks whether a user has reached the failure limit within the window.
+	 *
+	 * @param key
+	 * 		the user key.
+	 *
+	 * @return {@code true} if the user is locked out.
+	 */
+	public
+	boolean isLockedOut( String key ) {
+
+		if ( maxFailures <= 0 ) {
+			return false;
+		}
+		var now    = clock.getAsLong( );
+		var locked = new boolean[ 1 ];
+		failures.computeIfPresent( key, ( k, ring ) -> {
+			if ( isStale( ring, now ) ) {
+				return null;
+			}
+			locked[ 0 ] = ring[ 0 ] >= maxFailures && now - oldest( ring ) < windowNanos;
+			return ring;
+		} );
+		return locked[ 0 ];
+	}
+
+	/**
+	 * Records a failed attempt.
+	 *
+	 * @param key
+	 * 		the user key.
+	 */
+	public
+	void recordFailure( String key ) {
+
+		if ( maxFailures <= 0 ) {
+			return;
+		}
+		var now = clock.getAsLong( );
+		failures.compute( key, ( k, ring ) -> {
+			if ( ring == null || isStale( ring, now ) ) {
+				ring = new long[ maxFailures + 1 ];
+			}
+			ring[ 1 + ( int ) ( ring[ 0 ] % maxFailures ) ] = now;
+			ring[ 0 ]++;
+			return ring;
+		} );
+		if ( recorded.incrementAndGet( ) % SWEEP_INTERVAL == 0 ) {
+			failures.entrySet( )
+			        .removeIf( entry -> isStale( entry.getValue( ), now ) );
+		}
+	}
+
+	/**
+	 * Clears the failures of a user, typically after a successful attempt.
+	 *
+	 * @param key
+	 * 		the user key.
+	 */
+	public
+	void reset( String key ) {
+
+		failures.remove( key );
+	}
+
+	/**
+	 * Returns the number of users currently tracked.
+	 *
+	 * @return the number of tracked users.
+	 */
+	public
+	int size( ) {
+
+		return failures.size( );
+	}
+
+	/**
+	 * Ring layout: {@code ring[0]} is the total number of failures recorded, followed by {@code maxFailures} timestamp
+	 * slots written round-robin.
+	 */
+	private
+	long oldest( long[] ring ) {
+
+		return ring[ 1 + ( int ) ( ring[ 0 ] % maxFailures ) ];
+	}
+
+	private
+	long newest( long[] ring ) {
+
+		return ring[ 1 + ( int ) ( ( ring[ 0 ] - 1 ) % maxFailures ) ];
+	}
+
+	private
+	boolean isStale( long[] ring, long now ) {
+
+		return now - newest( ring ) >= windowNanos;
+	}
+
+}
@@ -0,0 +1,231 @@
+package edu.uw.waverify.pin;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.keycloak.Config;
+import org.keycloak.credential.hash.PasswordHashProvider;
+import org.keycloak.models.KeycloakSession;
+import org.keycloak.models.KeycloakSessionFactory;
+import org.keycloak.models.utils.KeycloakModelUtils;
+
+import edu.uw.waverify.pin.credential.PinCredentialModel;
+
+import lombok.Getter;
+import lombok.extern.jbosslog.JBossLog;
+
+/**
+ * Hashes and verifies PINs through Keycloak's {@link PasswordHashProvider} SPI.
+ * <p>
+ * Unless an iteration count is configured explicitly, the count is calibrated at startup so that one hash takes about
+ * {@code targetHashMillis} on this node. Verifications run on the request thread, but at most {@code verifyThreads} of
+ * them at a time, so a burst of PIN attempts cannot occupy more CPU than that. Up to {@code verifyQueueSize} further
+ * attempts wait at most {@code verifyTimeoutMillis} for their turn; attempts beyond that, or that time out waiting,
+ * fail closed without hashing anything.
+ * </p>
+ */
+@JBossLog
+public
+class PinHasher {
+
+	private static final String DEFAULT_ALGORITHM      = "pbkdf2-sha256";
+	private static final int    DEFAULT_TARGET_MILLIS  = 50;
+	private static final long   DEFAULT_VERIFY_TIMEOUT = 5000;
+	private static final int    CALIBRATION_ITERATIONS = 10_000;
+	private static final int    CALIBRATION_ROUNDS     = 5;
+	private static final int    MIN_ITERATIONS         = 10_000;
+	private static final int    MAX_ITERATIONS         = 2_000_000;
+
+	@Getter
+	private final    String        algorithm;
+	private final    int           targetMillis;
+	private final    long          verifyTimeoutMillis;
+	private final    Semaphore     permits;
+	private final    int           maxWaiting;
+	private final    AtomicInteger waiting = new AtomicInteger( );
+	@Getter
+	private volatile int           iterations;
+
+	/**
+	 * Creates a hasher from SPI configuration.
+	 *
+	 * @param config
+	 * 		the configuration scope, may be {@code null}.
+	 */
+	public
+	PinHasher( Config.Scope config ) {
+
+		var threads    = Runtime.getRuntime( )
+		                        .availableProcessors( );
+		var queueSize  = threads * 16;
+		var configured = 0;
+
+		if ( config != null ) {
+			threads = config.getInt( "verifyThreads", threads );
+			queueSize = config.getInt( "verifyQueueSize", queueSize );
+			configured = config.getInt( "hashIterations", 0 );
+		}
+
+		this.algorithm = config != null ? config.get( "hashAlgorithm", DEFAULT_ALGORITHM ) : DEFAULT_ALGORITHM;
+		this.targetMillis = config != null ? config.getInt( "targetHashMillis", DEFAULT_TARGET_MILLIS ) : DEFAULT_TARGET_MILLIS;
+		this.verifyTimeoutMillis = config != null ? config.getLong( "verifyTimeoutMillis", DEFAULT_VERIFY_TIMEOUT ) : DEFAULT_VERIFY_TIMEOUT;
+		this.iterations = configured;
+		this.permits = new Semaphore( Math.max( 1, threads ) );
+		this.maxWaiting = Math.max( 0, queueSize );
+	}
+
+	/**
+	 * Calibrates the iteration count against the configured target latency, unless it was configured explicitly.
+	 *
+	 * @param sessionFactory
+	 * 		the Keycloak session factory.
+	 */
+	public
+	void calibrate( KeycloakSessionFactory sessionFactory ) {
+
+		if ( iterations > 0 ) {
+			log.infof( "Using configured PIN hash iterations: %d (%s)", iterations, algorithm );
+			return;
+		}
+		KeycloakModelUtils.runJobInTransaction( sessionFactory, session -> {
+			var provider = hashProvider( session, algorithm );
+			var samples  = new long[ CALIBRATION_ROUNDS ];
+			for ( int i = 0; i < CALIBRATION_ROUNDS; i++ ) {
+				var start = System.nanoTime( );
+				provider.encodedCredential( "0000", CALIBRATION_ITERATIONS );
+				samples[ i ] = System.nanoTime( ) - start;
+			}
+			Arrays.sort( samples );
+
+			var median = Math.max( samples[ CALIBRATION_ROUNDS / 2 ], 1 );
+			var scaled = CALIBRATION_ITERATIONS * ( double ) TimeUnit.MILLISECONDS.toNanos( targetMillis ) / median;
+			iterations = ( int ) Math.min( MAX_ITERATIONS, Math.max( MIN_ITERATIONS, Math.round( scaled / 1000 ) * 1000 ) );
+		} );
+		log.infof( "Calibrated PIN hash iterations to %d (%s, target %d ms)", iterations, algorithm, targetMillis );
+	}
+
+	/**
+	 * Hashes a raw PIN into a new credential model.
+	 *
+	 * @param session
+	 * 		the Keycloak session.
+	 * @param pin
+	 * 		the raw PIN.
+	 *
+	 * @return the hashed credential model.
+	 */
+	public
+	PinCredentialModel hash( KeycloakSession session, String pin ) {
+
+		var encoded = hashProvider( session, algorithm ).encodedCredential( pin, iterations > 0 ? iterations : -1 );
+		return PinCredentialModel.createHashed( encoded );
+	}
+
+	/**
+	 * Verifies a raw PIN against a stored credential.
+	 * <p>
+	 * Hashed credentials are verified on the calling thread once a verification slot is free; legacy raw PINs are
+	 * compared in constant time.
+	 * </p>
+	 *
+	 * @param session
+	 * 		the Keycloak session.
+	 * @param stored
+	 * 		the stored credential.
+	 * @param pin
+	 * 		the raw PIN to verify.
+	 *
+	 * @return {@code true} if the PIN matches.
+	 */
+	public
+	boolean verify( KeycloakSession session, PinCredentialModel stored, String pin ) {
+
+		var secret = stored.getPinSecretData( );
+		if ( !secret.isHashed( ) ) {
+			return secret.getPin( ) != null && MessageDigest.isEqual( utf8( secret.getPin( ) ), utf8( pin ) );
+		}
+
+		var passwordModel = stored.toPasswordCredentialModel( );
+		var provider      = hashProvider( session, passwordModel.getPasswordCredentialData( )
+		                                                        .getAlgorithm( ) );
+		if ( !acquire( ) ) {
+			return false;
+		}
+		try {
+			return provider.verify( pin, passwordModel );
+		} finally {
+			permits.release( );
+		}
+	}
+
+	/**
+	 * Checks whether a stored credential should be rehashed with the current parameters.
+	 *
+	 * @param stored
+	 * 		the stored credential.
+	 *
+	 * @return {@code true} if the credential holds a raw PIN or was hashed with a different algorithm or a lower
+	 * 		iteration count.
+	 */
+	public
+	boolean needsRehash( PinCredentialModel stored ) {
+
+		var parameters = stored.getPinCredentialData( );
+		if ( !stored.getPinSecretData( )
+		            .isHashed( ) || parameters == null ) {
+			return true;
+		}
+		return !algorithm.equals( parameters.getAlgorithm( ) ) || parameters.getHashIterations( ) < iterations;
+	}
+
+	/**
+	 * Waits for a verification slot.
+	 *
+	 * @return {@code true} if a slot was taken and must be released, {@code false} if the attempt must fail closed.
+	 */
+	private
+	boolean acquire( ) {
+
+		if ( permits.tryAcquire( ) ) {
+			return true;
+		}
+		if ( waiting.incrementAndGet( ) > maxWaiting ) {
+			waiting.decrementAndGet( );
+			log.warn( "PIN verification rejected: too many verifications waiting" );
+			return false;
+		}
+		try {
+			if ( permits.tryAcquire( verifyTimeoutMillis, TimeUnit.MILLISECONDS ) ) {
+				return true;
+			}
+			log.warn( "PIN verification timed out waiting for a slot" );
+		} catch ( InterruptedException e ) {
+			Thread.currentThread( )
+			      .interrupt( );
+		} finally {
+			waiting.decrementAndGet( );
+		}
+		return false;
+	}
+
+	private static
+	byte[] utf8( String value ) {
+
+		return value.getBytes( StandardCharsets.UTF_8 );
+	}
+
+	private static
+	PasswordHashProvider hashProvider( KeycloakSession session, String algorithm ) {
+
+		var provider = session.getProvider( PasswordHashProvider.class, algorithm );
+		if ( provider == null ) {
+			throw new IllegalStateException( "No password hash provider for algorithm " + algorithm );
+		}
+		return provider;
+	}
+
+}
@@ -0,0 +1,114 @@
+package edu.uw.waverify.pin;
+
+import java.util.*;
+
+import org.keycloak.credential.CredentialModel;
+
+import edu.uw.waverify.pin.credential.PinCredentialModel;
+import edu.uw.waverify.pin.credential.dto.PinCredentialData;
+import edu.uw.waverify.pin.credential.dto.PinSecretData;
+
+/**
+ * Bounded, per-node LRU cache of decoded PIN credentials.
+ * <p>
+ * Entries are keyed by credential ID and only reused while the stored credential still has the same creation date, so
+ * a PIN changed on another node is decoded afresh. Local updates and deletions invalidate the entry directly.
+ * </p>
+ * <p>
+ * Only the immutable decoded secret and credential data are shared. Every lookup returns a new model, so a caller that
+ * sets its ID, label or creation date cannot affect other callers.
+ * </p>
+ */
+public
+class PinVerifierCache {
+
+	private static final int DEFAULT_MAX_SIZE = 10_000;
+
+	private final Map< String, Entry > entries;
+
+	/**
+	 * Creates a cache holding up to {@value #DEFAULT_MAX_SIZE} credentials.
+	 */
+	public
+	PinVerifierCache( ) {
+
+		this( DEFAULT_MAX_SIZE );
+	}
+
+	/**
+	 * Creates a cache holding up to {@code maxSize} credentials.
+	 *
+	 * @param maxSize
+	 * 		the maximum number of cached credentials; {@code 0} or less disables caching.
+	 */
+	public
+	PinVerifierCache( int maxSize ) {
+
+		this.entries = Collections.synchronizedMap( new LinkedHashMap<>( 16, 0.75f, true ) {
+
+			@Override
+			protected
+			boolean removeEldestEntry( Map.Entry< String, Entry > eldest ) {
+
+				return size( ) > maxSize;
+			}
+		} );
+	}
+
+	/**
+	 * Returns the decoded form of a stored credential, decoding and caching it on a miss.
+	 *
+	 * @param model
+	 * 		the stored credential.
+	 *
+	 * @return a new decoded PIN credential, owned by the caller.
+	 */
+	public
+	PinCredentialModel get( CredentialModel model ) {
+
+		var id = model.getId( );
+		if ( id == null ) {
+			return PinCredentialModel.createFromCredentialModel( model );
+		}
+
+		var cached = entries.get( id );
+		if ( cached != null && Objects.equals( cached.createdDate( ), model.getCreatedDate( ) ) ) {
+			return PinCredentialModel.createFromCredentialModel( model, cached.secretData( ), cached.credentialData( ) );
+		}
+
+		var decoded = PinCredentialModel.createFromCredentialModel( model );
+		entries.put( id, new Entry( model.getCreatedDate( ), decoded.getPinSecretData( ), decoded.getPinCredentialData( ) ) );
+		return decoded;
+	}
+
+	/**
+	 * Drops the cached entry of a credential.
+	 *
+	 * @param credentialId
+	 * 		the credential ID.
+	 */
+	public
+	void invalidate( String credentialId ) {
+
+		if ( credentialId != null ) {
+			entries.remove( credentialId );
+		}
+	}
+
+	/**
+	 * Returns the number of cached credentials.
+	 *
+	 * @return the cache size.
+	 */
+	public
+	int size( ) {
+
+		return entries.size( );
+	}
+
+	private
+	record Entry( Long createdDate, PinSecretData secretData, PinCredentialData credentialData ) {
+
+	}
+
+}
@@ -4,15 +4,18 @@ import java.io.IOException;
 
 import org.keycloak.common.util.Time;
 import org.keycloak.credential.CredentialModel;
+import org.keycloak.models.credential.PasswordCredentialModel;
 import org.keycloak.util.JsonSerialization;
 
+import edu.uw.waverify.pin.credential.dto.PinCredentialData;
 import edu.uw.waverify.pin.credential.dto.PinSecretData;
 
 /**
  * Represents a credential model for storing a user's PIN.
  * <p>
  * This class extends {@link CredentialModel} to handle the secure storage and retrieval of PIN credentials in
- * Keycloak.
+ * Keycloak. PINs are stored as a salted hash produced by a Keycloak {@code PasswordHashProvider}; the hash parameters
+ * are kept in the credential data.
  * </p>
  */
 public
@@ -23,22 +26,29 @@ class PinCredentialModel extends CredentialModel {
 	 */
 	public static final String TYPE = "PIN";
 
-	private final PinSecretData secretData;
+	private final PinSecretData     secretData;
+	private final PinCredentialData credentialData;
 
 	/**
-	 * Constructs a {@code PinCredentialModel} with the given secret data.
+	 * Constructs a {@code PinCredentialModel} with the given secret and credential data.
 	 *
 	 * @param secretData
-	 * 		the secret data containing the PIN.
+	 * 		the secret data containing the PIN or its hash.
+	 * @param credentialData
+	 * 		the hash parameters, or {@code null} for a raw PIN.
 	 */
 	private
-	PinCredentialModel( PinSecretData secretData ) {
+	PinCredentialModel( PinSecretData secretData, PinCredentialData credentialData ) {
 
 		this.secretData = secretData;
+		this.credentialData = credentialData;
 	}
 
 	/**
 	 * Constructs a {@code PinCredentialModel} with a plain PIN value.
+	 * <p>
+	 * The PIN is hashed by {@code PinCredentialProvider} before the credential is stored.
+	 * </p>
 	 *
 	 * @param pin
 	 * 		the PIN value.
@@ -46,7 +56,7 @@ class PinCredentialModel extends CredentialModel {
 	public
 	PinCredentialModel( String pin ) {
 
-		this.secretData = new PinSecretData( pin );
+		this( new PinSecretData( pin ), null );
 	}
 
 	/**
@@ -67,20 +77,40 @@ class PinCredentialModel extends CredentialModel {
 	PinCredentialModel createFromCredentialModel( CredentialModel credentialModel ) {
 
 		try {
-			PinSecretData secretData = JsonSerialization.readValue( credentialModel.getSecretData( ), PinSecretData.class );
-
-			PinCredentialModel pinCredentialModel = new PinCredentialModel( secretData );
-			pinCredentialModel.setUserLabel( credentialModel.getUserLabel( ) );
-			pinCredentialModel.setCreatedDate( credentialModel.getCreatedDate( ) );
-			pinCredentialModel.setType( TYPE );
-			pinCredentialModel.setId( credentialModel.getId( ) );
-			pinCredentialModel.setSecretData( credentialModel.getSecretData( ) );
-			return pinCredentialModel;
+			PinSecretData     secretData     = JsonSerialization.readValue( credentialModel.getSecretData( ), PinSecretData.class );
+			PinCredentialData credentialData = credentialModel.getCredentialData( ) == null ? null : JsonSerialization.readValue( credentialModel.getCredentialData( ), PinCredentialData.class );
+
+			return createFromCredentialModel( credentialModel, secretData, credentialData );
 		} catch ( IOException e ) {
 			throw new RuntimeException( e );
 		}
 	}
 
+	/**
+	 * Creates a {@code PinCredentialModel} from an existing {@link CredentialModel} whose data has already been decoded.
+	 *
+	 * @param credentialModel
+	 * 		the existing credential model.
+	 * @param secretData
+	 * 		the decoded secret data of {@code credentialModel}.
+	 * @param credentialData
+	 * 		the decoded credential data of {@code credentialModel}, or {@code null} for a raw PIN.
+	 *
+	 * @return a new instance of {@code PinCredentialModel}.
+	 */
+	public static
+	PinCredentialModel createFromCredentialModel( CredentialModel credentialModel, PinSecretData secretData, PinCredentialData credentialData ) {
+
+		PinCredentialModel pinCredentialModel = new PinCredentialModel( secretData, credentialData );
+		pinCredentialModel.setUserLabel( credentialModel.getUserLabel( ) );
+		pinCredentialModel.setCreatedDate( credentialModel.getCreatedDate( ) );
+		pinCredentialModel.setType( TYPE );
+		pinCredentialModel.setId( credentialModel.getId( ) );
+		pinCredentialModel.setSecretData( credentialModel.getSecretData( ) );
+		pinCredentialModel.setCredentialData( credentialModel.getCredentialData( ) );
+		return pinCredentialModel;
+	}
+
 	/**
 	 * Creates a new {@code PinCredentialModel} with the given PIN value.
 	 * <p>
@@ -121,6 +151,25 @@ class PinCredentialModel extends CredentialModel {
 		return credentialModel;
 	}
 
+	/**
+	 * Creates a new {@code PinCredentialModel} from a PIN hashed by a {@code PasswordHashProvider}.
+	 *
+	 * @param hashed
+	 * 		the encoded PIN.
+	 *
+	 * @return a fully initialized {@code PinCredentialModel}.
+	 */
+	public static
+	PinCredentialModel createHashed( PasswordCredentialModel hashed ) {
+
+		var secret     = hashed.getPasswordSecretData( );
+		var parameters = hashed.getPasswordCredentialData( );
+
+		PinCredentialModel credentialModel = new PinCredentialModel( new PinSecretData( null, secret.getValue( ), secret.getSalt( ) ), new PinCredentialData( parameters.getAlgorithm( ), parameters.getHashIterations( ) ) );
+		credentialModel.fillCredentialModelFields( );
+		return credentialModel;
+	}
+
 	/**
 	 * Fills the credential model fields, including setting the secret data, type, and creation timestamp.
 	 *
@@ -132,6 +181,7 @@ class PinCredentialModel extends CredentialModel {
 
 		try {
 			setSecretData( JsonSerialization.writeValueAsString( secretData ) );
+			setCredentialData( credentialData == null ? null : JsonSerialization.writeValueAsString( credentialData ) );
 			setType( TYPE );
 			setCreatedDate( Time.currentTimeMillis( ) );
 		} catch ( IOException e ) {
@@ -142,7 +192,7 @@ class PinCredentialModel extends CredentialModel {
 	/**
 	 * Retrieves the secret data containing the stored PIN.
 	 *
-	 * @return the {@code PinSecretData} containing the PIN value.
+	 * @return the {@code PinSecretData} containing the PIN value or its hash.
 	 */
 	public
 	PinSecretData getPinSecretData( ) {
@@ -150,4 +200,32 @@ class PinCredentialModel extends CredentialModel {
 		return secretData;
 	}
 
+	/**
+	 * Retrieves the hash parameters of the stored PIN.
+	 *
+	 * @return the {@code PinCredentialData}, or {@code null} if the PIN is not hashed.
+	 */
+	public
+	PinCredentialData getPinCredentialData( ) {
+
+		return credentialData;
+	}
+
+	/**
+	 * Converts the hashed PIN into the form expected by {@code PasswordHashProvider#verify}.
+	 *
+	 * @return the equivalent {@link PasswordCredentialModel}.
+	 *
+	 * @throws IllegalStateException
+	 * 		if the PIN is not hashed.
+	 */
+	public
+	PasswordCredentialModel toPasswordCredentialModel( ) {
+
+		if ( !secretData.isHashed( ) || credentialData == null ) {
+			throw new IllegalStateException( "PIN credential is not hashed" );
+		}
+		return PasswordCredentialModel.createFromValues( credentialData.getAlgorithm( ), secretData.getSalt( ), credentialData.getHashIterations( ), secretData.getValue( ) );
+	}
+
 }
@@ -0,0 +1,33 @@
+package edu.uw.waverify.pin.credential.dto;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import lombok.Getter;
+
+/**
+ * Represents the non-secret parameters of a hashed PIN credential.
+ */
+@Getter
+public
+class PinCredentialData {
+
+	private final String algorithm;
+	private final int    hashIterations;
+
+	/**
+	 * Constructs a new {@code PinCredentialData} instance.
+	 *
+	 * @param algorithm
+	 * 		the ID of the {@code PasswordHashProvider} that produced the hash.
+	 * @param hashIterations
+	 * 		the number of hash iterations.
+	 */
+	@JsonCreator
+	public
+	PinCredentialData( @JsonProperty("algorithm") String algorithm, @JsonProperty("hashIterations") int hashIterations ) {
+
+		this.algorithm = algorithm;
+		this.hashIterations = hashIterations;
+	}
+
+}
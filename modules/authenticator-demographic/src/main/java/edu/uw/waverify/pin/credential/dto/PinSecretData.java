@@ -1,32 +1,65 @@
 package edu.uw.waverify.pin.credential.dto;
 
-import com.fasterxml.jackson.annotation.JsonCreator;
-import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.annotation.*;
 import lombok.Getter;
 
 /**
  * Represents the secret data for a PIN credential.
  * <p>
- * This class is used to store and deserialize the PIN value securely.
+ * New credentials store a salted hash of the PIN ({@code value} and {@code salt}). Credentials created before PINs
+ * were hashed store the raw {@code pin} instead; they are rehashed on the next successful login.
  * </p>
  */
 @Getter
+@JsonInclude(JsonInclude.Include.NON_NULL)
 public
 class PinSecretData {
 
 	private final String pin;
+	private final String value;
+	private final byte[] salt;
 
 	/**
-	 * Constructs a new {@code PinSecretData} instance with the given PIN value.
+	 * Constructs a new {@code PinSecretData} instance holding a raw PIN value.
 	 *
 	 * @param pin
 	 * 		the PIN value associated with the credential.
 	 */
+	public
+	PinSecretData( String pin ) {
+
+		this( pin, null, null );
+	}
+
+	/**
+	 * Constructs a new {@code PinSecretData} instance.
+	 *
+	 * @param pin
+	 * 		the raw PIN value of a legacy credential, or {@code null}.
+	 * @param value
+	 * 		the encoded PIN hash, or {@code null} for a legacy credential.
+	 * @param salt
+	 * 		the salt used for the hash, or {@code null} for a legacy credential.
+	 */
 	@JsonCreator
 	public
-	PinSecretData( @JsonProperty("pin") String pin ) {
+	PinSecretData( @JsonProperty("pin") String pin, @JsonProperty("value") String value, @JsonProperty("salt") byte[] salt ) {
 
 		this.pin = pin;
+		this.value = value;
+		this.salt = salt;
+	}
+
+	/**
+	 * Indicates whether this secret holds a hash rather than a raw PIN.
+	 *
+	 * @return {@code true} if the PIN is hashed.
+	 */
+	@JsonIgnore
+	public
+	boolean isHashed( ) {
+
+		return value != null;
 	}
 
 }
@@ -0,0 +1,201 @@
+package edu.uw.waverify.ratelimit;
+
+import java.util.function.LongSupplier;
+
+import org.keycloak.Config;
+
+/**
+ * Concurrency limiter that adapts its limit to the latency of the protected service (AIMD).
+ * <p>
+ * Each call takes a {@link Permit}; when the number of calls in flight has reached the limit, no permit is handed out
+ * and the caller is expected to shed the work rather than queue it. Every successful call whose round trip stays within
+ * {@link #RTT_TOLERANCE} times the lowest recently observed round trip, and that used at least half of the limit, raises
+ * the limit by one. A failed call, or one whose round trip exceeds that tolerance because requests have started to queue
+ * at the service, multiplies the limit by {@link #BACKOFF}. The limit therefore settles around the point where the
+ * service's latency starts to climb, i.e. its throughput knee. The baseline round trip is re-measured every
+ * {@link #BASELINE_WINDOW} samples so it can follow the service when it gets faster or slower.
+ * </p>
+ */
+public
+class AdaptiveConcurrencyLimiter {
+
+	static final double RTT_TOLERANCE   = 2.0;
+	static final double BACKOFF         = 0.9;
+	static final int    BASELINE_WINDOW = 500;
+
+	private static final AdaptiveConcurrencyLimiter UNLIMITED = new AdaptiveConcurrencyLimiter( Integer.MAX_VALUE, Integer.MAX_VALUE, Integer.MAX_VALUE, System::nanoTime );
+
+	private final int          minLimit;
+	private final int          maxLimit;
+	private final LongSupplier clock;
+	private       double       limit;
+	private       int          inFlight;
+	private       long         baselineRtt  = Long.MAX_VALUE;
+	private       long         windowMinRtt = Long.MAX_VALUE;
+	private       int          windowSamples;
+
+	/**
+	 * Creates a limiter.
+	 *
+	 * @param initialLimit
+	 * 		the limit to start from.
+	 * @param minLimit
+	 * 		the lowest the limit may fall to.
+	 * @param maxLimit
+	 * 		the highest the limit may rise to.
+	 * @param clock
+	 * 		the nanosecond time source.
+	 */
+	AdaptiveConcurrencyLimiter( int initialLimit, int minLimit, int maxLimit, LongSupplier clock ) {
+
+		this.minLimit = Math.max( 1, minLimit );
+		this.maxLimit = Math.max( this.minLimit, maxLimit );
+		this.limit = Math.min( Math.max( initialLimit, this.minLimit ), this.maxLimit );
+		this.clock = clock;
+	}
+
+	/**
+	 * Creates a limiter from SPI configuration.
+	 * <p>
+	 * Reads {@code <name>Initial}, {@code <name>Min} and {@code <name>Max}; a non-positive maximum disables the limiter.
+	 * </p>
+	 *
+	 * @param config
+	 * 		the configuration scope, may be {@code null}.
+	 * @param name
+	 * 		the configuration key prefix.
+	 * @param defaultInitial
+	 * 		the default initial limit.
+	 * @param defaultMin
+	 * 		the default minimum limit.
+	 * @param defaultMax
+	 * 		the default maximum limit.
+	 *
+	 * @return the limiter.
+	 */
+	public static
+	AdaptiveConcurrencyLimiter fromConfig( Config.Scope config, String name, int defaultInitial, int defaultMin, int defaultMax ) {
+
+		var initial = config != null ? config.getInt( name + "Initial", defaultInitial ) : defaultInitial;
+		var min     = config != null ? config.getInt( name + "Min", defaultMin ) : defaultMin;
+		var max     = config != null ? config.getInt( name + "Max", defaultMax ) : defaultMax;
+		if ( max <= 0 ) {
+			return UNLIMITED;
+		}
+		return new AdaptiveConcurrencyLimiter( initial, min, max, System::nanoTime );
+	}
+
+	/**
+	 * Takes a permit for one call.
+	 *
+	 * @return the permit, or {@code null} if the limit has been reached and the call should be shed.
+	 */
+	public synchronized
+	Permit tryAcquire( ) {
+
+		if ( inFlight >= ( int ) limit ) {
+			return null;
+		}
+		inFlight++;
+		return new Permit( clock.getAsLong( ), inFlight );
+	}
+
+	/**
+	 * Returns the current limit.
+	 *
+	 * @return the number of calls allowed in flight.
+	 */
+	public synchronized
+	int getLimit( ) {
+
+		return ( int ) limit;
+	}
+
+	/**
+	 * Returns the number of calls in flight.
+	 *
+	 * @return the number of permits not yet released.
+	 */
+	public synchronized
+	int getInFlight( ) {
+
+		return inFlight;
+	}
+
+	private synchronized
+	void onSample( long rtt, int inFlightAtStart, boolean failed ) {
+
+		inFlight--;
+		if ( this == UNLIMITED ) {
+			return;
+		}
+
+		if ( !failed ) {
+			windowMinRtt = Math.min( windowMinRtt, rtt );
+			baselineRtt = Math.min( baselineRtt, rtt );
+			if ( ++windowSamples >= BASELINE_WINDOW ) {
+				baselineRtt = windowMinRtt;
+				windowMinRtt = Long.MAX_VALUE;
+				windowSamples = 0;
+			}
+		}
+
+		if ( failed || rtt > baselineRtt * RTT_TOLERANCE ) {
+			limit = Math.max( minLimit, limit * BACKOFF );
+		} else if ( inFlightAtStart * 2 >= limit ) {
+			limit = Math.min( maxLimit, limit + 1 );
+		}
+	}
+
+	private synchronized
+	void onIgnored( ) {
+
+		inFlight--;
+	}
+
+	/**
+	 * A permit for one call, to be completed exactly once.
+	 */
+	public
+	class Permit {
+
+		private final long start;
+		private final int  inFlightAtStart;
+
+		private
+		Permit( long start, int inFlightAtStart ) {
+
+			this.start = start;
+			this.inFlightAtStart = inFlightAtStart;
+		}
+
+		/**
+		 * Completes a call that got an answer from the service, feeding its round trip into the limit.
+		 */
+		public
+		void success( ) {
+
+			onSample( clock.getAsLong( ) - start, inFlightAtStart, false );
+		}
+
+		/**
+		 * Completes a call that failed or timed out, lowering the limit.
+		 */
+		public
+		void dropped( ) {
+
+			onSample( clock.getAsLong( ) - start, inFlightAtStart, true );
+		}
+
+		/**
+		 * Completes a call without affecting the limit, e.g. one that was interrupted.
+		 */
+		public
+		void ignore( ) {
+
+			onIgnored( );
+		}
+
+	}
+
+}
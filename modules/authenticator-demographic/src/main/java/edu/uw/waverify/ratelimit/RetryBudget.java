@@ -0,0 +1,140 @@
+package edu.uw.waverify.ratelimit;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.keycloak.Config;
+
+/**
+ * Node-wide allowance for retries, expressed as a share of the requests made.
+ * <p>
+ * Every request deposits a fraction of a retry into the budget and every retry withdraws a whole one, so retries can
+ * never add more than that share of load on top of the original traffic, however many requests fail. A small reserve
+ * lets a node with little traffic retry at all; the balance never grows beyond it. Requests, retries and retries refused
+ * for lack of budget are counted.
+ * </p>
+ */
+public
+class RetryBudget {
+
+	private static final long SCALE = 1000;
+
+	private static final RetryBudget DISABLED = new RetryBudget( 0, 0 );
+
+	private final long       deposit;
+	private final long       maxBalance;
+	private final AtomicLong balance;
+	private final LongAdder  requests  = new LongAdder( );
+	private final LongAdder  retries   = new LongAdder( );
+	private final LongAdder  exhausted = new LongAdder( );
+
+	/**
+	 * Creates a budget.
+	 *
+	 * @param percent
+	 * 		retries allowed per hundred requests.
+	 * @param reserve
+	 * 		the most retries that can be saved up, and the number available right away.
+	 */
+	RetryBudget( int percent, int reserve ) {
+
+		this.deposit = percent * SCALE / 100;
+		this.maxBalance = Math.max( 0, reserve ) * SCALE;
+		this.balance = new AtomicLong( maxBalance );
+	}
+
+	/**
+	 * Creates a budget from SPI configuration.
+	 * <p>
+	 * Reads {@code <name>Percent} and {@code <name>Reserve}; a non-positive percentage disables retries.
+	 * </p>
+	 *
+	 * @param config
+	 * 		the configuration scope, may be {@code null}.
+	 * @param name
+	 * 		the configuration key prefix.
+	 * @param defaultPercent
+	 * 		the default retries per hundred requests.
+	 * @param defaultReserve
+	 * 		the default reserve.
+	 *
+	 * @return the budget.
+	 */
+	public static
+	RetryBudget fromConfig( Config.Scope config, String name, int defaultPercent, int defaultReserve ) {
+
+		var percent = config != null ? config.getInt( name + "Percent", defaultPercent ) : defaultPercent;
+		var reserve = config != null ? config.getInt( name + "Reserve", defaultReserve ) : defaultReserve;
+		if ( percent <= 0 ) {
+			return DISABLED;
+		}
+		return new RetryBudget( percent, Math.max( 1, reserve ) );
+	}
+
+	/**
+	 * Records an original request and deposits its share of a retry.
+	 */
+	public
+	void onRequest( ) {
+
+		requests.increment( );
+		if ( deposit > 0 ) {
+			balance.accumulateAndGet( deposit, ( current, amount ) -> Math.min( maxBalance, current + amount ) );
+		}
+	}
+
+	/**
+	 * Withdraws one retry.
+	 *
+	 * @return {@code true} if the retry may be made, {@code false} if the budget is exhausted.
+	 */
+	public
+	boolean tryRetry( ) {
+
+		while ( true ) {
+			var current = balance.get( );
+			if ( current < SCALE ) {
+				exhausted.increment( );
+				return false;
+			}
+			if ( balance.compareAndSet( current, current - SCALE ) ) {
+				retries.increment( );
+				return true;
+			}
+		}
+	}
+
+	/**
+	 * Returns the number of original requests recorded.
+	 *
+	 * @return the request count.
+	 */
+	public
+	long getRequests( ) {
+
+		return requests.sum( );
+	}
+
+	/**
+	 * Returns the number of retries granted.
+	 *
+	 * @return the retry count.
+	 */
+	public
+	long getRetries( ) {
+
+		return retries.sum( );
+	}
+
+	/**
+	 * Returns the number of retries refused because the budget was exhausted.
+	 *
+	 * @return the refusal count.
+	 */
+	public
+	long getExhausted( ) {
+
+		return exhausted.sum( );
+	}
+
+}
@@ -0,0 +1,205 @@
+package edu.uw.waverify.ratelimit;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+import org.keycloak.Config;
+
+/**
+ * Per-key token bucket rate limiter held entirely in memory on the local node.
+ * <p>
+ * Bucket state is guarded by a fixed set of striped locks, so unrelated keys never contend on the same monitor. A
+ * bucket that has been idle long enough to refill completely is indistinguishable from a new one, so such buckets are
+ * dropped by a timing wheel that is advanced lazily by callers; no background thread is needed and the map only holds
+ * keys seen within the last refill period.
+ * </p>
+ */
+public
+class TokenBucketRateLimiter {
+
+	private static final int STRIPES     = 64;
+	private static final int WHEEL_SLOTS = 64;
+
+	private static final TokenBucketRateLimiter UNLIMITED = new TokenBucketRateLimiter( 0, 0, System::nanoTime );
+
+	private final long                  capacity;
+	private final double                refillPerNano;
+	private final long                  idleNanos;
+	private final long                  tickNanos;
+	private final LongSupplier          clock;
+	private final Object[]              stripes = new Object[ STRIPES ];
+	private final Map< String, Bucket > buckets = new ConcurrentHashMap<>( );
+	private final Set< String >[]       wheel;
+	private final AtomicLong            currentTick;
+
+	/**
+	 * Creates a limiter.
+	 *
+	 * @param capacity
+	 * 		the bucket size, i.e. the number of requests allowed in a burst; zero disables limiting.
+	 * @param refillPerMinute
+	 * 		the number of requests replenished per minute.
+	 * @param clock
+	 * 		the nanosecond time source.
+	 */
+	@SuppressWarnings("unchecked")
+	TokenBucketRateLimiter( long capacity, long refillPerMinute, LongSupplier clock ) {
+
+		this.capacity = capacity;
+		this.refillPerNano = ( double ) refillPerMinute / TimeUnit.MINUTES.toNanos( 1 );
+		this.idleNanos = refillPerMinute > 0 ? ( long ) Math.ceil( capacity / refillPerNano ) : Long.MAX_VALUE;
+		this.tickNanos = Math.max( 1, idleNanos / ( WHEEL_SLOTS - 1 ) + 1 );
+		this.clock = clock;
+		this.wheel = new Set[ WHEEL_SLOTS ];
+		for ( int i = 0; i < STRIPES; i++ ) {
+			stripes[ i ] = new Object( );
+		}
+		for ( int i = 0; i < WHEEL_SLOTS; i++ ) {
+			wheel[ i ] = ConcurrentHashMap.newKeySet( );
+		}
+		this.currentTick = new AtomicLong( clock.getAsLong( ) / tickNanos );
+	}
+
+	/**
+	 * Creates a limiter from SPI configuration.
+	 * <p>
+	 * Reads {@code <name>Burst} and {@code <name>PerMinute}; a non-positive rate disables the limiter.
+	 * </p>
+	 *
+	 * @param config
+	 * 		the configuration scope, may be {@code null}.
+	 * @param name
+	 * 		the configuration key prefix.
+	 * @param defaultBurst
+	 * 		the default bucket size.
+	 * @param defaultPerMinute
+	 * 		the default refill rate per minute.
+	 *
+	 * @return the limiter.
+	 */
+	public static
+	TokenBucketRateLimiter fromConfig( Config.Scope config, String name, long defaultBurst, long defaultPerMinute ) {
+
+		var burst     = config != null ? config.getLong( name + "Burst", defaultBurst ) : defaultBurst;
+		var perMinute = config != null ? config.getLong( name + "PerMinute", defaultPerMinute ) : defaultPerMinute;
+		if ( burst <= 0 || perMinute <= 0 ) {
+			return UNLIMITED;
+		}
+		return new TokenBucketRateLimiter( burst, perMinute, System::nanoTime );
+	}
+
+	/**
+	 * Takes one request from the key's bucket.
+	 *
+	 * @param key
+	 * 		the rate-limited key, e.g. a client IP address.
+	 *
+	 * @return {@code true} if the request is allowed, {@code false} if the key is over its limit.
+	 */
+	public
+	boolean tryAcquire( String key ) {
+
+		if ( capacity == 0 ) {
+			return true;
+		}
+
+		var now = clock.getAsLong( );
+		advance( now );
+
+		synchronized ( stripeFor( key ) ) {
+			var bucket = buckets.computeIfAbsent( key, k -> new Bucket( capacity, now ) );
+			bucket.tokens = Math.min( capacity, bucket.tokens + ( now - bucket.lastRefill ) * refillPerNano );
+			bucket.lastRefill = now;
+
+			var slot = ( int ) ( ( ( now + idleNanos ) / tickNanos ) % WHEEL_SLOTS );
+			if ( bucket.slot != slot ) {
+				bucket.slot = slot;
+				wheel[ slot ].add( key );
+			}
+
+			if ( bucket.tokens < 1 ) {
+				return false;
+			}
+			bucket.tokens -= 1;
+			return true;
+		}
+	}
+
+	/**
+	 * Returns the number of keys currently tracked.
+	 *
+	 * @return the number of buckets.
+	 */
+	public
+	int size( ) {
+
+		return buckets.size( );
+	}
+
+	/**
+	 * Advances the timing wheel to {@code now}, dropping buckets that have been idle for a full refill period.
+	 *
+	 * @param now
+	 * 		the current time in nanoseconds.
+	 */
+	private
+	void advance( long now ) {
+
+		var tick = now / tickNanos;
+		var last = currentTick.get( );
+		if ( tick <= last || !currentTick.compareAndSet( last, tick ) ) {
+			return;
+		}
+		for ( long t = last + 1; t <= tick && t <= last + WHEEL_SLOTS; t++ ) {
+			var index = ( int ) ( t % WHEEL_SLOTS );
+			var keys  = wheel[ index ];
+			for ( var key : keys ) {
+				keys.remove( key );
+				synchronized ( stripeFor( key ) ) {
+					var bucket = buckets.get( key );
+					if ( bucket == null ) {
+						continue;
+					}
+					if ( now - bucket.lastRefill >= idleNanos ) {
+						buckets.remove( key );
+					} else if ( bucket.slot == index ) {
+						// due within this tick but not idle yet; look again on the next one
+						bucket.slot = ( index + 1 ) % WHEEL_SLOTS;
+						wheel[ bucket.slot ].add( key );
+					}
+				}
+			}
+		}
+	}
+
+	private
+	Object stripeFor( String key ) {
+
+		var hash = key.hashCode( );
+		return stripes[ ( hash ^ ( hash >>> 16 ) ) & ( STRIPES - 1 ) ];
+	}
+
+	/**
+	 * Mutable bucket state, guarded by the key's stripe lock.
+	 */
+	private static
+	class Bucket {
+
+		private double tokens;
+		private long   lastRefill;
+		private int    slot = -1;
+
+		private
+		Bucket( long tokens, long lastRefill ) {
+
+			this.tokens = tokens;
+			this.lastRefill = lastRefill;
+		}
+
+	}
+
+}
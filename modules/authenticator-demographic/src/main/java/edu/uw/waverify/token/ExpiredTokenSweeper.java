@@ -0,0 +1,115 @@
+package edu.uw.waverify.token;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.keycloak.common.util.Time;
+import org.keycloak.models.KeycloakSession;
+import org.keycloak.models.KeycloakSessionFactory;
+import org.keycloak.models.RealmModel;
+import org.keycloak.models.utils.KeycloakModelUtils;
+import org.keycloak.timer.ScheduledTask;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.jbosslog.JBossLog;
+
+import static edu.uw.waverify.token.UserTokenGenerator.*;
+
+/**
+ * Scheduled task that deletes expired user tokens.
+ * <p>
+ * Only users that hold a token are read, realm by realm in pages of {@code batchSize} ordered by user ID, each page in
+ * its own transaction (see {@link TokenUserQueries#findTokenHolders}). The issue time comes with the page, so a user is
+ * loaded only when there is something to change: expired tokens are removed together with their nonce and issue time,
+ * and tokens stored before issue times were recorded are stamped with the current time so that they expire one TTL
+ * later.
+ * </p>
+ */
+@JBossLog
+@RequiredArgsConstructor
+public
+class ExpiredTokenSweeper implements ScheduledTask {
+
+	/**
+	 * The name under which the task is registered with the timer provider.
+	 */
+	public static final String TASK_NAME = "expired-user-token-sweeper";
+
+	private final int batchSize;
+
+	/**
+	 * Sweeps expired tokens from all realms.
+	 *
+	 * @param session
+	 * 		the Keycloak session provided by the scheduler.
+	 */
+	@Override
+	public
+	void run( KeycloakSession session ) {
+
+		if ( UserTokenGenerator.getTokenTtl( )
+		                       .isZero( ) ) {
+			return;
+		}
+
+		var sessionFactory = session.getKeycloakSessionFactory( );
+		session.realms( )
+		       .getRealmsStream( )
+		       .map( RealmModel::getId )
+		       .toList( )
+		       .forEach( realmId -> sweepRealm( sessionFactory, realmId ) );
+	}
+
+	/**
+	 * Sweeps a single realm page by page.
+	 *
+	 * @param sessionFactory
+	 * 		the Keycloak session factory.
+	 * @param realmId
+	 * 		the ID of the realm to sweep.
+	 */
+	private
+	void sweepRealm( KeycloakSessionFactory sessionFactory, String realmId ) {
+
+		var now     = Time.currentTimeMillis( );
+		var removed = new AtomicInteger( );
+		var afterId = new AtomicReference<>( "" );
+		var read    = new AtomicInteger( batchSize );
+
+		while ( read.get( ) == batchSize ) {
+			KeycloakModelUtils.runJobInTransaction( sessionFactory, session -> {
+				var holders = TokenUserQueries.findTokenHolders( session, realmId, afterId.get( ), batchSize );
+				read.set( holders.size( ) );
+				if ( holders.isEmpty( ) ) {
+					return;
+				}
+				afterId.set( holders.get( holders.size( ) - 1 )
+				                    .userId( ) );
+
+				var realm = session.realms( )
+				                   .getRealm( realmId );
+				for ( var holder : holders ) {
+					if ( holder.issuedAt( ) != null && !isExpired( holder.issuedAt( ), now ) ) {
+						continue;
+					}
+					var user = session.users( )
+					                  .getUserById( realm, holder.userId( ) );
+					if ( user == null ) {
+						continue;
+					}
+					if ( holder.issuedAt( ) == null ) {
+						user.setSingleAttribute( ISSUED_AT_ATTRIBUTE, Long.toString( now ) );
+					} else {
+						removeToken( user );
+						removed.incrementAndGet( );
+					}
+				}
+			} );
+		}
+
+		if ( removed.get( ) > 0 ) {
+			log.infof( "Removed %d expired user tokens from realm %s", removed.get( ), realmId );
+		}
+	}
+
+}
@@ -1,11 +1,16 @@
 package edu.uw.waverify.token;
 
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+
 import org.keycloak.authentication.AuthenticationFlowContext;
 import org.keycloak.authentication.AuthenticationFlowError;
 import org.keycloak.models.*;
 
 import edu.uw.waverify.SimpleAuthenticator;
+import edu.uw.waverify.ratelimit.TokenBucketRateLimiter;
 
+import lombok.RequiredArgsConstructor;
 import lombok.extern.jbosslog.JBossLog;
 
 import static edu.uw.waverify.token.UserTokenGenerator.TOKEN_ATTRIBUTE;
@@ -13,15 +18,27 @@ import static edu.uw.waverify.token.UserTokenGenerator.TOKEN_ATTRIBUTE;
 /**
  * Authenticator that validates a user token and identifies the user.
  * <p>
- * If the token is valid, authentication proceeds to the next step (PIN verification). Otherwise, authentication fails.
+ * If the token is valid and has not expired, authentication proceeds to the next step (PIN verification). Otherwise,
+ * authentication fails.
+ * </p>
+ * <p>
+ * Requests are rate limited per client IP before anything else is done. Requests that pass the token filter and would
+ * look the token up in the user store are also drawn from a lookup budget per client subnet ({@code /24} for IPv4,
+ * {@code /48} for IPv6), which bounds guessing from many addresses of one network. The budget is keyed by where the
+ * request comes from rather than by the token, which the caller picks freely, or by the realm, which would let a flood
+ * from a few networks lock every other caller out. Both limits are held per node.
  * </p>
  */
 @JBossLog
+@RequiredArgsConstructor
 public
 class TokenAuthenticator extends SimpleAuthenticator {
 
 	private static final String TOKEN_PARAM = "user_token";
 
+	private final TokenBucketRateLimiter ipLimiter;
+	private final TokenBucketRateLimiter lookupLimiter;
+
 	/**
 	 * Authenticates a user based on the provided token.
 	 * <p>
@@ -47,7 +64,29 @@ class TokenAuthenticator extends SimpleAuthenticator {
 			return;
 		}
 
-		var user = findUserByToken( context.getSession( ), context.getRealm( ), token );
+		var clientIp = context.getConnection( )
+		                      .getRemoteAddr( );
+		if ( !ipLimiter.tryAcquire( clientIp ) ) {
+			log.warnf( "Token request from %s rate limited", clientIp );
+			rateLimited( context );
+			return;
+		}
+
+		var realm = context.getRealm( );
+		if ( !TokenFilterRegistry.mightExist( context.getSession( ), realm, token ) ) {
+			log.warn( "Unknown token rejected by token filter" );
+			context.failure( AuthenticationFlowError.UNKNOWN_USER );
+			return;
+		}
+
+		var subnet = subnet( clientIp );
+		if ( !lookupLimiter.tryAcquire( subnet ) ) {
+			log.warnf( "Token lookup budget of %s exhausted, request from %s rejected", subnet, clientIp );
+			rateLimited( context );
+			return;
+		}
+
+		var user = findUserByToken( context.getSession( ), realm, token );
 		if ( user == null ) {
 			log.warn( "No such user found in request parameters" );
 			log.warn( "token: " + token );
@@ -55,6 +94,12 @@ class TokenAuthenticator extends SimpleAuthenticator {
 			return;
 		}
 
+		if ( UserTokenGenerator.isExpired( user ) ) {
+			log.warnf( "Expired token presented for user %s", user.getId( ) );
+			context.failure( AuthenticationFlowError.EXPIRED_CODE );
+			return;
+		}
+
 		context.setUser( user );
 		context.success( );
 	}
@@ -94,6 +139,36 @@ class TokenAuthenticator extends SimpleAuthenticator {
 		return true;
 	}
 
+	/**
+	 * Returns the network a client address belongs to, as the key of its lookup budget.
+	 *
+	 * @param address
+	 * 		the client IP address.
+	 *
+	 * @return the {@code /24} network of an IPv4 address, the {@code /48} network of an IPv6 address, or the address
+	 * 		itself if it cannot be parsed.
+	 */
+	static
+	String subnet( String address ) {
+
+		if ( address == null || address.indexOf( ':' ) < 0 && !address.matches( "\\d{1,3}(\\.\\d{1,3}){3}" ) ) {
+			return address;
+		}
+		try {
+			// literal addresses are parsed without a name lookup
+			var bytes = InetAddress.getByName( address )
+			                       .getAddress( );
+			var bits  = bytes.length == 4 ? 24 : 48;
+			for ( int i = bits / 8; i < bytes.length; i++ ) {
+				bytes[ i ] = 0;
+			}
+			return InetAddress.getByAddress( bytes )
+			                  .getHostAddress( ) + "/" + bits;
+		} catch ( UnknownHostException e ) {
+			return address;
+		}
+	}
+
 	/**
 	 * Finds a user by validating the provided token.
 	 *
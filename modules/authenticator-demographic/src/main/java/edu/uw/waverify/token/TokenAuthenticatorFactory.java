@@ -1,16 +1,32 @@
 package edu.uw.waverify.token;
 
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+
+import org.keycloak.Config;
 import org.keycloak.authentication.Authenticator;
-import org.keycloak.models.KeycloakSession;
+import org.keycloak.models.*;
+import org.keycloak.models.utils.KeycloakModelUtils;
+import org.keycloak.models.utils.PostMigrationEvent;
+import org.keycloak.services.scheduled.ClusterAwareScheduledTaskRunner;
+import org.keycloak.timer.TimerProvider;
 
 import edu.uw.waverify.SimpleAuthenticatorFactory;
+import edu.uw.waverify.ratelimit.TokenBucketRateLimiter;
 
 import lombok.extern.jbosslog.JBossLog;
 
 /**
  * Factory for creating instances of {@link TokenAuthenticator}.
  * <p>
- * This factory registers the token authenticator within Keycloak and defines its configuration settings.
+ * This factory registers the token authenticator within Keycloak and defines its configuration settings. It also
+ * applies the token TTL ({@code tokenTtl}, in seconds) and schedules the {@link ExpiredTokenSweeper}
+ * ({@code sweepInterval} in seconds, {@code sweepBatchSize}). When {@code tokenFilterEnabled} is set, the per-realm
+ * {@link TokenFilterRegistry} is built at startup and rebuilt on every node every {@code tokenFilterRebuildInterval}
+ * seconds; {@code tokenFilterClusterSync} controls whether new tokens are shared with other nodes in between.
+ * Requests are rate limited per client IP ({@code ipRateLimitBurst}, {@code ipRateLimitPerMinute}), and token lookups
+ * in the user store per client subnet ({@code lookupRateLimitBurst}, {@code lookupRateLimitPerMinute}). Both limits
+ * apply to each node separately.
  * </p>
  */
 @JBossLog
@@ -22,6 +38,17 @@ class TokenAuthenticatorFactory extends SimpleAuthenticatorFactory {
 	 */
 	public static final String PROVIDER_ID = "token-authenticator";
 
+	private static final long   DEFAULT_SWEEP_INTERVAL          = 3600;
+	private static final int    DEFAULT_SWEEP_BATCH_SIZE        = 500;
+	private static final long   DEFAULT_FILTER_REBUILD_INTERVAL = 3600;
+	private static final String FILTER_REBUILD_TASK_NAME        = "user-token-filter-rebuild";
+
+	private long                   sweepInterval         = DEFAULT_SWEEP_INTERVAL;
+	private int                    sweepBatchSize        = DEFAULT_SWEEP_BATCH_SIZE;
+	private long                   filterRebuildInterval = DEFAULT_FILTER_REBUILD_INTERVAL;
+	private TokenBucketRateLimiter ipLimiter             = createIpLimiter( null );
+	private TokenBucketRateLimiter lookupLimiter         = createLookupLimiter( null );
+
 	/**
 	 * Creates a new instance of {@link TokenAuthenticator}.
 	 *
@@ -34,7 +61,87 @@ class TokenAuthenticatorFactory extends SimpleAuthenticatorFactory {
 	public
 	Authenticator create( KeycloakSession session ) {
 
-		return new TokenAuthenticator( );
+		return new TokenAuthenticator( ipLimiter, lookupLimiter );
+	}
+
+	private static
+	TokenBucketRateLimiter createIpLimiter( Config.Scope config ) {
+
+		return TokenBucketRateLimiter.fromConfig( config, "ipRateLimit", 30, 60 );
+	}
+
+	private static
+	TokenBucketRateLimiter createLookupLimiter( Config.Scope config ) {
+
+		return TokenBucketRateLimiter.fromConfig( config, "lookupRateLimit", 100, 600 );
+	}
+
+	/**
+	 * Initializes the factory with configuration values.
+	 *
+	 * @param config
+	 * 		the configuration scope.
+	 */
+	@Override
+	public
+	void init( Config.Scope config ) {
+
+		if ( config != null ) {
+			var ttl = config.getLong( "tokenTtl", UserTokenGenerator.DEFAULT_TOKEN_TTL.toSeconds( ) );
+			UserTokenGenerator.setTokenTtl( Duration.ofSeconds( ttl ) );
+			sweepInterval = config.getLong( "sweepInterval", DEFAULT_SWEEP_INTERVAL );
+			sweepBatchSize = config.getInt( "sweepBatchSize", DEFAULT_SWEEP_BATCH_SIZE );
+			filterRebuildInterval = config.getLong( "tokenFilterRebuildInterval", DEFAULT_FILTER_REBUILD_INTERVAL );
+			TokenFilterRegistry.configure( config.getBoolean( "tokenFilterEnabled", false ), config.getBoolean( "tokenFilterClusterSync", true ), filterRebuildInterval );
+			ipLimiter = createIpLimiter( config );
+			lookupLimiter = createLookupLimiter( config );
+		}
+	}
+
+	/**
+	 * Schedules the expired token sweeper and the token filter rebuilds once the database is ready.
+	 *
+	 * @param factory
+	 * 		the Keycloak session factory.
+	 */
+	@Override
+	public
+	void postInit( KeycloakSessionFactory factory ) {
+
+		super.postInit( factory );
+
+		factory.register( event -> {
+			if ( event instanceof PostMigrationEvent ) {
+				KeycloakModelUtils.runJobInTransaction( factory, session -> scheduleTasks( factory, session.getProvider( TimerProvider.class ) ) );
+				if ( TokenFilterRegistry.isEnabled( ) ) {
+					CompletableFuture.runAsync( ( ) -> TokenFilterRegistry.rebuildAll( factory ) );
+				}
+			} else if ( event instanceof RealmModel.RealmRemovedEvent removed ) {
+				TokenFilterRegistry.remove( removed.getRealm( )
+				                                   .getId( ) );
+			}
+		} );
+	}
+
+	/**
+	 * Registers the cluster-wide expired token sweeper and the node-local token filter rebuild.
+	 *
+	 * @param factory
+	 * 		the Keycloak session factory.
+	 * @param timer
+	 * 		the timer provider.
+	 */
+	private
+	void scheduleTasks( KeycloakSessionFactory factory, TimerProvider timer ) {
+
+		if ( sweepInterval > 0 ) {
+			var intervalMillis = sweepInterval * 1000;
+			var sweeper        = new ExpiredTokenSweeper( sweepBatchSize );
+			timer.schedule( new ClusterAwareScheduledTaskRunner( factory, sweeper, intervalMillis ), intervalMillis, ExpiredTokenSweeper.TASK_NAME );
+		}
+		if ( TokenFilterRegistry.isEnabled( ) && filterRebuildInterval > 0 ) {
+			timer.schedule( ( ) -> TokenFilterRegistry.rebuildAll( factory ), filterRebuildInterval * 1000, FILTER_REBUILD_TASK_NAME );
+		}
 	}
 
 	/**
@@ -0,0 +1,119 @@
+package edu.uw.waverify.token;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free Bloom filter over hashed user tokens.
+ * <p>
+ * A negative answer from {@link #mightContain(String)} is definitive, so callers can reject unknown tokens without a
+ * database lookup. Positive answers may be false positives at roughly the configured rate and must be confirmed against
+ * the user store. Entries cannot be removed; the filter is rebuilt instead.
+ * </p>
+ */
+public
+class TokenBloomFilter {
+
+	private static final double LN2          = Math.log( 2 );
+	private static final long   FNV_OFFSET   = 0xcbf29ce484222325L;
+	private static final long   FNV_PRIME    = 0x100000001b3L;
+	private static final long   GOLDEN_GAMMA = 0x9e3779b97f4a7c15L;
+
+	private final AtomicLongArray bits;
+	private final long            bitSize;
+	private final int             numHashes;
+
+	private
+	TokenBloomFilter( long bitSize, int numHashes ) {
+
+		this.bits = new AtomicLongArray( ( int ) ( bitSize >>> 6 ) );
+		this.bitSize = bitSize;
+		this.numHashes = numHashes;
+	}
+
+	/**
+	 * Creates a filter sized for the expected number of tokens.
+	 *
+	 * @param expectedInsertions
+	 * 		the number of tokens the filter should hold.
+	 * @param falsePositiveRate
+	 * 		the target false positive rate, between 0 and 1.
+	 *
+	 * @return a new, empty filter.
+	 */
+	public static
+	TokenBloomFilter create( long expectedInsertions, double falsePositiveRate ) {
+
+		var n       = Math.max( expectedInsertions, 1 );
+		var bitSize = ( long ) Math.ceil( -n * Math.log( falsePositiveRate ) / ( LN2 * LN2 ) );
+		bitSize = Math.min( Math.max( ( bitSize + 63 ) & ~63L, 64 ), ( long ) Integer.MAX_VALUE << 6 );
+		var numHashes = Math.max( 1, ( int ) Math.round( ( double ) bitSize / n * LN2 ) );
+		return new TokenBloomFilter( bitSize, numHashes );
+	}
+
+	/**
+	 * Adds a token to the filter.
+	 *
+	 * @param token
+	 * 		the hashed token.
+	 */
+	public
+	void put( String token ) {
+
+		var hash  = hash( token );
+		var hash1 = mix( hash );
+		var hash2 = mix( hash ^ GOLDEN_GAMMA );
+		for ( int i = 0; i < numHashes; i++ ) {
+			var index = ( ( hash1 + i * hash2 ) & Long.MAX_VALUE ) % bitSize;
+			var mask  = 1L << index;
+			bits.getAndAccumulate( ( int ) ( index >>> 6 ), mask, ( word, bit ) -> word | bit );
+		}
+	}
+
+	/**
+	 * Checks whether a token may have been added to the filter.
+	 *
+	 * @param token
+	 * 		the hashed token.
+	 *
+	 * @return {@code false} if the token was definitely never added, {@code true} otherwise.
+	 */
+	public
+	boolean mightContain( String token ) {
+
+		var hash  = hash( token );
+		var hash1 = mix( hash );
+		var hash2 = mix( hash ^ GOLDEN_GAMMA );
+		for ( int i = 0; i < numHashes; i++ ) {
+			var index = ( ( hash1 + i * hash2 ) & Long.MAX_VALUE ) % bitSize;
+			if ( ( bits.get( ( int ) ( index >>> 6 ) ) & ( 1L << index ) ) == 0 ) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Computes a 64-bit FNV-1a hash over the characters of a token.
+	 */
+	private static
+	long hash( String token ) {
+
+		var hash = FNV_OFFSET;
+		for ( int i = 0; i < token.length( ); i++ ) {
+			hash = ( hash ^ token.charAt( i ) ) * FNV_PRIME;
+		}
+		return hash;
+	}
+
+	/**
+	 * Applies the MurmurHash3 64-bit finalizer.
+	 */
+	private static
+	long mix( long value ) {
+
+		value = ( value ^ ( value >>> 33 ) ) * 0xff51afd7ed558ccdL;
+		value = ( value ^ ( value >>> 33 ) ) * 0xc4ceb9fe1a85ec53L;
+		return value ^ ( value >>> 33 );
+	}
+
+}
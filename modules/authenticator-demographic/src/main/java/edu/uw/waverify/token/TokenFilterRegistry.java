@@ -0,0 +1,331 @@
+package edu.uw.waverify.token;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import org.keycloak.models.*;
+import org.keycloak.models.utils.KeycloakModelUtils;
+
+import lombok.extern.jbosslog.JBossLog;
+
+/**
+ * Per-realm registry of {@link TokenBloomFilter}s holding every live hashed token.
+ * <p>
+ * Filters are built from the user store at startup and rebuilt periodically, which also drops tokens removed by the
+ * {@link ExpiredTokenSweeper}. Newly generated tokens are added immediately on the generating node. With cluster sync
+ * enabled they are also recorded in Keycloak's replicated single-use object store until every node has rebuilt its
+ * filter, so a token minted on another node is never rejected by a stale local filter.
+ * </p>
+ * <p>
+ * A rebuild reads the store while tokens keep being generated, and a token's transaction may commit after the page
+ * holding its user has been read. Every local token is therefore written to the current and the new filter under the
+ * realm's lock until the new filter replaces the current one, and the tokens added in the few minutes before the
+ * rebuild started are replayed into the new filter at the swap. No token generated on this node can go missing, whether or not cluster
+ * sync is enabled.
+ * </p>
+ * <p>
+ * Until a realm's filter has been built, every token is reported as possibly known.
+ * </p>
+ */
+@JBossLog
+public
+class TokenFilterRegistry {
+
+	private static final String KEY_PREFIX          = "user-token-filter:";
+	private static final double FALSE_POSITIVE_RATE = 0.01;
+	private static final int    MIN_CAPACITY        = 1024;
+	private static final int    PAGE_SIZE           = 1000;
+	private static final long   CARRY_WINDOW_NANOS  = TimeUnit.MINUTES.toNanos( 5 );
+
+	private static final Map< String, RealmFilter > FILTERS = new ConcurrentHashMap<>( );
+
+	private static volatile boolean enabled;
+	private static volatile boolean clusterSync     = true;
+	private static volatile long    rebuildInterval = 3600;
+
+	/**
+	 * Configures the registry.
+	 *
+	 * @param filterEnabled
+	 * 		whether tokens are checked against the filter at all.
+	 * @param filterClusterSync
+	 * 		whether new tokens are shared with other nodes until their next rebuild.
+	 * @param filterRebuildInterval
+	 * 		the interval between rebuilds, in seconds.
+	 */
+	public static
+	void configure( boolean filterEnabled, boolean filterClusterSync, long filterRebuildInterval ) {
+
+		enabled = filterEnabled;
+		clusterSync = filterClusterSync;
+		rebuildInterval = filterRebuildInterval;
+	}
+
+	/**
+	 * Indicates whether the token filter is enabled.
+	 *
+	 * @return {@code true} if enabled.
+	 */
+	public static
+	boolean isEnabled( ) {
+
+		return enabled;
+	}
+
+	/**
+	 * Checks whether a token may belong to a user of the realm.
+	 *
+	 * @param session
+	 * 		the Keycloak session.
+	 * @param realm
+	 * 		the realm.
+	 * @param token
+	 * 		the hashed token presented by the client.
+	 *
+	 * @return {@code false} only if the token is definitely unknown.
+	 */
+	public static
+	boolean mightExist( KeycloakSession session, RealmModel realm, String token ) {
+
+		if ( !enabled ) {
+			return true;
+		}
+		var state  = FILTERS.get( realm.getId( ) );
+		var filter = state != null ? state.current : null;
+		if ( filter == null || filter.mightContain( token ) ) {
+			return true;
+		}
+		return clusterSync && session.singleUseObjects( )
+		                             .contains( key( realm.getId( ), token ) );
+	}
+
+	/**
+	 * Records a newly generated token.
+	 *
+	 * @param session
+	 * 		the Keycloak session.
+	 * @param realm
+	 * 		the realm of the token's user.
+	 * @param token
+	 * 		the hashed token.
+	 */
+	public static
+	void add( KeycloakSession session, RealmModel realm, String token ) {
+
+		if ( !enabled ) {
+			return;
+		}
+		addLocal( realm.getId( ), token );
+		if ( clusterSync ) {
+			session.singleUseObjects( )
+			       .put( key( realm.getId( ), token ), rebuildInterval * 2, Map.of( ) );
+		}
+	}
+
+	/**
+	 * Forgets the filter of a removed realm.
+	 *
+	 * @param realmId
+	 * 		the realm ID.
+	 */
+	public static
+	void remove( String realmId ) {
+
+		FILTERS.remove( realmId );
+	}
+
+	/**
+	 * Rebuilds the filters of all realms from the user store.
+	 *
+	 * @param sessionFactory
+	 * 		the Keycloak session factory.
+	 */
+	public static
+	void rebuildAll( KeycloakSessionFactory sessionFactory ) {
+
+		if ( !enabled ) {
+			return;
+		}
+		try {
+			var realmIds = KeycloakModelUtils.runJobInTransactionWithResult( sessionFactory, session -> session.realms( )
+			                                                                                                   .getRealmsStream( )
+			                                                                                                   .map( RealmModel::getId )
+			                                                                                                   .toList( ) );
+			realmIds.forEach( realmId -> rebuild( sessionFactory, realmId ) );
+		} catch ( RuntimeException e ) {
+			log.error( "Failed to rebuild user token filters", e );
+		}
+	}
+
+	/**
+	 * Rebuilds the filter of one realm, paging through its token holders in separate transactions.
+	 * <p>
+	 * Tokens added while the rebuild is running are written to both the current and the new filter, and tokens added
+	 * shortly before it started are replayed into the new filter before it is published.
+	 * </p>
+	 *
+	 * @param sessionFactory
+	 * 		the Keycloak session factory.
+	 * @param realmId
+	 * 		the realm ID.
+	 */
+	private static
+	void rebuild( KeycloakSessionFactory sessionFactory, String realmId ) {
+
+		var capacity = KeycloakModelUtils.runJobInTransactionWithResult( sessionFactory, session -> session.users( )
+		                                                                                                   .getUsersCount( session.realms( )
+		                                                                                                                          .getRealm( realmId ) ) );
+		var filter  = TokenBloomFilter.create( Math.max( capacity + capacity / 2, MIN_CAPACITY ), FALSE_POSITIVE_RATE );
+		var state   = FILTERS.computeIfAbsent( realmId, id -> new RealmFilter( ) );
+		var carried = state.startBuilding( filter );
+
+		try {
+			var afterId = "";
+			while ( afterId != null ) {
+				var pageAfter = afterId;
+				afterId = KeycloakModelUtils.runJobInTransactionWithResult( sessionFactory, session -> loadPage( session, realmId, pageAfter, filter ) );
+			}
+			if ( state.publish( filter, carried ) ) {
+				log.debugf( "Rebuilt user token filter for realm %s", realmId );
+			}
+		} finally {
+			state.abandon( filter );
+		}
+	}
+
+	/**
+	 * Adds the tokens of one page of token holders to a filter.
+	 *
+	 * @param session
+	 * 		the Keycloak session.
+	 * @param realmId
+	 * 		the realm ID.
+	 * @param afterId
+	 * 		the last user ID of the previous page.
+	 * @param filter
+	 * 		the filter being built.
+	 *
+	 * @return the last user ID of the page, or {@code null} if it was the last page.
+	 */
+	private static
+	String loadPage( KeycloakSession session, String realmId, String afterId, TokenBloomFilter filter ) {
+
+		var holders = TokenUserQueries.findTokenHolders( session, realmId, afterId, PAGE_SIZE );
+		holders.forEach( holder -> filter.put( holder.token( ) ) );
+		return holders.size( ) < PAGE_SIZE ? null : holders.get( holders.size( ) - 1 )
+		                                                   .userId( );
+	}
+
+	private static
+	void addLocal( String realmId, String token ) {
+
+		FILTERS.computeIfAbsent( realmId, id -> new RealmFilter( ) )
+		       .add( token );
+	}
+
+	private static
+	String key( String realmId, String token ) {
+
+		return KEY_PREFIX + realmId + ":" + token;
+	}
+
+	/**
+	 * The filters of one realm.
+	 * <p>
+	 * Lookups read {@link #current} without locking. Adds, the start of a rebuild and the swap are serialized on the
+	 * instance, so a token is either in the new filter when it is published or is added after it is.
+	 * </p>
+	 */
+	private static
+	class RealmFilter {
+
+		private final    LinkedHashMap< String, Long > recent = new LinkedHashMap<>( );
+		private volatile TokenBloomFilter              current;
+		private          TokenBloomFilter              building;
+
+		/**
+		 * Adds a token to the current filter and to the one being built, and remembers it for the next rebuild.
+		 *
+		 * @param token
+		 * 		the hashed token.
+		 */
+		synchronized
+		void add( String token ) {
+
+			if ( current != null ) {
+				current.put( token );
+			}
+			if ( building != null ) {
+				building.put( token );
+			}
+			var now = System.nanoTime( );
+			recent.put( token, now );
+			trim( now );
+		}
+
+		/**
+		 * Starts capturing adds into a new filter.
+		 *
+		 * @param filter
+		 * 		the filter being built.
+		 *
+		 * @return the recently added tokens, to replay at the swap.
+		 */
+		synchronized
+		Set< String > startBuilding( TokenBloomFilter filter ) {
+
+			building = filter;
+			trim( System.nanoTime( ) );
+			return new HashSet<>( recent.keySet( ) );
+		}
+
+		/**
+		 * Replaces the current filter with a finished one, unless a later rebuild has started meanwhile.
+		 *
+		 * @param filter
+		 * 		the finished filter.
+		 * @param carried
+		 * 		the tokens returned by {@link #startBuilding}.
+		 *
+		 * @return {@code true} if the filter was published.
+		 */
+		synchronized
+		boolean publish( TokenBloomFilter filter, Set< String > carried ) {
+
+			if ( building != filter ) {
+				return false;
+			}
+			carried.forEach( filter::put );
+			current = filter;
+			building = null;
+			return true;
+		}
+
+		/**
+		 * Stops capturing adds into a filter that was not published.
+		 *
+		 * @param filter
+		 * 		the filter being built.
+		 */
+		synchronized
+		void abandon( TokenBloomFilter filter ) {
+
+			if ( building == filter ) {
+				building = null;
+			}
+		}
+
+		private
+		void trim( long now ) {
+
+			var entries = recent.values( )
+			                    .iterator( );
+			while ( entries.hasNext( ) && now - entries.next( ) > CARRY_WINDOW_NANOS ) {
+				entries.remove( );
+			}
+		}
+
+	}
+
+}
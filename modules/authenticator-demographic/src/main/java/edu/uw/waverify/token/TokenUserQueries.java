@@ -0,0 +1,118 @@
+package edu.uw.waverify.token;
+
+import java.util.List;
+
+import org.keycloak.connections.jpa.JpaConnectionProvider;
+import org.keycloak.models.KeycloakSession;
+
+import jakarta.persistence.EntityManager;
+
+import static edu.uw.waverify.token.UserTokenGenerator.ISSUED_AT_ATTRIBUTE;
+import static edu.uw.waverify.token.UserTokenGenerator.TOKEN_ATTRIBUTE;
+
+/**
+ * Keyset-paged queries over the token attributes of local users.
+ * <p>
+ * {@code UserProvider.searchForUserStream} can only match attributes by value and pages by offset, so scanning a realm
+ * for users with or without a token would read every user, load each user's attributes separately and re-read all
+ * skipped rows for every page. These queries go to the JPA user store directly instead: they select only the users that
+ * matter, read the attribute values in the same statement, and page by user ID, which stays stable while users are
+ * updated. Users of federated storage that are not imported into the local database are not covered.
+ * </p>
+ */
+public
+class TokenUserQueries {
+
+	private static final String WITHOUT_TOKEN = """
+	                                            select u.id from UserEntity u
+	                                            where u.realmId = :realmId and u.serviceAccountClientLink is null and u.id > :afterId
+	                                              and not exists ( select a.id from UserAttributeEntity a where a.user = u and a.name = :token )
+	                                            order by u.id""";
+
+	private static final String TOKEN_HOLDERS = """
+	                                            select t.user.id, t.value, i.value from UserAttributeEntity t
+	                                              left join UserAttributeEntity i on i.user = t.user and i.name = :issuedAt
+	                                            where t.name = :token and t.user.realmId = :realmId and t.user.id > :afterId
+	                                            order by t.user.id""";
+
+	private
+	TokenUserQueries( ) {
+
+	}
+
+	/**
+	 * Returns the next users of a realm that have no token.
+	 *
+	 * @param session
+	 * 		the Keycloak session.
+	 * @param realmId
+	 * 		the realm ID.
+	 * @param afterId
+	 * 		the last user ID of the previous page, or {@code ""} for the first page.
+	 * @param max
+	 * 		the page size.
+	 *
+	 * @return up to {@code max} user IDs in ascending order.
+	 */
+	public static
+	List< String > findUserIdsWithoutToken( KeycloakSession session, String realmId, String afterId, int max ) {
+
+		return entityManager( session ).createQuery( WITHOUT_TOKEN, String.class )
+		                               .setParameter( "realmId", realmId )
+		                               .setParameter( "afterId", afterId )
+		                               .setParameter( "token", TOKEN_ATTRIBUTE )
+		                               .setMaxResults( max )
+		                               .getResultList( );
+	}
+
+	/**
+	 * Returns the next users of a realm that have a token, together with the token and its issue time.
+	 *
+	 * @param session
+	 * 		the Keycloak session.
+	 * @param realmId
+	 * 		the realm ID.
+	 * @param afterId
+	 * 		the last user ID of the previous page, or {@code ""} for the first page.
+	 * @param max
+	 * 		the page size.
+	 *
+	 * @return up to {@code max} token holders in ascending user ID order.
+	 */
+	public static
+	List< TokenHolder > findTokenHolders( KeycloakSession session, String realmId, String afterId, int max ) {
+
+		return entityManager( session ).createQuery( TOKEN_HOLDERS, Object[].class )
+		                               .setParameter( "realmId", realmId )
+		                               .setParameter( "afterId", afterId )
+		                               .setParameter( "token", TOKEN_ATTRIBUTE )
+		                               .setParameter( "issuedAt", ISSUED_AT_ATTRIBUTE )
+		                               .setMaxResults( max )
+		                               .getResultStream( )
+		                               .map( row -> new TokenHolder( ( String ) row[ 0 ], ( String ) row[ 1 ], ( String ) row[ 2 ] ) )
+		                               .toList( );
+	}
+
+	private static
+	EntityManager entityManager( KeycloakSession session ) {
+
+		return session.getProvider( JpaConnectionProvider.class )
+		              .getEntityManager( );
+	}
+
+	/**
+	 * A user that has a token.
+	 *
+	 * @param userId
+	 * 		the user ID.
+	 * @param token
+	 * 		the hashed token.
+	 * @param issuedAt
+	 * 		the stored issue time, or {@code null} if the token predates issue times.
+	 */
+	public
+	record TokenHolder( String userId, String token, String issuedAt ) {
+
+	}
+
+}
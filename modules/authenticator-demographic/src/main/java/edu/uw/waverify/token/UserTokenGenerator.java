@@ -2,91 +2,219 @@ package edu.uw.waverify.token;
 
 import java.nio.charset.StandardCharsets;
 import java.security.*;
+import java.time.Duration;
 import java.util.Base64;
 
-import org.keycloak.models.UserModel;
+import org.keycloak.common.util.Time;
+import org.keycloak.models.*;
+
+import lombok.extern.jbosslog.JBossLog;
 
 /**
  * Utility for generating and storing unique user tokens for authentication.
+ * <p>
+ * Nonces are drawn from a single shared, non-blocking DRBG instance and hashes are computed with a per-thread
+ * {@link MessageDigest}, so bulk generation does not pay for entropy-source or provider lookups on every call.
+ * </p>
+ * <p>
+ * Each token records the time it was issued and expires after the configured time-to-live. Tokens stored before
+ * issue times were recorded have no issue time and are treated as live until {@link ExpiredTokenSweeper} stamps them.
+ * </p>
  */
+@JBossLog
 public
 class UserTokenGenerator {
 
-	public static final String NONCE_ATTRIBUTE = "user_nonce";
-	public static final String TOKEN_ATTRIBUTE = "user_token";
+	public static final String   NONCE_ATTRIBUTE     = "user_nonce";
+	public static final String   TOKEN_ATTRIBUTE     = "user_token";
+	public static final String   ISSUED_AT_ATTRIBUTE = "user_token_issued_at";
+	public static final Duration DEFAULT_TOKEN_TTL   = Duration.ofDays( 30 );
+
+	private static final int                          NONCE_LENGTH = 16; // 128-bit nonce
+	private static final byte                         SEPARATOR    = ':';
+	private static final Base64.Encoder               ENCODER      = Base64.getUrlEncoder( )
+	                                                                       .withoutPadding( );
+	private static final SecureRandom                 RANDOM       = createSecureRandom( );
+	private static final ThreadLocal< MessageDigest > DIGEST       = ThreadLocal.withInitial( UserTokenGenerator::createDigest );
+
+	private static volatile Duration tokenTtl = DEFAULT_TOKEN_TTL;
+
+	/**
+	 * Returns the time-to-live applied to issued tokens.
+	 *
+	 * @return the token TTL; zero means tokens never expire.
+	 */
+	public static
+	Duration getTokenTtl( ) {
+
+		return tokenTtl;
+	}
+
+	/**
+	 * Sets the time-to-live applied to issued tokens.
+	 *
+	 * @param ttl
+	 * 		the token TTL; zero or negative disables expiry.
+	 */
+	public static
+	void setTokenTtl( Duration ttl ) {
+
+		tokenTtl = ttl.isNegative( ) ? Duration.ZERO : ttl;
+	}
 
 	/**
-	 * Generates and stores a persistent unique token for the user.
+	 * Generates and stores a persistent unique token for the user and records it in the realm's token filter.
 	 *
+	 * @param session
+	 * 		The Keycloak session.
+	 * @param realm
+	 * 		The realm of the user.
 	 * @param user
 	 * 		The user for whom the token is generated.
 	 *
 	 * @return The generated token data.
 	 */
 	public static
-	TokenData generateAndStoreToken( UserModel user ) {
+	TokenData generateAndStoreToken( KeycloakSession session, RealmModel realm, UserModel user ) {
+
+		var tokenData = generateToken( user.getId( ) );
+
+		storeTokenInUser( user, tokenData.getNonce( ), tokenData.getHashedToken( ) );
+		TokenFilterRegistry.add( session, realm, tokenData.getHashedToken( ) );
+		return tokenData;
+	}
+
+	/**
+	 * Generates a new nonce and the matching hashed token for a user ID without touching the user model.
+	 *
+	 * @param userId
+	 * 		The user's unique ID.
+	 *
+	 * @return The generated token data.
+	 */
+	public static
+	TokenData generateToken( String userId ) {
 
 		var nonce       = generateSecureNonce( );
-		var hashedToken = hashUserToken( user.getId( ), nonce );
+		var hashedToken = hashUserToken( userId, nonce );
 
-		storeTokenInUser( user, nonce, hashedToken );
-		return new TokenData( nonce, hashedToken );
+		return new TokenData( new String( nonce, StandardCharsets.US_ASCII ), hashedToken );
 	}
 
 	/**
 	 * Generates a cryptographically secure random nonce.
 	 *
-	 * @return A base64-encoded random string.
+	 * @return The base64url-encoded random bytes, as ASCII.
 	 */
 	private static
-	String generateSecureNonce( ) {
+	byte[] generateSecureNonce( ) {
 
-		byte[] randomBytes = new byte[ 16 ]; // 128-bit nonce
-		new SecureRandom( ).nextBytes( randomBytes );
-		return Base64.getUrlEncoder( )
-		             .withoutPadding( )
-		             .encodeToString( randomBytes );
+		byte[] randomBytes = new byte[ NONCE_LENGTH ];
+		RANDOM.nextBytes( randomBytes );
+		return ENCODER.encode( randomBytes );
 	}
 
 	/**
 	 * Hashes the user ID and nonce using SHA-256.
+	 * <p>
+	 * The digest is fed the UTF-8 bytes of {@code userId}, a {@code ':'} separator and the encoded nonce directly, which
+	 * yields the same hash as digesting {@code userId + ":" + nonce}.
+	 * </p>
 	 *
 	 * @param userId
 	 * 		The user's unique ID.
 	 * @param nonce
-	 * 		The secure random nonce.
+	 * 		The base64url-encoded secure random nonce.
 	 *
 	 * @return The base64-encoded SHA-256 hash.
 	 */
 	private static
-	String hashUserToken( String userId, String nonce ) {
+	String hashUserToken( String userId, byte[] nonce ) {
 
-		try {
-			var digest   = MessageDigest.getInstance( "SHA-256" );
-			var combined = userId + ":" + nonce;
-			var hash     = digest.digest( combined.getBytes( StandardCharsets.UTF_8 ) );
-			return Base64.getUrlEncoder( )
-			             .withoutPadding( )
-			             .encodeToString( hash );
-		} catch ( NoSuchAlgorithmException e ) {
-			throw new RuntimeException( "Error generating token hash", e );
-		}
+		var digest = DIGEST.get( );
+		digest.reset( );
+		digest.update( userId.getBytes( StandardCharsets.UTF_8 ) );
+		digest.update( SEPARATOR );
+		digest.update( nonce );
+		return ENCODER.encodeToString( digest.digest( ) );
 	}
 
 	/**
 	 * Retrieves the stored token data from the user attributes.
+	 * <p>
+	 * An expired token is not returned, so callers rotate it by generating a new one.
+	 * </p>
 	 *
 	 * @param user
 	 * 		The user whose token is retrieved.
 	 *
-	 * @return The stored TokenData, or null if not found.
+	 * @return The stored TokenData, or null if not found or expired.
 	 */
 	public static
 	TokenData retrieveStoredToken( UserModel user ) {
 
 		var nonce       = user.getFirstAttribute( NONCE_ATTRIBUTE );
 		var hashedToken = user.getFirstAttribute( TOKEN_ATTRIBUTE );
-		return ( nonce != null && hashedToken != null ) ? new TokenData( nonce, hashedToken ) : null;
+		if ( nonce == null || hashedToken == null || isExpired( user ) ) {
+			return null;
+		}
+		return new TokenData( nonce, hashedToken );
+	}
+
+	/**
+	 * Checks whether the user's token has outlived the configured TTL.
+	 * <p>
+	 * Only the already loaded user attributes are read.
+	 * </p>
+	 *
+	 * @param user
+	 * 		The user whose token is checked.
+	 *
+	 * @return {@code true} if the token has an issue time older than the TTL.
+	 */
+	public static
+	boolean isExpired( UserModel user ) {
+
+		return isExpired( user.getFirstAttribute( ISSUED_AT_ATTRIBUTE ), Time.currentTimeMillis( ) );
+	}
+
+	/**
+	 * Checks whether a token issued at the given time has expired.
+	 *
+	 * @param issuedAt
+	 * 		The issue time in epoch milliseconds, as stored in {@link #ISSUED_AT_ATTRIBUTE}, or {@code null}.
+	 * @param now
+	 * 		The current time in epoch milliseconds.
+	 *
+	 * @return {@code true} if the token has expired; tokens without a readable issue time never expire here.
+	 */
+	public static
+	boolean isExpired( String issuedAt, long now ) {
+
+		var ttl = tokenTtl;
+		if ( issuedAt == null || ttl.isZero( ) ) {
+			return false;
+		}
+		try {
+			return now - Long.parseLong( issuedAt ) > ttl.toMillis( );
+		} catch ( NumberFormatException e ) {
+			log.warnf( "Ignoring unreadable token issue time: %s", issuedAt );
+			return false;
+		}
+	}
+
+	/**
+	 * Removes the token, nonce and issue time from the user's attributes.
+	 *
+	 * @param user
+	 * 		The user model.
+	 */
+	public static
+	void removeToken( UserModel user ) {
+
+		user.removeAttribute( NONCE_ATTRIBUTE );
+		user.removeAttribute( TOKEN_ATTRIBUTE );
+		user.removeAttribute( ISSUED_AT_ATTRIBUTE );
 	}
 
 	/**
@@ -104,6 +232,38 @@ class UserTokenGenerator {
 
 		user.setSingleAttribute( NONCE_ATTRIBUTE, nonce );
 		user.setSingleAttribute( TOKEN_ATTRIBUTE, hashedToken );
+		user.setSingleAttribute( ISSUED_AT_ATTRIBUTE, Long.toString( Time.currentTimeMillis( ) ) );
+	}
+
+	/**
+	 * Creates the shared random source, preferring a reseeding DRBG so that no call blocks on the system entropy pool
+	 * after instantiation.
+	 *
+	 * @return the shared {@link SecureRandom}.
+	 */
+	private static
+	SecureRandom createSecureRandom( ) {
+
+		try {
+			return SecureRandom.getInstance( "DRBG", DrbgParameters.instantiation( 256, DrbgParameters.Capability.RESEED_ONLY, null ) );
+		} catch ( NoSuchAlgorithmException e ) {
+			return new SecureRandom( );
+		}
+	}
+
+	/**
+	 * Creates a SHA-256 digest for the calling thread.
+	 *
+	 * @return a new {@link MessageDigest}.
+	 */
+	private static
+	MessageDigest createDigest( ) {
+
+		try {
+			return MessageDigest.getInstance( "SHA-256" );
+		} catch ( NoSuchAlgorithmException e ) {
+			throw new RuntimeException( "Error generating token hash", e );
+		}
 	}
 
 }
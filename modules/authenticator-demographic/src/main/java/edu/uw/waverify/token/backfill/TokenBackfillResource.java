@@ -0,0 +1,46 @@
+package edu.uw.waverify.token.backfill;
+
+import org.keycloak.models.RealmModel;
+import org.keycloak.services.resources.admin.permissions.AdminPermissionEvaluator;
+
+import jakarta.ws.rs.*;
+import jakarta.ws.rs.core.MediaType;
+import lombok.RequiredArgsConstructor;
+
+/**
+ * JAX-RS resource that generates login tokens for every user of a realm that does not have one yet.
+ * <p>
+ * Example: {@code POST /admin/realms/{realm}/token-backfill?batchSize=1000}
+ * </p>
+ */
+@RequiredArgsConstructor
+public
+class TokenBackfillResource {
+
+	private final RealmModel               realm;
+	private final AdminPermissionEvaluator auth;
+	private final TokenBackfillService     service;
+
+	/**
+	 * Runs the backfill for the realm and returns once every batch has been committed.
+	 *
+	 * @param batchSize
+	 * 		optional number of users per transaction, overriding the configured default.
+	 *
+	 * @return a summary of the backfill.
+	 */
+	@POST
+	@Produces(MediaType.APPLICATION_JSON)
+	public
+	TokenBackfillResult backfill( @QueryParam("batchSize") Integer batchSize ) {
+
+		auth.users( )
+		    .requireManage( );
+
+		if ( batchSize != null && batchSize <= 0 ) {
+			throw new BadRequestException( "batchSize must be positive" );
+		}
+		return service.backfill( realm.getId( ), batchSize );
+	}
+
+}
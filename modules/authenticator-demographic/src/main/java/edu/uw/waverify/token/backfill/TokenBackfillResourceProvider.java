@@ -0,0 +1,53 @@
+package edu.uw.waverify.token.backfill;
+
+import org.keycloak.models.KeycloakSession;
+import org.keycloak.models.KeycloakSessionFactory;
+import org.keycloak.models.RealmModel;
+import org.keycloak.services.resources.admin.AdminEventBuilder;
+import org.keycloak.services.resources.admin.ext.AdminRealmResourceProvider;
+import org.keycloak.services.resources.admin.permissions.AdminPermissionEvaluator;
+
+import lombok.RequiredArgsConstructor;
+
+/**
+ * Admin realm resource provider exposing the token backfill endpoint.
+ */
+@RequiredArgsConstructor
+public
+class TokenBackfillResourceProvider implements AdminRealmResourceProvider {
+
+	private final KeycloakSessionFactory sessionFactory;
+	private final int                    batchSize;
+	private final int                    parallelism;
+
+	/**
+	 * Returns the JAX-RS resource handling backfill requests for the given realm.
+	 *
+	 * @param session
+	 * 		the Keycloak session.
+	 * @param realm
+	 * 		the realm addressed by the request.
+	 * @param auth
+	 * 		the admin permission evaluator.
+	 * @param adminEvent
+	 * 		the admin event builder.
+	 *
+	 * @return the {@link TokenBackfillResource}.
+	 */
+	@Override
+	public
+	Object getResource( KeycloakSession session, RealmModel realm, AdminPermissionEvaluator auth, AdminEventBuilder adminEvent ) {
+
+		return new TokenBackfillResource( realm, auth, new TokenBackfillService( sessionFactory, batchSize, parallelism ) );
+	}
+
+	/**
+	 * Closes any resources used by this provider.
+	 */
+	@Override
+	public
+	void close( ) {
+
+	}
+
+}
@@ -0,0 +1,106 @@
+package edu.uw.waverify.token.backfill;
+
+import org.keycloak.Config;
+import org.keycloak.models.KeycloakSession;
+import org.keycloak.models.KeycloakSessionFactory;
+import org.keycloak.services.resources.admin.ext.AdminRealmResourceProvider;
+import org.keycloak.services.resources.admin.ext.AdminRealmResourceProviderFactory;
+
+import lombok.extern.jbosslog.JBossLog;
+
+/**
+ * Factory for the token backfill admin endpoint.
+ * <p>
+ * Registers {@code /admin/realms/{realm}/token-backfill}. The default batch size and worker count can be set through
+ * the SPI configuration ({@code batchSize}, {@code parallelism}).
+ * </p>
+ */
+@JBossLog
+public
+class TokenBackfillResourceProviderFactory implements AdminRealmResourceProviderFactory {
+
+	/**
+	 * The provider ID, which is also the path segment of the endpoint under the admin realm resource.
+	 */
+	public static final String PROVIDER_ID = "token-backfill";
+
+	private static final int DEFAULT_BATCH_SIZE = 500;
+
+	private int                    batchSize   = DEFAULT_BATCH_SIZE;
+	private int                    parallelism = Runtime.getRuntime( )
+	                                                    .availableProcessors( );
+	private KeycloakSessionFactory sessionFactory;
+
+	/**
+	 * Creates a new {@link TokenBackfillResourceProvider}.
+	 *
+	 * @param session
+	 * 		the Keycloak session.
+	 *
+	 * @return a provider bound to the configured defaults.
+	 */
+	@Override
+	public
+	AdminRealmResourceProvider create( KeycloakSession session ) {
+
+		return new TokenBackfillResourceProvider( sessionFactory, batchSize, parallelism );
+	}
+
+	/**
+	 * Initializes the factory with configuration values.
+	 *
+	 * @param config
+	 * 		the configuration scope.
+	 *
+	 * @throws IllegalArgumentException
+	 * 		if the batch size or parallelism is not positive.
+	 */
+	@Override
+	public
+	void init( Config.Scope config ) {
+
+		if ( config != null ) {
+			batchSize = config.getInt( "batchSize", DEFAULT_BATCH_SIZE );
+			parallelism = config.getInt( "parallelism", parallelism );
+		}
+		if ( batchSize <= 0 || parallelism <= 0 ) {
+			throw new IllegalArgumentException( "Token backfill batchSize and parallelism must be positive" );
+		}
+	}
+
+	/**
+	 * Keeps a reference to the session factory so that batches can run in their own transactions.
+	 *
+	 * @param factory
+	 * 		the Keycloak session factory.
+	 */
+	@Override
+	public
+	void postInit( KeycloakSessionFactory factory ) {
+
+		this.sessionFactory = factory;
+		log.info( "Initialized: " + getClass( ).getName( ) );
+	}
+
+	/**
+	 * Closes any resources used by this factory.
+	 */
+	@Override
+	public
+	void close( ) {
+
+	}
+
+	/**
+	 * Returns the unique provider ID.
+	 *
+	 * @return the provider ID.
+	 */
+	@Override
+	public
+	String getId( ) {
+
+		return PROVIDER_ID;
+	}
+
+}
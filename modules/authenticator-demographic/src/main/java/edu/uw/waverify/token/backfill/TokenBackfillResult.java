@@ -0,0 +1,27 @@
+package edu.uw.waverify.token.backfill;
+
+import lombok.Data;
+
+/**
+ * Summary of a token backfill run.
+ */
+@Data
+public
+class TokenBackfillResult {
+
+	/**
+	 * The number of users found without a token.
+	 */
+	private final long scanned;
+
+	/**
+	 * The number of users that received a new token.
+	 */
+	private final long generated;
+
+	/**
+	 * The number of batches whose transaction failed and were rolled back.
+	 */
+	private final long failedBatches;
+
+}
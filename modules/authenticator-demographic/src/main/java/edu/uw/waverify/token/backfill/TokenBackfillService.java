@@ -0,0 +1,230 @@
+package edu.uw.waverify.token.backfill;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.keycloak.models.KeycloakSessionFactory;
+import org.keycloak.models.utils.KeycloakModelUtils;
+
+import edu.uw.waverify.token.TokenUserQueries;
+import edu.uw.waverify.token.UserTokenGenerator;
+
+import lombok.extern.jbosslog.JBossLog;
+
+import static edu.uw.waverify.token.UserTokenGenerator.TOKEN_ATTRIBUTE;
+
+/**
+ * Generates login tokens for users that were created outside the demographic flow.
+ * <p>
+ * The IDs of users without a token are read page by page in short read-only transactions, ordered and paged by user ID
+ * (see {@link TokenUserQueries}), and each page is handed to a worker pool that generates and stores the tokens in one
+ * transaction per batch. Paging by ID rather than by offset keeps each page query cheap and unaffected by the tokens
+ * being written meanwhile. At most {@code 2 * parallelism} batches are queued at any time, so memory stays bounded
+ * regardless of realm size.
+ * </p>
+ */
+@JBossLog
+public
+class TokenBackfillService {
+
+	private final PageReader  reader;
+	private final BatchWriter writer;
+	private final int         defaultBatchSize;
+	private final int         parallelism;
+
+	/**
+	 * Creates a service that reads and writes users through the given session factory.
+	 *
+	 * @param sessionFactory
+	 * 		the Keycloak session factory.
+	 * @param defaultBatchSize
+	 * 		the number of users per transaction when a run does not specify one; must be positive.
+	 * @param parallelism
+	 * 		the number of batches written concurrently; must be positive.
+	 *
+	 * @throws IllegalArgumentException
+	 * 		if the batch size or parallelism is not positive.
+	 */
+	public
+	TokenBackfillService( KeycloakSessionFactory sessionFactory, int defaultBatchSize, int parallelism ) {
+
+		this( ( realmId, afterId, max ) -> readPage( sessionFactory, realmId, afterId, max ), ( realmId, userIds ) -> generateBatch( sessionFactory, realmId, userIds ), defaultBatchSize, parallelism );
+	}
+
+	/**
+	 * Creates a service with the given page reader and batch writer.
+	 *
+	 * @param reader
+	 * 		reads the IDs of users without a token.
+	 * @param writer
+	 * 		generates the tokens of a batch.
+	 * @param defaultBatchSize
+	 * 		the default number of users per transaction.
+	 * @param parallelism
+	 * 		the number of batches written concurrently.
+	 */
+	TokenBackfillService( PageReader reader, BatchWriter writer, int defaultBatchSize, int parallelism ) {
+
+		if ( defaultBatchSize <= 0 ) {
+			throw new IllegalArgumentException( "batchSize must be positive" );
+		}
+		if ( parallelism <= 0 ) {
+			throw new IllegalArgumentException( "parallelism must be positive" );
+		}
+		this.reader = reader;
+		this.writer = writer;
+		this.defaultBatchSize = defaultBatchSize;
+		this.parallelism = parallelism;
+	}
+
+	/**
+	 * Backfills tokens for every user of a realm that does not have one.
+	 *
+	 * @param realmId
+	 * 		the ID of the realm to backfill.
+	 * @param batchSize
+	 * 		the number of users per transaction, or {@code null} to use the configured default.
+	 *
+	 * @return a summary of the run.
+	 *
+	 * @throws IllegalArgumentException
+	 * 		if {@code batchSize} is not positive.
+	 */
+	public
+	TokenBackfillResult backfill( String realmId, Integer batchSize ) {
+
+		if ( batchSize != null && batchSize <= 0 ) {
+			throw new IllegalArgumentException( "batchSize must be positive" );
+		}
+		var pageSize      = batchSize != null ? batchSize : defaultBatchSize;
+		var scanned       = new AtomicLong( );
+		var generated     = new AtomicLong( );
+		var failedBatches = new AtomicLong( );
+		var permits       = new Semaphore( parallelism * 2 );
+		var executor      = Executors.newFixedThreadPool( parallelism );
+		var pending       = new ArrayList< Future< ? > >( );
+
+		try {
+			var afterId = "";
+			while ( true ) {
+				var userIds = reader.read( realmId, afterId, pageSize );
+				if ( userIds.isEmpty( ) ) {
+					break;
+				}
+				scanned.addAndGet( userIds.size( ) );
+				afterId = userIds.get( userIds.size( ) - 1 );
+
+				permits.acquire( );
+				pending.add( executor.submit( ( ) -> {
+					try {
+						generated.addAndGet( writer.write( realmId, userIds ) );
+					} catch ( RuntimeException e ) {
+						failedBatches.incrementAndGet( );
+						log.errorf( e, "Token backfill batch of %d users failed in realm %s", userIds.size( ), realmId );
+					} finally {
+						permits.release( );
+					}
+				} ) );
+				pending.removeIf( Future::isDone );
+
+				if ( userIds.size( ) < pageSize ) {
+					break;
+				}
+			}
+
+			for ( var future : pending ) {
+				future.get( );
+			}
+		} catch ( InterruptedException e ) {
+			Thread.currentThread( )
+			      .interrupt( );
+			throw new IllegalStateException( "Token backfill interrupted", e );
+		} catch ( ExecutionException e ) {
+			throw new IllegalStateException( "Token backfill failed", e.getCause( ) );
+		} finally {
+			executor.shutdownNow( );
+		}
+
+		log.infof( "Token backfill for realm %s: scanned %d users, generated %d tokens, %d failed batches", realmId, scanned.get( ), generated.get( ), failedBatches.get( ) );
+		return new TokenBackfillResult( scanned.get( ), generated.get( ), failedBatches.get( ) );
+	}
+
+	/**
+	 * Reads the next page of users without a token in a read-only transaction.
+	 *
+	 * @param sessionFactory
+	 * 		the Keycloak session factory.
+	 * @param realmId
+	 * 		the realm ID.
+	 * @param afterId
+	 * 		the last user ID of the previous page.
+	 * @param max
+	 * 		the page size.
+	 *
+	 * @return the user IDs, in ascending order.
+	 */
+	private static
+	List< String > readPage( KeycloakSessionFactory sessionFactory, String realmId, String afterId, int max ) {
+
+		var page = new ArrayList< String >( );
+		KeycloakModelUtils.runJobInTransaction( sessionFactory, session -> page.addAll( TokenUserQueries.findUserIdsWithoutToken( session, realmId, afterId, max ) ) );
+		return page;
+	}
+
+	/**
+	 * Generates and stores tokens for a batch of users in a single transaction.
+	 * <p>
+	 * Users that received a token since their page was read are skipped.
+	 * </p>
+	 *
+	 * @param sessionFactory
+	 * 		the Keycloak session factory.
+	 * @param realmId
+	 * 		the realm ID.
+	 * @param userIds
+	 * 		the IDs of the users to update.
+	 *
+	 * @return the number of tokens generated.
+	 */
+	private static
+	long generateBatch( KeycloakSessionFactory sessionFactory, String realmId, List< String > userIds ) {
+
+		var count = new AtomicLong( );
+		KeycloakModelUtils.runJobInTransaction( sessionFactory, session -> {
+			var realm = session.realms( )
+			                   .getRealm( realmId );
+			var users = session.users( );
+			for ( var userId : userIds ) {
+				var user = users.getUserById( realm, userId );
+				if ( user != null && user.getFirstAttribute( TOKEN_ATTRIBUTE ) == null ) {
+					UserTokenGenerator.generateAndStoreToken( session, realm, user );
+					count.incrementAndGet( );
+				}
+			}
+		} );
+		return count.get( );
+	}
+
+	/**
+	 * Reads the IDs of users without a token, in ascending order.
+	 */
+	@FunctionalInterface
+	interface PageReader {
+
+		List< String > read( String realmId, String afterId, int max );
+
+	}
+
+	/**
+	 * Generates and stores the tokens of a batch of users, returning how many were generated.
+	 */
+	@FunctionalInterface
+	interface BatchWriter {
+
+		long write( String realmId, List< String > userIds );
+
+	}
+
+}
@@ -88,9 +88,9 @@ class DemographicVerificationServiceIntegrationTest {
 
 		Map< String, String > demographics = Map.of( "firstName", "", "lastName", "Doe", "dateOfBirth", "1990-01-01" );
 
-		boolean result = service.verify( demographics );
+		var result = service.verify( demographics );
 
-		assertFalse( result, "Expected invalid demographics to return false due to blank first name" );
+		assertFalse( result.isVerified( ), "Expected invalid demographics to return false due to blank first name" );
 	}
 
 	@Test
@@ -98,9 +98,9 @@ class DemographicVerificationServiceIntegrationTest {
 
 		Map< String, String > demographics = Map.of( "firstName", "John", "lastName", "Doe", "dateOfBirth", "2100-01-01" );
 
-		boolean result = service.verify( demographics );
+		var result = service.verify( demographics );
 
-		assertFalse( result, "Expected invalid demographics to return false due to future DateOfBirth" );
+		assertFalse( result.isVerified( ), "Expected invalid demographics to return false due to future DateOfBirth" );
 	}
 
 	@Test
@@ -108,9 +108,10 @@ class DemographicVerificationServiceIntegrationTest {
 
 		Map< String, String > demographics = Map.of( "firstName", "John", "lastName", "Doe", "dateOfBirth", "1990-01-01" );
 
-		boolean result = service.verify( demographics );
+		var result = service.verify( demographics );
 
-		assertTrue( result, "Expected valid demographics to return true" );
+		assertTrue( result.isVerified( ), "Expected valid demographics to return true" );
+		assertEquals( VerificationResult.Source.SERVICE, result.getSource( ) );
 	}
 
 }
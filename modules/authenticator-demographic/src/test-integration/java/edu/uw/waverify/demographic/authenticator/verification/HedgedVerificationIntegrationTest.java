@@ -0,0 +1,132 @@
+package edu.uw.waverify.demographic.authenticator.verification;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.util.List;
+import java.util.concurrent.*;
+
+import org.keycloak.connections.httpclient.HttpClientProvider;
+import org.keycloak.models.KeycloakSession;
+
+import com.sun.net.httpserver.HttpServer;
+import edu.uw.waverify.mvp.MockVpApplication;
+
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.web.server.LocalServerPort;
+import org.springframework.test.context.ActiveProfiles;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Runs a hedged verification against a stalled replica and a live mock-vp instance.
+ */
+@SpringBootTest(
+		classes = MockVpApplication.class,
+		webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT
+)
+@ActiveProfiles("test")
+class HedgedVerificationIntegrationTest {
+
+	@LocalServerPort
+	private int port;
+
+	private HttpServer            stalled;
+	private CountDownLatch        release;
+	private VerificationEndpoint  liveEndpoint;
+	private VerificationEndpoints endpoints;
+	private KeycloakSession       session;
+
+	@BeforeEach
+	void setUp( ) throws IOException {
+
+		release = new CountDownLatch( 1 );
+		stalled = HttpServer.create( new InetSocketAddress( "localhost", 0 ), 0 );
+		stalled.setExecutor( Executors.newCachedThreadPool( ) );
+		stalled.createContext( "/api/validation", exchange -> {
+			try {
+				release.await( 10, TimeUnit.SECONDS );
+			} catch ( InterruptedException e ) {
+				Thread.currentThread( )
+				      .interrupt( );
+			}
+			exchange.sendResponseHeaders( 503, -1 );
+			exchange.close( );
+		} );
+		stalled.start( );
+
+		var stalledEndpoint = new VerificationEndpoint( "http://localhost:" + stalled.getAddress( )
+		                                                                        .getPort( ) + "/api/validation" );
+		liveEndpoint = new VerificationEndpoint( "http://localhost:" + port + "/api/validation" );
+		endpoints = new VerificationEndpoints( List.of( stalledEndpoint, liveEndpoint ), 100, 10, 5000, Executors.newCachedThreadPool( ) );
+
+		CloseableHttpClient httpClient = HttpClients.createDefault( );
+		session = Mockito.mock( KeycloakSession.class );
+		Mockito.when( session.getProvider( HttpClientProvider.class ) )
+		       .thenReturn( new HttpClientProvider( ) {
+			       @Override
+			       public
+			       void close( ) {
+
+			       }
+
+			       @Override
+			       public
+			       CloseableHttpClient getHttpClient( ) {
+
+				       return httpClient;
+			       }
+
+			       @Override
+			       public
+			       int postText( String s, String s1 ) {
+
+				       return 0;
+			       }
+
+			       @Override
+			       public
+			       String getString( String s ) {
+
+				       return "";
+			       }
+
+			       @Override
+			       public
+			       InputStream getInputStream( String url ) {
+
+				       throw new UnsupportedOperationException( "getInputStream is not implemented for testing" );
+			       }
+		       } );
+	}
+
+	@AfterEach
+	void tearDown( ) {
+
+		release.countDown( );
+		stalled.stop( 0 );
+		endpoints.close( );
+	}
+
+	@Test
+	void testStalledPrimary_AnsweredBySecondary( ) {
+
+		var service = new DemographicVerificationServiceImpl( session, endpoints, WireFormat.JSON );
+
+		var start  = System.nanoTime( );
+		// make the live replica look busy, so the stalled one is chosen first
+		liveEndpoint.acquire( );
+		var result = service.verify( new DemographicData( "john", "doe", "1990-01-01", "john@example.com", null ) );
+
+		liveEndpoint.release( );
+		assertTrue( result.isVerified( ), "Expected the live replica to answer" );
+		assertTrue( TimeUnit.NANOSECONDS.toMillis( System.nanoTime( ) - start ) < 5000, "Expected the hedge to beat the stalled replica" );
+	}
+
+}
@@ -2,16 +2,24 @@ package edu.uw.waverify.demographic.authenticator;
 
 import java.util.Map;
 
+import org.keycloak.authentication.AuthenticationFlowContext;
+import org.keycloak.forms.login.LoginFormsProvider;
 import org.keycloak.models.KeycloakSession;
 
+import edu.uw.waverify.demographic.authenticator.verification.DemographicData;
 import edu.uw.waverify.demographic.authenticator.verification.DemographicVerificationService;
+import edu.uw.waverify.demographic.authenticator.verification.VerificationResult;
 
+import jakarta.ws.rs.core.MultivaluedHashMap;
+import jakarta.ws.rs.core.Response;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
 
 import static org.junit.jupiter.api.Assertions.*;
+import static org.keycloak.authentication.AuthenticationFlowError.*;
+import static org.mockito.ArgumentMatchers.*;
 import static org.mockito.Mockito.*;
 
 class DemographicAuthenticatorImplTest {
@@ -33,6 +41,66 @@ class DemographicAuthenticatorImplTest {
 		provider.setVerificationService( mockVerificationService );
 	}
 
+	private
+	AuthenticationFlowContext submit( LoginFormsProvider form, VerificationResult result ) {
+
+		var formData = new MultivaluedHashMap< String, String >( );
+		formData.putSingle( "firstName", "John" );
+		formData.putSingle( "lastName", "Doe" );
+		formData.putSingle( "dateOfBirth", "1990-01-01" );
+		formData.putSingle( "email", "john@example.com" );
+		formData.putSingle( "pin", "1234" );
+		formData.putSingle( "authorization", "on" );
+
+		var context = mock( AuthenticationFlowContext.class, RETURNS_DEEP_STUBS );
+		when( context.getHttpRequest( )
+		             .getDecodedFormParameters( ) ).thenReturn( formData );
+		when( context.form( ) ).thenReturn( form );
+		when( mockVerificationService.isConfigured( ) ).thenReturn( true );
+		when( mockVerificationService.verify( any( DemographicData.class ) ) ).thenReturn( result );
+		return context;
+	}
+
+	@Test
+	void testAction_Rejected_AsksToCheckDetails( ) {
+
+		var form    = mock( LoginFormsProvider.class, RETURNS_SELF );
+		var context = submit( form, VerificationResult.service( VerificationResult.Status.REJECTED, "Rejected by the verification service", 0 ) );
+
+		provider.action( context );
+
+		verify( form ).setError( "verificationRejected" );
+		verify( context ).failureChallenge( eq( INVALID_CREDENTIALS ), any( ) );
+	}
+
+	@Test
+	void testAction_Overloaded_ShowsBusyForm( ) {
+
+		var form    = mock( LoginFormsProvider.class, RETURNS_SELF );
+		var context = submit( form, VerificationResult.local( VerificationResult.Status.OVERLOADED, "Demographic verification is at its concurrency limit" ) );
+
+		provider.action( context );
+
+		verify( form ).setError( "verificationBusy" );
+		verify( form ).setStatus( Response.Status.SERVICE_UNAVAILABLE );
+		verify( context ).challenge( any( ) );
+		verify( context, never( ) ).failure( any( ), any( ) );
+	}
+
+	@Test
+	void testAction_Error_FailsWithInternalError( ) {
+
+		var form    = mock( LoginFormsProvider.class, RETURNS_SELF );
+		var context = submit( form, VerificationResult.service( VerificationResult.Status.ERROR, "Response has no valid flag", 0 ) );
+
+		provider.action( context );
+
+		verify( form, never( ) ).setError( "verificationBusy" );
+		verify( form, never( ) ).setStatus( Response.Status.SERVICE_UNAVAILABLE );
+		verify( context ).failure( eq( INTERNAL_ERROR ), any( ) );
+		verify( context, never( ) ).challenge( any( ) );
+	}
+
 	@Test
 	void testClose_NoOp( ) {
 
@@ -42,42 +110,44 @@ class DemographicAuthenticatorImplTest {
 	@Test
 	void testValidateDemographics_EmptyDemographics_ReturnsFalse( ) {
 
-		boolean result = provider.validateDemographics( Map.of( ) );
-		assertFalse( result, "Validation should return false for empty demographics" );
+		var result = provider.validateDemographics( Map.of( ) );
+		assertFalse( result.isVerified( ), "Validation should return false for empty demographics" );
+		assertEquals( VerificationResult.Status.INVALID_INPUT, result.getStatus( ) );
+		verifyNoInteractions( mockVerificationService );
 	}
 
 	@Test
 	void testValidateDemographics_MissingFirstName_ReturnsFalse( ) {
 
 		Map< String, String > demographics = Map.of( "lastName", "Doe" );
-		boolean               result       = provider.validateDemographics( demographics );
-		assertFalse( result, "Validation should return false if firstName is missing" );
+		var                   result       = provider.validateDemographics( demographics );
+		assertFalse( result.isVerified( ), "Validation should return false if firstName is missing" );
 	}
 
 	@Test
 	void testValidateDemographics_MissingLastName_ReturnsFalse( ) {
 
 		Map< String, String > demographics = Map.of( "firstName", "John" );
-		boolean               result       = provider.validateDemographics( demographics );
-		assertFalse( result, "Validation should return false if lastName is missing" );
+		var                   result       = provider.validateDemographics( demographics );
+		assertFalse( result.isVerified( ), "Validation should return false if lastName is missing" );
 	}
 
 	@Test
 	void testValidateDemographics_NullDemographics_ReturnsFalse( ) {
 
-		boolean result = provider.validateDemographics( null );
-		assertFalse( result, "Validation should return false for null demographics" );
+		var result = provider.validateDemographics( null );
+		assertFalse( result.isVerified( ), "Validation should return false for null demographics" );
 	}
 
 	@Test
 	void testValidateDemographics_ValidDemographics_VerifiesUsingService( ) {
 
 		Map< String, String > demographics = Map.of( "firstName", "John", "lastName", "Doe" );
-		when( mockVerificationService.verify( demographics ) ).thenReturn( true );
+		when( mockVerificationService.verify( demographics ) ).thenReturn( VerificationResult.service( VerificationResult.Status.VERIFIED, null, 0 ) );
 
-		boolean result = provider.validateDemographics( demographics );
+		var result = provider.validateDemographics( demographics );
 
-		assertTrue( result, "Validation should return true for valid demographics" );
+		assertTrue( result.isVerified( ), "Validation should return true for valid demographics" );
 		verify( mockVerificationService ).verify( demographics );
 	}
 
@@ -45,7 +45,7 @@ class DemographicProviderTest {
 
 		var result = demographicAuthenticator.validateDemographics( demographics );
 
-		assertFalse( result, "Expected demographics to be invalid due to empty data" );
+		assertFalse( result.isVerified( ), "Expected demographics to be invalid due to empty data" );
 	}
 
 	/**
@@ -59,7 +59,7 @@ class DemographicProviderTest {
 
 		var result = demographicAuthenticator.validateDemographics( demographics );
 
-		assertFalse( result, "Expected demographics to be invalid due to missing data" );
+		assertFalse( result.isVerified( ), "Expected demographics to be invalid due to missing data" );
 	}
 
 	/**
@@ -72,9 +72,9 @@ class DemographicProviderTest {
 		demographics.put( "firstName", "John" );
 		demographics.put( "lastName", "Doe" );
 
-		boolean result = demographicAuthenticator.validateDemographics( demographics );
+		var result = demographicAuthenticator.validateDemographics( demographics );
 
-		assertTrue( result, "Expected demographics to be valid" );
+		assertTrue( result.isVerified( ), "Expected demographics to be valid" );
 	}
 
 }
@@ -3,6 +3,7 @@ package edu.uw.waverify.demographic.authenticator;
 import java.util.Map;
 
 import edu.uw.waverify.demographic.authenticator.verification.DemographicVerificationService;
+import edu.uw.waverify.demographic.authenticator.verification.VerificationResult;
 
 /**
  * Mock implementation of {@link DemographicVerificationService} for testing purposes. This class simulates the behavior
@@ -17,13 +18,14 @@ class MockDemographicVerificationService implements DemographicVerificationServi
 	 * @param demographics
 	 * 		a map containing demographic data.
 	 *
-	 * @return true if the demographic data contains "firstName" and "lastName", false otherwise.
+	 * @return a verified result if the demographic data contains "firstName" and "lastName", a rejection otherwise.
 	 */
 	@Override
 	public
-	boolean verify( Map< String, String > demographics ) {
+	VerificationResult verify( Map< String, String > demographics ) {
 
-		return demographics.containsKey( "firstName" ) && demographics.containsKey( "lastName" );
+		var valid = demographics.containsKey( "firstName" ) && demographics.containsKey( "lastName" );
+		return VerificationResult.service( valid ? VerificationResult.Status.VERIFIED : VerificationResult.Status.REJECTED, null, 0 );
 	}
 
 }
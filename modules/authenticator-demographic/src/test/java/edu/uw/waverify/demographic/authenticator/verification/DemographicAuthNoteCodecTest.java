@@ -0,0 +1,45 @@
+package edu.uw.waverify.demographic.authenticator.verification;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DemographicAuthNoteCodecTest {
+
+	@Test
+	void testRoundTrip_LeavesOutPin( ) {
+
+		var data = new DemographicData( "Jane", "Doë", "1990-01-01", "jane@example.com", "1234" );
+
+		var decoded = DemographicAuthNoteCodec.decode( DemographicAuthNoteCodec.encode( data ) );
+
+		assertEquals( new DemographicData( "Jane", "Doë", "1990-01-01", "jane@example.com", null ), decoded );
+	}
+
+	@Test
+	void testRoundTrip_NullFields( ) {
+
+		var data = new DemographicData( "Jane", null, "", null, null );
+
+		assertEquals( data, DemographicAuthNoteCodec.decode( DemographicAuthNoteCodec.encode( data ) ) );
+	}
+
+	@Test
+	void testDecode_NullNote_ReturnsNull( ) {
+
+		assertNull( DemographicAuthNoteCodec.decode( null ) );
+	}
+
+	@Test
+	void testDecode_Malformed_Throws( ) {
+
+		assertThrows( IllegalStateException.class, ( ) -> DemographicAuthNoteCodec.decode( "AQA" ) );
+	}
+
+	@Test
+	void testDecode_UnknownVersion_Throws( ) {
+
+		assertThrows( IllegalStateException.class, ( ) -> DemographicAuthNoteCodec.decode( "AgA" ) );
+	}
+
+}
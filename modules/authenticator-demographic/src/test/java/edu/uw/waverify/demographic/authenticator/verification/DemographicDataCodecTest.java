@@ -0,0 +1,94 @@
+package edu.uw.waverify.demographic.authenticator.verification;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.dataformat.cbor.databind.CBORMapper;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DemographicDataCodecTest {
+
+	@Test
+	void testWrite_WritesVerificationFields( ) throws IOException {
+
+		var out = new ByteArrayOutputStream( );
+		DemographicDataCodec.write( new DemographicData( "Jane", "O\"Neil", "1990-01-01", "jane@example.com", "1234" ), out );
+		var json = out.toString( StandardCharsets.UTF_8 );
+
+		assertEquals( "{\"firstName\":\"Jane\",\"lastName\":\"O\\\"Neil\",\"dateOfBirth\":\"1990-01-01\"}", json );
+	}
+
+	@Test
+	void testReadValid_SkipsOtherFields( ) throws IOException {
+
+		assertTrue( DemographicDataCodec.readValid( "{\"matches\":[{\"valid\":false}],\"valid\":true}" ) );
+		assertFalse( DemographicDataCodec.readValid( "{\"valid\":false}" ) );
+		assertFalse( DemographicDataCodec.readValid( "{\"unexpectedKey\":true}" ) );
+	}
+
+	@Test
+	void testReadVerdict_MissingFlag_Null( ) throws IOException {
+
+		assertEquals( Boolean.FALSE, DemographicDataCodec.readVerdict( new ByteArrayInputStream( "{\"valid\":false}".getBytes( StandardCharsets.UTF_8 ) ), WireFormat.JSON ) );
+		assertNull( DemographicDataCodec.readVerdict( new ByteArrayInputStream( "{\"unexpectedKey\":true}".getBytes( StandardCharsets.UTF_8 ) ), WireFormat.JSON ) );
+		assertNull( DemographicDataCodec.readVerdict( new ByteArrayInputStream( "{\"valid\":\"yes\"}".getBytes( StandardCharsets.UTF_8 ) ), WireFormat.JSON ) );
+	}
+
+	@Test
+	void testReadValid_StopsAtValidField( ) throws IOException {
+
+		var truncated = "{\"valid\":true,\"message\":\"unterminated";
+
+		assertTrue( DemographicDataCodec.readValid( new ByteArrayInputStream( truncated.getBytes( StandardCharsets.UTF_8 ) ) ) );
+	}
+
+	@Test
+	void testReadValid_NotAnObject_Throws( ) {
+
+		assertThrows( JsonParseException.class, ( ) -> DemographicDataCodec.readValid( "[true]" ) );
+	}
+
+	@Test
+	void testCbor_RoundTrip( ) throws IOException {
+
+		var out = new ByteArrayOutputStream( );
+		DemographicDataCodec.write( new DemographicData( "Jane", "Doe", "1990-01-01", "jane@example.com", null ), out, WireFormat.CBOR );
+
+		var mapper = new CBORMapper( );
+		var tree   = mapper.readTree( out.toByteArray( ) );
+		assertEquals( "Jane", tree.get( "firstName" )
+		                          .asText( ) );
+		assertEquals( "1990-01-01", tree.get( "dateOfBirth" )
+		                                .asText( ) );
+
+		var response = mapper.writeValueAsBytes( Map.of( "valid", true ) );
+		assertTrue( DemographicDataCodec.readValid( new ByteArrayInputStream( response ), WireFormat.CBOR ) );
+	}
+
+	@Test
+	void testCbor_SmallerThanJson( ) throws IOException {
+
+		var data = new DemographicData( "Jane", "Doe", "1990-01-01", "jane@example.com", null );
+		var json = new ByteArrayOutputStream( );
+		var cbor = new ByteArrayOutputStream( );
+		DemographicDataCodec.write( data, json, WireFormat.JSON );
+		DemographicDataCodec.write( data, cbor, WireFormat.CBOR );
+
+		assertTrue( cbor.size( ) < json.size( ), "CBOR request should be smaller, was " + cbor.size( ) + " vs " + json.size( ) + " bytes" );
+	}
+
+	@Test
+	void testWireFormat_Of( ) {
+
+		assertEquals( WireFormat.CBOR, WireFormat.of( "cbor" ) );
+		assertEquals( WireFormat.JSON, WireFormat.of( null ) );
+		assertThrows( IllegalArgumentException.class, ( ) -> WireFormat.of( "xml" ) );
+	}
+
+}
@@ -0,0 +1,58 @@
+package edu.uw.waverify.demographic.authenticator.verification;
+
+import org.keycloak.models.UserModel;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+class DemographicDataHelperTest {
+
+	@Test
+	void testApplyDemographics_Unchanged_WritesNothing( ) {
+
+		var user = mock( UserModel.class );
+		when( user.getFirstName( ) ).thenReturn( "Jane" );
+		when( user.getLastName( ) ).thenReturn( "Doe" );
+		when( user.getFirstAttribute( "dateOfBirth" ) ).thenReturn( "1990-01-01" );
+
+		var changed = DemographicDataHelper.applyDemographics( user, new DemographicData( "Jane", "Doe", "1990-01-01", "jane@example.com", null ) );
+
+		assertFalse( changed );
+		verify( user, never( ) ).setFirstName( any( ) );
+		verify( user, never( ) ).setLastName( any( ) );
+		verify( user, never( ) ).setSingleAttribute( any( ), any( ) );
+	}
+
+	@Test
+	void testApplyDemographics_CaseOnlyDifference_KeepsStoredName( ) {
+
+		var user = mock( UserModel.class );
+		when( user.getFirstName( ) ).thenReturn( "Jane" );
+		when( user.getLastName( ) ).thenReturn( "O'Neil" );
+		when( user.getFirstAttribute( "dateOfBirth" ) ).thenReturn( "1990-01-01" );
+
+		var changed = DemographicDataHelper.applyDemographics( user, new DemographicData( "jane", "O'NEIL", "1990-01-01", "jane@example.com", null ) );
+
+		assertFalse( changed );
+		verify( user, never( ) ).setFirstName( any( ) );
+		verify( user, never( ) ).setLastName( any( ) );
+	}
+
+	@Test
+	void testApplyDemographics_WritesOnlyChangedFields( ) {
+
+		var user = mock( UserModel.class );
+		when( user.getFirstName( ) ).thenReturn( "Jane" );
+		when( user.getLastName( ) ).thenReturn( "Doe" );
+
+		var changed = DemographicDataHelper.applyDemographics( user, new DemographicData( "Jane", "Smith", "1990-01-01", "jane@example.com", null ) );
+
+		assertTrue( changed );
+		verify( user, never( ) ).setFirstName( any( ) );
+		verify( user ).setLastName( "Smith" );
+		verify( user ).setSingleAttribute( "dateOfBirth", "1990-01-01" );
+	}
+
+}
@@ -0,0 +1,47 @@
+package edu.uw.waverify.demographic.authenticator.verification;
+
+import java.time.LocalDate;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DemographicDataNormalizerTest {
+
+	@Test
+	void testNormalize_EquivalentInputs_AreEqual( ) {
+
+		var a = DemographicDataNormalizer.normalize( new DemographicData( "Mary  Ann", "Smith ", "1990-1-2", " Jane@Example.COM", "1234" ) );
+		var b = DemographicDataNormalizer.normalize( new DemographicData( "Mary Ann", "Smith", "1990-01-02", "jane@example.com", "1234" ) );
+
+		assertEquals( a, b );
+		assertEquals( new DemographicData( "Mary Ann", "Smith", "1990-01-02", "jane@example.com", "1234" ), a );
+	}
+
+	@Test
+	void testNormalizeName_UnicodeForms( ) {
+
+		assertEquals( "Jane", DemographicDataNormalizer.normalizeName( "Ｊａｎｅ" ) );
+		assertEquals( "O'Neil", DemographicDataNormalizer.normalizeName( "O'Neil " ) );
+		assertNull( DemographicDataNormalizer.normalizeName( "  " ) );
+	}
+
+	@Test
+	void testFoldName_IgnoresCase( ) {
+
+		assertEquals( DemographicDataNormalizer.foldName( "STRASSE" ), DemographicDataNormalizer.foldName( "Straße" ) );
+		assertEquals( "o'neil", DemographicDataNormalizer.foldName( "O'Neil " ) );
+		assertNull( DemographicDataNormalizer.foldName( null ) );
+	}
+
+	@Test
+	void testParseDate( ) {
+
+		assertEquals( LocalDate.of( 1990, 1, 2 ), DemographicDataNormalizer.parseDate( " 1990-1-2 " ) );
+		assertNull( DemographicDataNormalizer.parseDate( "1990-02-30" ) );
+		assertNull( DemographicDataNormalizer.parseDate( "02/01/1990" ) );
+		assertNull( DemographicDataNormalizer.normalize( new DemographicData( "Jane", "Doe", "1990-13-01", null, null ) )
+		                                     .getDateOfBirth( ) );
+	}
+
+}
@@ -67,7 +67,7 @@ class DemographicDataTest {
 	void testToString( ) {
 
 		demographicData = new DemographicData( "Chris", "Evans", "1970-06-13", "chris.evans@example.com", "5554443333" );
-		String expected = "DemographicData{firstName='Chris', lastName='Evans', dateOfBirth='1970-06-13', email='chris.evans@example.com', phoneNumber='5554443333'}";
+		String expected = "DemographicData(firstName=Chris, lastName=Evans, dateOfBirth=1970-06-13, email=chris.evans@example.com, pin=5554443333)";
 
 		assertEquals( expected, demographicData.toString( ) );
 	}
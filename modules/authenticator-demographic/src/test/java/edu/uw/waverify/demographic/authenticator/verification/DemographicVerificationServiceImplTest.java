@@ -1,12 +1,21 @@
 package edu.uw.waverify.demographic.authenticator.verification;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.net.ConnectException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 
-import org.keycloak.broker.provider.util.SimpleHttp;
 import org.keycloak.connections.httpclient.HttpClientProvider;
 import org.keycloak.models.KeycloakSession;
 
+import org.apache.http.StatusLine;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.client.methods.HttpUriRequest;
 import org.apache.http.entity.StringEntity;
 import org.apache.http.impl.client.CloseableHttpClient;
 import org.junit.jupiter.api.BeforeEach;
@@ -28,6 +37,12 @@ class DemographicVerificationServiceImplTest {
 	@Mock
 	private CloseableHttpClient mockCloseableHttpClient;
 
+	@Mock
+	private CloseableHttpResponse mockResponse;
+
+	@Mock
+	private StatusLine mockStatusLine;
+
 	private DemographicVerificationServiceImpl service;
 
 	@BeforeEach
@@ -36,116 +51,265 @@ class DemographicVerificationServiceImplTest {
 		MockitoAnnotations.openMocks( this );
 		var baseUrl = "http://localhost:8080/api/validation";
 		service = new DemographicVerificationServiceImpl( mockSession, baseUrl );
+
+		when( mockSession.getProvider( HttpClientProvider.class ) ).thenReturn( mockHttpClientProvider );
+		when( mockHttpClientProvider.getHttpClient( ) ).thenReturn( mockCloseableHttpClient );
+		when( mockResponse.getStatusLine( ) ).thenReturn( mockStatusLine );
+		when( mockStatusLine.getStatusCode( ) ).thenReturn( 200 );
+	}
+
+	private
+	void respondWith( String body ) throws IOException {
+
+		when( mockResponse.getEntity( ) ).thenReturn( new StringEntity( body, StandardCharsets.UTF_8 ) );
+		when( mockCloseableHttpClient.execute( any( HttpUriRequest.class ) ) ).thenReturn( mockResponse );
+	}
+
+	private
+	String sentBody( ) throws IOException {
+
+		var captor = ArgumentCaptor.forClass( HttpUriRequest.class );
+		verify( mockCloseableHttpClient ).execute( captor.capture( ) );
+
+		var request = ( HttpPost ) captor.getValue( );
+		var out     = new ByteArrayOutputStream( );
+		request.getEntity( )
+		       .writeTo( out );
+		return out.toString( StandardCharsets.UTF_8 );
 	}
 
 	@Test
 	void testVerify_InvalidDemographics_EmptyDemographics( ) {
 
-		boolean result = service.verify( Map.of( ) );
-		assertFalse( result );
+		var result = service.verify( Map.of( ) );
+		assertFalse( result.isVerified( ) );
+		verifyNoInteractions( mockCloseableHttpClient );
 	}
 
 	@Test
 	void testVerify_InvalidDemographics_NullDemographics( ) {
 
-		boolean result = service.verify( null );
-		assertFalse( result );
+		var result = service.verify( ( Map< String, String > ) null );
+		assertFalse( result.isVerified( ) );
 	}
 
 	@Test
 	void testVerify_ServerErrorResponse( ) throws Exception {
 
-		when( mockSession.getProvider( HttpClientProvider.class ) ).thenReturn( mockHttpClientProvider );
-		when( mockHttpClientProvider.getHttpClient( ) ).thenReturn( mockCloseableHttpClient );
+		when( mockCloseableHttpClient.execute( any( HttpUriRequest.class ) ) ).thenThrow( new IOException( "Server error" ) );
 
-		Map< String, String > demographics = Map.of( "firstName", "John", "lastName", "Doe" );
-
-		try ( MockedStatic< SimpleHttp > simpleHttpMock = Mockito.mockStatic( SimpleHttp.class ) ) {
-			SimpleHttp mockSimpleHttp = mock( SimpleHttp.class );
+		var result = service.verify( Map.of( "firstName", "John", "lastName", "Doe" ) );
+		assertFalse( result.isVerified( ) );
+		assertEquals( VerificationResult.Status.UNAVAILABLE, result.getStatus( ) );
+		assertTrue( result.isTransient( ) );
+	}
 
-			simpleHttpMock.when( ( ) -> SimpleHttp.doPost( any( ), eq( mockSession ) ) )
-			              .thenReturn( mockSimpleHttp );
+	@Test
+	void testVerify_ErrorStatus( ) throws Exception {
 
-			when( mockSimpleHttp.header( anyString( ), anyString( ) ) ).thenReturn( mockSimpleHttp );
-			when( mockSimpleHttp.json( anyString( ) ) ).thenReturn( mockSimpleHttp );
-			when( mockSimpleHttp.asString( ) ).thenThrow( new RuntimeException( "Server error" ) );
+		respondWith( "{\"valid\":true}" );
+		when( mockStatusLine.getStatusCode( ) ).thenReturn( 500 );
 
-			boolean result = service.verify( demographics );
-			assertFalse( result );
-		}
+		var result = service.verify( Map.of( "firstName", "John", "lastName", "Doe" ) );
+		assertFalse( result.isVerified( ) );
 	}
 
 	@Test
 	void testVerify_UnexpectedResponseFormat( ) throws Exception {
 
-		when( mockSession.getProvider( HttpClientProvider.class ) ).thenReturn( mockHttpClientProvider );
-		when( mockHttpClientProvider.getHttpClient( ) ).thenReturn( mockCloseableHttpClient );
+		respondWith( "{\"unexpectedKey\":true}" );
 
-		Map< String, String > demographics = Map.of( "firstName", "John", "lastName", "Doe" );
+		var result = service.verify( Map.of( "firstName", "John", "lastName", "Doe" ) );
+		assertFalse( result.isVerified( ) );
+		assertEquals( VerificationResult.Status.ERROR, result.getStatus( ) );
+	}
 
-		try ( MockedStatic< SimpleHttp > simpleHttpMock = Mockito.mockStatic( SimpleHttp.class ) ) {
-			SimpleHttp mockSimpleHttp = mock( SimpleHttp.class );
+	@Test
+	void testVerify_ValidDemographics_SuccessfulResponse( ) throws Exception {
 
-			simpleHttpMock.when( ( ) -> SimpleHttp.doPost( any( ), eq( mockSession ) ) )
-			              .thenReturn( mockSimpleHttp );
+		respondWith( "{\"valid\":true}" );
 
-			when( mockSimpleHttp.header( anyString( ), anyString( ) ) ).thenReturn( mockSimpleHttp );
-			when( mockSimpleHttp.json( anyString( ) ) ).thenReturn( mockSimpleHttp );
-			when( mockSimpleHttp.asString( ) ).thenReturn( "{\"unexpectedKey\":true}" );
+		var result = service.verify( Map.of( "firstName", "John", "lastName", "Doe", "dateOfBirth", "1990-01-01" ) );
+		assertTrue( result.isVerified( ) );
+		assertEquals( VerificationResult.Source.SERVICE, result.getSource( ) );
 
-			boolean result = service.verify( demographics );
-			assertFalse( result );
-		}
+		var body = sentBody( );
+		assertTrue( body.contains( "\"firstName\":\"John\"" ) && body.contains( "\"lastName\":\"Doe\"" ) && body.contains( "\"dateOfBirth\":\"1990-01-01\"" ) );
+		verify( mockResponse ).close( );
 	}
 
 	@Test
-	void testVerify_ValidDemographics_SuccessfulResponse( ) throws Exception {
+	void testVerify_DemographicData_StreamsFields( ) throws Exception {
 
-		when( mockSession.getProvider( HttpClientProvider.class ) ).thenReturn( mockHttpClientProvider );
-		when( mockHttpClientProvider.getHttpClient( ) ).thenReturn( mockCloseableHttpClient );
+		respondWith( "{\"valid\":true}" );
+
+		assertTrue( service.verify( new DemographicData( "John", "Doe", "1990-01-01", "john@example.com", "1234" ) )
+		                   .isVerified( ) );
+		assertEquals( "{\"firstName\":\"John\",\"lastName\":\"Doe\",\"dateOfBirth\":\"1990-01-01\"}", sentBody( ) );
+	}
 
-		Map< String, String > demographics = Map.of( "firstName", "John", "lastName", "Doe", "dateOfBirth", "1990-01-01" );
-
-		try ( MockedStatic< SimpleHttp > simpleHttpMock = Mockito.mockStatic( SimpleHttp.class ) ) {
-			SimpleHttp mockSimpleHttp = mock( SimpleHttp.class );
-
-			simpleHttpMock.when( ( ) -> SimpleHttp.doPost( any( ), eq( mockSession ) ) )
-			              .thenReturn( mockSimpleHttp );
-
-			when( mockSimpleHttp.header( eq( "Content-Type" ), eq( "application/json" ) ) ).thenReturn( mockSimpleHttp );
-			when( mockSimpleHttp.entity( argThat( entity -> {
-				if ( entity instanceof StringEntity stringEntity ) {
-					String entityContent = null;
-					try {
-						entityContent = new String( stringEntity.getContent( )
-						                                        .readAllBytes( ) );
-					} catch ( IOException e ) {
-						throw new RuntimeException( e );
-					}
-					return entityContent.contains( "\"firstName\":\"John\"" ) && entityContent.contains( "\"lastName\":\"Doe\"" ) && entityContent.contains( "\"dateOfBirth\":\"1990-01-01\"" );
-				}
-				return false;
-			} ) ) ).thenReturn( mockSimpleHttp );
-
-			when( mockSimpleHttp.asString( ) ).thenReturn( "{\"valid\":true}" );
-
-			boolean result = service.verify( demographics );
-			assertTrue( result );
-
-			verify( mockSimpleHttp ).entity( argThat( entity -> {
-				if ( entity instanceof StringEntity stringEntity ) {
-					String entityContent = null;
-					try {
-						entityContent = new String( stringEntity.getContent( )
-						                                        .readAllBytes( ) );
-					} catch ( IOException e ) {
-						throw new RuntimeException( e );
-					}
-					return entityContent.contains( "\"firstName\":\"John\"" ) && entityContent.contains( "\"lastName\":\"Doe\"" ) && entityContent.contains( "\"dateOfBirth\":\"1990-01-01\"" );
-				}
-				return false;
-			} ) );
+	@Test
+	void testVerify_BinaryFormatRejected_FallsBackToJson( ) throws Exception {
+
+		var cborService = new DemographicVerificationServiceImpl( mockSession, "http://json-only.example/api/validation", WireFormat.CBOR );
+		respondWith( "{\"valid\":true}" );
+		when( mockStatusLine.getStatusCode( ) ).thenReturn( 415, 200 );
+
+		assertTrue( cborService.verify( new DemographicData( "John", "Doe", "1990-01-01", "john@example.com", null ) )
+		                       .isVerified( ) );
+
+		var captor = ArgumentCaptor.forClass( HttpUriRequest.class );
+		verify( mockCloseableHttpClient, times( 2 ) ).execute( captor.capture( ) );
+		assertEquals( "application/cbor", captor.getAllValues( )
+		                                        .get( 0 )
+		                                        .getFirstHeader( "Accept" )
+		                                        .getValue( ) );
+		assertEquals( "application/json", captor.getAllValues( )
+		                                        .get( 1 )
+		                                        .getFirstHeader( "Accept" )
+		                                        .getValue( ) );
+	}
+
+	@Test
+	void testVerify_NoAnswer_AbortedAtTimeout( ) throws Exception {
+
+		var endpoints = new VerificationEndpoints( List.of( new VerificationEndpoint( "http://slow.example/api/validation" ) ), 250, 10, 100, null );
+		var slow      = new DemographicVerificationServiceImpl( mockSession, endpoints, WireFormat.JSON );
+		when( mockCloseableHttpClient.execute( any( HttpUriRequest.class ) ) ).thenAnswer( invocation -> {
+			var request = ( HttpPost ) invocation.getArgument( 0 );
+			for ( var i = 0; i < 1000 && !request.isAborted( ); i++ ) {
+				Thread.sleep( 5 );
+			}
+			throw new IOException( "Request aborted" );
+		} );
+
+		var result = slow.verify( Map.of( "firstName", "John", "lastName", "Doe" ) );
+
+		assertEquals( VerificationResult.Status.UNAVAILABLE, result.getStatus( ) );
+		assertTrue( result.getLatencyNanos( ) < TimeUnit.SECONDS.toNanos( 2 ), "Expected the request to be aborted at the timeout" );
+		verify( mockCloseableHttpClient ).execute( any( HttpUriRequest.class ) );
+	}
+
+	@Test
+	void testVerify_PrimaryFailsFast_RetriedWithinBudgetInsteadOfHedged( ) throws Exception {
+
+		var failing = new VerificationEndpoint( "http://a.example/api/validation", 1, 60_000 );
+		var working = new VerificationEndpoint( "http://b.example/api/validation" );
+		working.recordFailure( TimeUnit.SECONDS.toNanos( 1 ) );
+		var endpoints = new VerificationEndpoints( List.of( failing, working ), 10_000, 10_000, 30_000, Executors.newFixedThreadPool( 2 ) );
+		var hedged    = new DemographicVerificationServiceImpl( mockSession, endpoints, WireFormat.JSON );
+		when( mockResponse.getEntity( ) ).thenReturn( new StringEntity( "{\"valid\":true}", StandardCharsets.UTF_8 ) );
+		when( mockCloseableHttpClient.execute( any( HttpUriRequest.class ) ) ).thenAnswer( invocation -> {
+			var request = ( HttpUriRequest ) invocation.getArgument( 0 );
+			if ( "a.example".equals( request.getURI( )
+			                                .getHost( ) ) ) {
+				throw new ConnectException( "Connection refused" );
+			}
+			return mockResponse;
+		} );
+
+		try {
+			var result = hedged.verify( Map.of( "firstName", "John", "lastName", "Doe" ) );
+
+			assertTrue( result.isVerified( ) );
+			assertTrue( result.getLatencyNanos( ) < TimeUnit.SECONDS.toNanos( 5 ), "Expected the retry to be sent without waiting for the hedging delay" );
+			verify( mockCloseableHttpClient, times( 2 ) ).execute( any( HttpUriRequest.class ) );
+			assertEquals( 1, endpoints.getRetryBudget( )
+			                          .getRetries( ), "Expected the second request to be drawn from the retry budget" );
+		} finally {
+			endpoints.close( );
 		}
 	}
 
+	@Test
+	void testVerify_ServiceUnavailable_Retries( ) throws Exception {
+
+		respondWith( "{\"valid\":true}" );
+		when( mockStatusLine.getStatusCode( ) ).thenReturn( 503, 200 );
+
+		assertTrue( service.verify( Map.of( "firstName", "John", "lastName", "Doe" ) )
+		                   .isVerified( ) );
+		verify( mockCloseableHttpClient, times( 2 ) ).execute( any( HttpUriRequest.class ) );
+	}
+
+	@Test
+	void testVerify_ServiceUnavailable_EachAttemptReleasesItsPermit( ) throws Exception {
+
+		var limiter = service.getEndpoints( )
+		                     .getLimiter( );
+		var initial = limiter.getLimit( );
+		respondWith( "{\"valid\":true}" );
+		when( mockStatusLine.getStatusCode( ) ).thenReturn( 503, 200 );
+
+		assertTrue( service.verify( Map.of( "firstName", "John", "lastName", "Doe" ) )
+		                   .isVerified( ) );
+		assertEquals( 0, limiter.getInFlight( ) );
+		assertTrue( limiter.getLimit( ) < initial, "Expected the failed attempt to be sampled on its own" );
+	}
+
+	@Test
+	void testVerify_ServiceUnavailable_StopsAfterMaxAttempts( ) throws Exception {
+
+		respondWith( "{\"valid\":true}" );
+		when( mockStatusLine.getStatusCode( ) ).thenReturn( 503 );
+
+		assertEquals( VerificationResult.Status.UNAVAILABLE, service.verify( Map.of( "firstName", "John", "lastName", "Doe" ) )
+		                                                            .getStatus( ) );
+		verify( mockCloseableHttpClient, times( 3 ) ).execute( any( HttpUriRequest.class ) );
+	}
+
+	@Test
+	void testVerify_ErrorStatus_NotRetried( ) throws Exception {
+
+		respondWith( "{\"valid\":true}" );
+		when( mockStatusLine.getStatusCode( ) ).thenReturn( 500, 200 );
+
+		assertFalse( service.verify( Map.of( "firstName", "John", "lastName", "Doe" ) )
+		                    .isVerified( ) );
+		verify( mockCloseableHttpClient ).execute( any( HttpUriRequest.class ) );
+	}
+
+	@Test
+	void testVerify_Rejected( ) throws Exception {
+
+		respondWith( "{\"valid\":false}" );
+
+		var result = service.verify( Map.of( "firstName", "John", "lastName", "Doe" ) );
+		assertEquals( VerificationResult.Status.REJECTED, result.getStatus( ) );
+		assertTrue( result.isDefinitive( ) );
+	}
+
+	@Test
+	void testVerify_DemographicData_CachesDefinitiveAnswer( ) throws Exception {
+
+		respondWith( "{\"valid\":false}" );
+		var data = new DemographicData( "john", "doe", "1990-01-01", "john@example.com", null );
+
+		var first  = service.verify( data );
+		var second = service.verify( data );
+
+		assertEquals( VerificationResult.Source.SERVICE, first.getSource( ) );
+		assertEquals( VerificationResult.Source.CACHE, second.getSource( ) );
+		assertEquals( VerificationResult.Status.REJECTED, second.getStatus( ) );
+		verify( mockCloseableHttpClient ).execute( any( HttpUriRequest.class ) );
+		assertEquals( 1, service.getEndpoints( )
+		                        .getCacheHits( ) );
+		assertEquals( 2, service.getEndpoints( )
+		                        .getOutcomes( VerificationResult.Status.REJECTED ) );
+	}
+
+	@Test
+	void testVerify_DemographicData_FailureNotCached( ) throws Exception {
+
+		respondWith( "{\"valid\":true}" );
+		when( mockStatusLine.getStatusCode( ) ).thenReturn( 500 );
+		var data = new DemographicData( "john", "doe", "1990-01-01", "john@example.com", null );
+
+		assertEquals( VerificationResult.Status.UNAVAILABLE, service.verify( data )
+		                                                            .getStatus( ) );
+		assertEquals( VerificationResult.Status.UNAVAILABLE, service.verify( data )
+		                                                            .getStatus( ) );
+		verify( mockCloseableHttpClient, times( 2 ) ).execute( any( HttpUriRequest.class ) );
+	}
+
 }
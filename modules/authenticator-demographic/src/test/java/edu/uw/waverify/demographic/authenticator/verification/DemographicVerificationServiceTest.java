@@ -22,9 +22,10 @@ class DemographicVerificationServiceTest {
 		DemographicVerificationService service      = mock( DemographicVerificationService.class );
 		Map< String, String >          demographics = Map.of( ); // Empty demographics
 
-		when( service.verify( demographics ) ).thenReturn( false );
+		when( service.verify( demographics ) ).thenReturn( VerificationResult.local( VerificationResult.Status.INVALID_INPUT, "No demographic data" ) );
 
-		assertFalse( service.verify( demographics ), "verify should return false for invalid demographics" );
+		assertFalse( service.verify( demographics )
+		                    .isVerified( ), "verify should return false for invalid demographics" );
 		verify( service ).verify( demographics ); // Ensure the method was called
 	}
 
@@ -37,9 +38,10 @@ class DemographicVerificationServiceTest {
 		DemographicVerificationService service      = mock( DemographicVerificationService.class );
 		Map< String, String >          demographics = Map.of( "firstName", "John", "lastName", "Doe" );
 
-		when( service.verify( demographics ) ).thenReturn( true );
+		when( service.verify( demographics ) ).thenReturn( VerificationResult.service( VerificationResult.Status.VERIFIED, null, 0 ) );
 
-		assertTrue( service.verify( demographics ), "verify should return true for valid demographics" );
+		assertTrue( service.verify( demographics )
+		                   .isVerified( ), "verify should return true for valid demographics" );
 		verify( service ).verify( demographics ); // Ensure the method was called
 	}
 
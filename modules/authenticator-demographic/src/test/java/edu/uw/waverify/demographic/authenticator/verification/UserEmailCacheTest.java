@@ -0,0 +1,72 @@
+package edu.uw.waverify.demographic.authenticator.verification;
+
+import org.keycloak.models.*;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+class UserEmailCacheTest {
+
+	@Mock
+	private KeycloakSession mockSession;
+
+	@Mock
+	private UserProvider mockUsers;
+
+	@Mock
+	private RealmModel mockRealm;
+
+	@Mock
+	private UserModel mockUser;
+
+	@BeforeEach
+	void setUp( ) {
+
+		MockitoAnnotations.openMocks( this );
+		UserEmailCache.configure( 100 );
+
+		when( mockSession.users( ) ).thenReturn( mockUsers );
+		when( mockRealm.getId( ) ).thenReturn( "realm" );
+		when( mockUser.getId( ) ).thenReturn( "user-1" );
+		when( mockUser.getEmail( ) ).thenReturn( "jane@example.com" );
+		when( mockUsers.getUserByEmail( mockRealm, "Jane@Example.com" ) ).thenReturn( mockUser );
+		when( mockUsers.getUserById( mockRealm, "user-1" ) ).thenReturn( mockUser );
+	}
+
+	@Test
+	void testGetUserByEmail_RepeatLookup_SkipsEmailSearch( ) {
+
+		assertSame( mockUser, UserEmailCache.getUserByEmail( mockSession, mockRealm, "Jane@Example.com" ) );
+		assertSame( mockUser, UserEmailCache.getUserByEmail( mockSession, mockRealm, "Jane@Example.com" ) );
+
+		verify( mockUsers, times( 1 ) ).getUserByEmail( mockRealm, "Jane@Example.com" );
+		verify( mockUsers, times( 1 ) ).getUserById( mockRealm, "user-1" );
+	}
+
+	@Test
+	void testGetUserByEmail_EmailChanged_FallsBackToSearch( ) {
+
+		UserEmailCache.getUserByEmail( mockSession, mockRealm, "Jane@Example.com" );
+		when( mockUser.getEmail( ) ).thenReturn( "other@example.com" );
+		when( mockUsers.getUserByEmail( mockRealm, "Jane@Example.com" ) ).thenReturn( null );
+
+		assertNull( UserEmailCache.getUserByEmail( mockSession, mockRealm, "Jane@Example.com" ) );
+	}
+
+	@Test
+	void testOnRealmRemoved_EvictsRealmEntries( ) {
+
+		UserEmailCache.getUserByEmail( mockSession, mockRealm, "Jane@Example.com" );
+		UserEmailCache.onRealmRemoved( "realm" );
+		UserEmailCache.getUserByEmail( mockSession, mockRealm, "Jane@Example.com" );
+
+		verify( mockUsers, times( 2 ) ).getUserByEmail( mockRealm, "Jane@Example.com" );
+		verify( mockUsers, never( ) ).getUserById( mockRealm, "user-1" );
+	}
+
+}
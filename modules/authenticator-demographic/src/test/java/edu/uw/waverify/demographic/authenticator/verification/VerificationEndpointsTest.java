@@ -0,0 +1,197 @@
+package edu.uw.waverify.demographic.authenticator.verification;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.keycloak.Config;
+import org.keycloak.models.KeycloakSessionFactory;
+import org.keycloak.timer.TimerProvider;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+class VerificationEndpointsTest {
+
+	private static
+	Config.Scope config( String baseUrl ) {
+
+		var config = mock( Config.Scope.class );
+		when( config.get( "baseUrl" ) ).thenReturn( baseUrl );
+		when( config.get( anyString( ), anyString( ) ) ).thenAnswer( invocation -> invocation.getArgument( 1 ) );
+		when( config.getInt( anyString( ), anyInt( ) ) ).thenAnswer( invocation -> invocation.getArgument( 1 ) );
+		when( config.getLong( anyString( ), anyLong( ) ) ).thenAnswer( invocation -> invocation.getArgument( 1 ) );
+		return config;
+	}
+
+	@Test
+	void testOf_SplitsCommaSeparatedUrls( ) {
+
+		var endpoints = VerificationEndpoints.of( " http://a/api , http://b/api,,http://a/api" );
+
+		assertEquals( List.of( "http://a/api", "http://b/api" ), endpoints.getEndpoints( )
+		                                                                  .stream( )
+		                                                                  .map( VerificationEndpoint::getUrl )
+		                                                                  .toList( ) );
+		assertFalse( endpoints.isHedging( ) );
+		assertTrue( VerificationEndpoints.of( null )
+		                                 .isEmpty( ) );
+	}
+
+	@Test
+	void testSelect_FewerInFlightFirst( ) {
+
+		var busy      = new VerificationEndpoint( "http://busy" );
+		var idle      = new VerificationEndpoint( "http://idle" );
+		var endpoints = new VerificationEndpoints( List.of( busy, idle ), 250, 10, 1000, null );
+
+		busy.acquire( );
+
+		for ( int i = 0; i < 20; i++ ) {
+			assertEquals( List.of( idle, busy ), endpoints.select( ) );
+		}
+
+		idle.acquire( );
+		busy.record( TimeUnit.MILLISECONDS.toNanos( 80 ) );
+		idle.record( TimeUnit.MILLISECONDS.toNanos( 20 ) );
+
+		assertSame( idle, endpoints.select( )
+		                           .get( 0 ) );
+	}
+
+	@Test
+	void testSelect_SkipsEjectedAndUnhealthy( ) {
+
+		var flaky     = new VerificationEndpoint( "http://flaky", 3, 60_000 );
+		var down      = new VerificationEndpoint( "http://down" );
+		var good      = new VerificationEndpoint( "http://good" );
+		var endpoints = new VerificationEndpoints( List.of( flaky, down, good ), 250, 10, 1000, null );
+
+		for ( int i = 0; i < 3; i++ ) {
+			flaky.recordFailure( TimeUnit.MILLISECONDS.toNanos( 1 ) );
+		}
+		down.setHealthy( false );
+
+		assertFalse( flaky.isAvailable( ) );
+		assertEquals( List.of( good ), endpoints.select( ) );
+
+		good.setHealthy( false );
+
+		assertEquals( 2, endpoints.select( )
+		                          .size( ), "Expected all endpoints to be used when none is available" );
+	}
+
+	@Test
+	void testEjection_LiftedBySuccess( ) {
+
+		var endpoint = new VerificationEndpoint( "http://a", 2, 60_000 );
+
+		endpoint.recordFailure( 1 );
+		endpoint.recordFailure( 1 );
+		endpoint.record( 1 );
+
+		assertTrue( endpoint.isAvailable( ) );
+	}
+
+	@Test
+	void testHealthUri_KeepsBasePath( ) {
+
+		assertEquals( "http://vp/app/actuator/health", VerificationEndpoints.healthUri( "http://vp/app/api/validation", "../actuator/health" )
+		                                                                  .toString( ) );
+		assertEquals( "http://vp:8080/actuator/health", VerificationEndpoints.healthUri( "http://vp:8080/api/validation", "../actuator/health" )
+		                                                                   .toString( ) );
+		assertEquals( "http://vp/health", VerificationEndpoints.healthUri( "http://vp/app/api/validation", "/health" )
+		                                                     .toString( ) );
+	}
+
+	@Test
+	void testJsonOnly_RememberedAfterRejection( ) {
+
+		var endpoint = new VerificationEndpoint( "http://a" );
+		assertFalse( endpoint.isJsonOnly( ) );
+
+		endpoint.markJsonOnly( );
+
+		assertTrue( endpoint.isJsonOnly( ) );
+	}
+
+	@Test
+	void testHedgeDelay_UsesObservedP95( ) {
+
+		var endpoint  = new VerificationEndpoint( "http://a" );
+		var endpoints = new VerificationEndpoints( List.of( endpoint ), 250, 10, 1000, null );
+
+		assertEquals( TimeUnit.MILLISECONDS.toNanos( 250 ), endpoints.hedgeDelayNanos( endpoint ) );
+
+		for ( int i = 1; i <= 100; i++ ) {
+			endpoint.record( TimeUnit.MILLISECONDS.toNanos( i ) );
+		}
+		for ( int i = 0; i < 28; i++ ) {
+			endpoint.record( TimeUnit.MILLISECONDS.toNanos( 1 ) );
+		}
+
+		assertEquals( TimeUnit.MILLISECONDS.toNanos( 94 ), endpoints.hedgeDelayNanos( endpoint ) );
+	}
+
+	@Test
+	void testShared_SameBaseUrl_OneInstanceStoppedByLastUser( ) {
+
+		var first  = VerificationEndpoints.shared( config( "http://a/api,http://b/api" ) );
+		var second = VerificationEndpoints.shared( config( " http://a/api , http://b/api" ) );
+		var other  = VerificationEndpoints.shared( config( "http://c/api,http://d/api" ) );
+
+		assertSame( first, second );
+		assertNotSame( first, other );
+
+		first.close( );
+		assertFalse( second.getExecutor( )
+		                   .isShutdown( ) );
+		second.close( );
+		assertTrue( second.getExecutor( )
+		                  .isShutdown( ) );
+
+		var next = VerificationEndpoints.shared( config( "http://a/api,http://b/api" ) );
+		assertNotSame( first, next );
+		next.close( );
+		other.close( );
+	}
+
+	@Test
+	void testScheduleTasks_ScheduledOncePerSharedInstance( ) {
+
+		var timer   = mock( TimerProvider.class );
+		var factory = mock( KeycloakSessionFactory.class );
+		var first   = VerificationEndpoints.shared( config( "http://e/api,http://f/api" ) );
+		var second  = VerificationEndpoints.shared( config( "http://e/api,http://f/api" ) );
+
+		try {
+			first.scheduleTasks( factory, timer );
+			second.scheduleTasks( factory, timer );
+
+			verify( timer ).schedule( any( Runnable.class ), eq( 10_000L ), eq( "demographic-verification-health:http://e/api,http://f/api" ) );
+			verify( timer ).schedule( any( Runnable.class ), eq( 300_000L ), eq( "demographic-verification-stats:http://e/api,http://f/api" ) );
+		} finally {
+			first.close( );
+			second.close( );
+		}
+	}
+
+	@Test
+	void testStats_ReportsOutcomesAndCacheHits( ) {
+
+		try ( var endpoints = VerificationEndpoints.fromConfig( config( "http://g/api" ) ) ) {
+			var verified = VerificationResult.service( VerificationResult.Status.VERIFIED, null, 0 );
+			endpoints.count( verified );
+			endpoints.count( verified.fromCache( 0 ) );
+			endpoints.count( VerificationResult.service( VerificationResult.Status.OVERLOADED, "busy", 0 ) );
+
+			var stats = endpoints.stats( );
+			assertTrue( stats.contains( "VERIFIED=2" ), stats );
+			assertTrue( stats.contains( "OVERLOADED=1" ), stats );
+			assertTrue( stats.contains( "1 answered from cache" ), stats );
+		}
+	}
+
+}
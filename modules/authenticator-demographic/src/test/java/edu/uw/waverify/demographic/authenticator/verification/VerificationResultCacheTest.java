@@ -0,0 +1,79 @@
+package edu.uw.waverify.demographic.authenticator.verification;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class VerificationResultCacheTest {
+
+	private static final DemographicData JOHN = new DemographicData( "john", "doe", "1990-01-01", "john@example.com", null );
+
+	private AtomicLong              clock;
+	private VerificationResultCache cache;
+
+	@BeforeEach
+	void setUp( ) {
+
+		clock = new AtomicLong( TimeUnit.HOURS.toNanos( 1 ) );
+		cache = new VerificationResultCache( 2, 60, clock::get );
+	}
+
+	@Test
+	void testPut_DefinitiveResult_Cached( ) {
+
+		cache.put( JOHN, VerificationResult.service( VerificationResult.Status.REJECTED, "Rejected by the verification service", 1000 ) );
+
+		var cached = cache.get( new DemographicData( "John", "DOE", "1990-01-01", "other@example.com", "1234" ) );
+		assertNotNull( cached, "Entries should be keyed by the verified fields only, ignoring the case of names" );
+		assertEquals( VerificationResult.Status.REJECTED, cached.getStatus( ) );
+	}
+
+	@Test
+	void testPut_TransientResult_NotCached( ) {
+
+		cache.put( JOHN, VerificationResult.service( VerificationResult.Status.UNAVAILABLE, "Read timed out", 1000 ) );
+		cache.put( JOHN, VerificationResult.local( VerificationResult.Status.OVERLOADED, "Demographic verification is at its concurrency limit" ) );
+
+		assertNull( cache.get( JOHN ) );
+		assertEquals( 0, cache.size( ) );
+	}
+
+	@Test
+	void testGet_Expired_Null( ) {
+
+		cache.put( JOHN, VerificationResult.service( VerificationResult.Status.VERIFIED, null, 1000 ) );
+		clock.addAndGet( TimeUnit.SECONDS.toNanos( 61 ) );
+
+		assertNull( cache.get( JOHN ) );
+		assertEquals( 0, cache.size( ) );
+	}
+
+	@Test
+	void testPut_OverCapacity_EvictsLeastRecentlyUsed( ) {
+
+		var jane = new DemographicData( "jane", "doe", "1991-02-03", null, null );
+		var joe  = new DemographicData( "joe", "doe", "1992-04-05", null, null );
+		cache.put( JOHN, VerificationResult.service( VerificationResult.Status.VERIFIED, null, 1000 ) );
+		cache.put( jane, VerificationResult.service( VerificationResult.Status.VERIFIED, null, 1000 ) );
+		cache.get( JOHN );
+		cache.put( joe, VerificationResult.service( VerificationResult.Status.VERIFIED, null, 1000 ) );
+
+		assertNotNull( cache.get( JOHN ) );
+		assertNull( cache.get( jane ) );
+		assertNotNull( cache.get( joe ) );
+	}
+
+	@Test
+	void testDisabled_NothingCached( ) {
+
+		var disabled = new VerificationResultCache( 0, 60 );
+		disabled.put( JOHN, VerificationResult.service( VerificationResult.Status.VERIFIED, null, 1000 ) );
+
+		assertNull( disabled.get( JOHN ) );
+	}
+
+}
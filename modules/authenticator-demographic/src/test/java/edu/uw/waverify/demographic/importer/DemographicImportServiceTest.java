@@ -0,0 +1,185 @@
+package edu.uw.waverify.demographic.importer;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.LongStream;
+
+import org.junit.jupiter.api.Test;
+
+import edu.uw.waverify.demographic.importer.DemographicImportService.BatchProcessor;
+
+import static edu.uw.waverify.demographic.importer.DemographicImportResult.Status.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+class DemographicImportServiceTest {
+
+	private static final String HEADER = "firstName,lastName,dateOfBirth,email\n";
+
+	private static
+	DemographicRowReader csv( String rows ) throws IOException {
+
+		return DemographicRowReader.open( new ByteArrayInputStream( ( HEADER + rows ).getBytes( StandardCharsets.UTF_8 ) ), true );
+	}
+
+	private static
+	String rows( int count ) {
+
+		var rows = new StringBuilder( );
+		for ( int i = 1; i <= count; i++ ) {
+			rows.append( "Jane,Doe,1990-01-01,user" )
+			    .append( i )
+			    .append( "@example.com\n" );
+		}
+		return rows.toString( );
+	}
+
+	private static
+	List< DemographicImportResult > created( List< DemographicImportService.Row > rows ) {
+
+		return rows.stream( )
+		           .map( row -> new DemographicImportResult( row.number( ), row.data( )
+		                                                                 .getEmail( ), CREATED, null ) )
+		           .toList( );
+	}
+
+	private static
+	List< DemographicImportResult > run( DemographicImportService service, DemographicRowReader reader, long skip ) {
+
+		var results = Collections.synchronizedList( new ArrayList< DemographicImportResult >( ) );
+		service.importRows( "realm", reader, skip, null, false, results::add );
+		return results;
+	}
+
+	@Test
+	void testImportRows_LaterBatchFinishesFirst_ReportedInRowOrder( ) throws IOException {
+
+		var secondDone = new CountDownLatch( 1 );
+		BatchProcessor processor = ( realmId, rows, verify ) -> {
+			try {
+				if ( rows.get( 0 )
+				         .number( ) == 1 ) {
+					assertTrue( secondDone.await( 5, TimeUnit.SECONDS ), "Second batch should run while the first is held up" );
+				} else {
+					secondDone.countDown( );
+				}
+			} catch ( InterruptedException e ) {
+				throw new IllegalStateException( e );
+			}
+			return created( rows );
+		};
+
+		var results = run( new DemographicImportService( 2, 2, processor ), csv( rows( 6 ) ), 0 );
+
+		assertEquals( List.of( 1L, 2L, 3L, 4L, 5L, 6L ), results.stream( )
+		                                                       .map( DemographicImportResult::getRow )
+		                                                       .toList( ) );
+	}
+
+	@Test
+	void testImportRows_InvalidRows_ReportedInPlace( ) throws IOException {
+
+		var service = new DemographicImportService( 2, 2, ( realmId, rows, verify ) -> created( rows ) );
+
+		var results = run( service, csv( "Jane,Doe,1990-01-01,a@example.com\nJane,,1990-01-01,b@example.com\n\"broken\nJane,Doe,1990-01-01,d@example.com\n" ), 0 );
+
+		assertEquals( List.of( 1L, 2L, 3L, 4L ), results.stream( )
+		                                               .map( DemographicImportResult::getRow )
+		                                               .toList( ) );
+		assertEquals( List.of( CREATED, INVALID, INVALID, CREATED ), results.stream( )
+		                                                                    .map( DemographicImportResult::getStatus )
+		                                                                    .toList( ) );
+	}
+
+	@Test
+	void testImportRows_Skip_ResumesAfterReportedRows( ) throws IOException {
+
+		var service = new DemographicImportService( 3, 2, ( realmId, rows, verify ) -> created( rows ) );
+
+		var results = run( service, csv( rows( 10 ) ), 4 );
+
+		assertEquals( LongStream.rangeClosed( 5, 10 )
+		                        .boxed( )
+		                        .toList( ), results.stream( )
+		                                           .map( DemographicImportResult::getRow )
+		                                           .toList( ) );
+	}
+
+	@Test
+	void testImportRows_SameEmailInSeveralBatches_NeverConcurrent( ) throws IOException {
+
+		var active  = ConcurrentHashMap.< String >newKeySet( );
+		var overlap = new ArrayList< String >( );
+		BatchProcessor processor = ( realmId, rows, verify ) -> {
+			var emails = rows.stream( )
+			                 .map( row -> row.data( )
+			                                 .getEmail( ) )
+			                 .distinct( )
+			                 .toList( );
+			for ( var email : emails ) {
+				if ( !active.add( email ) ) {
+					synchronized ( overlap ) {
+						overlap.add( email );
+					}
+				}
+			}
+			try {
+				Thread.sleep( 5 );
+			} catch ( InterruptedException e ) {
+				throw new IllegalStateException( e );
+			}
+			emails.forEach( active::remove );
+			return created( rows );
+		};
+
+		var upload = new StringBuilder( );
+		for ( int i = 0; i < 20; i++ ) {
+			upload.append( "Jane,Doe,1990-01-01," )
+			      .append( i % 2 == 0 ? "same@example.com" : "SAME@example.com" )
+			      .append( '\n' );
+		}
+		var results = run( new DemographicImportService( 1, 4, processor ), csv( upload.toString( ) ), 0 );
+
+		assertEquals( 20, results.size( ) );
+		assertEquals( List.of( ), overlap, "Batches holding the same email must not run at the same time" );
+	}
+
+	@Test
+	void testImportRows_FailedBatch_ReportedAsFailed( ) throws IOException {
+
+		var service = new DemographicImportService( 2, 2, ( realmId, rows, verify ) -> {
+			if ( rows.get( 0 )
+			         .number( ) == 3 ) {
+				throw new IllegalStateException( "commit failed" );
+			}
+			return created( rows );
+		} );
+
+		var results = run( service, csv( rows( 6 ) ), 0 );
+
+		assertEquals( List.of( CREATED, CREATED, FAILED, FAILED, CREATED, CREATED ), results.stream( )
+		                                                                                    .map( DemographicImportResult::getStatus )
+		                                                                                    .toList( ) );
+	}
+
+	@Test
+	void testImportRows_NonPositiveBatchSize_Rejected( ) throws IOException {
+
+		var service = new DemographicImportService( 2, 2, ( realmId, rows, verify ) -> created( rows ) );
+		var reader  = csv( rows( 2 ) );
+
+		assertThrows( IllegalArgumentException.class, ( ) -> service.importRows( "realm", reader, 0, 0, false, result -> { } ) );
+	}
+
+	@Test
+	void testConstructor_NonPositiveParallelismOrBatchSize_Rejected( ) {
+
+		assertThrows( IllegalArgumentException.class, ( ) -> new DemographicImportService( 2, 0, ( realmId, rows, verify ) -> created( rows ) ) );
+		assertThrows( IllegalArgumentException.class, ( ) -> new DemographicImportService( 0, 2, ( realmId, rows, verify ) -> created( rows ) ) );
+	}
+
+}
@@ -0,0 +1,58 @@
+package edu.uw.waverify.demographic.importer;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.jupiter.api.Test;
+
+import edu.uw.waverify.demographic.authenticator.verification.DemographicData;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DemographicRowReaderTest {
+
+	private static
+	DemographicRowReader open( String content, boolean csv ) throws IOException {
+
+		return DemographicRowReader.open( new ByteArrayInputStream( content.getBytes( StandardCharsets.UTF_8 ) ), csv );
+	}
+
+	@Test
+	void testCsv_HeaderOrderAndQuoting( ) throws IOException {
+
+		var reader = open( "email,lastName,firstName,dateOfBirth\njane@example.com,\"Doe, Jr.\",\"Ja\"\"ne\",1990-01-01\n\n", true );
+
+		assertEquals( new DemographicData( "Ja\"ne", "Doe, Jr.", "1990-01-01", "jane@example.com", null ), reader.next( ) );
+		assertEquals( 1, reader.getRow( ) );
+		assertNull( reader.next( ) );
+	}
+
+	@Test
+	void testCsv_MissingColumn_Rejected( ) {
+
+		assertThrows( IllegalArgumentException.class, ( ) -> open( "email,firstName\n", true ) );
+	}
+
+	@Test
+	void testCsv_MalformedRow_KeepsReading( ) throws IOException {
+
+		var reader = open( "firstName,lastName,dateOfBirth,email\n\"Jane,Doe\nJohn,Doe,1980-02-02,john@example.com\n", true );
+
+		assertThrows( IllegalArgumentException.class, reader::next );
+		assertEquals( 1, reader.getRow( ) );
+		assertEquals( "john@example.com", reader.next( )
+		                                        .getEmail( ) );
+		assertEquals( 2, reader.getRow( ) );
+	}
+
+	@Test
+	void testNdjson( ) throws IOException {
+
+		var reader = open( "{\"firstName\":\" Jane \",\"lastName\":\"Doe\",\"dateOfBirth\":\"1990-1-1\",\"email\":\"jane@example.com\",\"clinic\":\"x\"}\n", false );
+
+		assertEquals( new DemographicData( "Jane", "Doe", "1990-01-01", "jane@example.com", null ), reader.next( ) );
+		assertNull( reader.next( ) );
+	}
+
+}
@@ -0,0 +1,71 @@
+package edu.uw.waverify.pin;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PinFailureTrackerTest {
+
+	private AtomicLong        clock;
+	private PinFailureTracker tracker;
+
+	@BeforeEach
+	void setUp( ) {
+
+		clock = new AtomicLong( TimeUnit.HOURS.toNanos( 1 ) );
+		tracker = new PinFailureTracker( 3, 60, clock::get );
+	}
+
+	@Test
+	void testIsLockedOut_AfterMaxFailures( ) {
+
+		tracker.recordFailure( "realm:user" );
+		tracker.recordFailure( "realm:user" );
+		assertFalse( tracker.isLockedOut( "realm:user" ) );
+
+		tracker.recordFailure( "realm:user" );
+		assertTrue( tracker.isLockedOut( "realm:user" ) );
+		assertFalse( tracker.isLockedOut( "realm:other" ), "Other users should not be affected" );
+	}
+
+	@Test
+	void testIsLockedOut_WindowSlides( ) {
+
+		tracker.recordFailure( "realm:user" );
+		clock.addAndGet( TimeUnit.SECONDS.toNanos( 40 ) );
+		tracker.recordFailure( "realm:user" );
+		tracker.recordFailure( "realm:user" );
+		assertTrue( tracker.isLockedOut( "realm:user" ) );
+
+		clock.addAndGet( TimeUnit.SECONDS.toNanos( 30 ) );
+		assertFalse( tracker.isLockedOut( "realm:user" ), "Oldest failure should have left the window" );
+	}
+
+	@Test
+	void testIsLockedOut_StaleEntryExpires( ) {
+
+		for ( int i = 0; i < 3; i++ ) {
+			tracker.recordFailure( "realm:user" );
+		}
+		clock.addAndGet( TimeUnit.SECONDS.toNanos( 61 ) );
+
+		assertFalse( tracker.isLockedOut( "realm:user" ) );
+		assertEquals( 0, tracker.size( ) );
+	}
+
+	@Test
+	void testReset_ClearsFailures( ) {
+
+		for ( int i = 0; i < 3; i++ ) {
+			tracker.recordFailure( "realm:user" );
+		}
+		tracker.reset( "realm:user" );
+
+		assertFalse( tracker.isLockedOut( "realm:user" ) );
+	}
+
+}
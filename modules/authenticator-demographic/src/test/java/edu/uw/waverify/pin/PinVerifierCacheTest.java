@@ -0,0 +1,91 @@
+package edu.uw.waverify.pin;
+
+import org.junit.jupiter.api.Test;
+
+import edu.uw.waverify.pin.credential.PinCredentialModel;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PinVerifierCacheTest {
+
+	@Test
+	void testGet_SameCreatedDate_ReusesDecodedData( ) {
+
+		var cache  = new PinVerifierCache( 10 );
+		var stored = PinCredentialModel.createPin( "1234", "cred-1" );
+
+		var first = cache.get( stored );
+		assertSame( first.getPinSecretData( ), cache.get( stored )
+		                                            .getPinSecretData( ), "Unchanged credential should not be decoded again" );
+		assertEquals( "1234", first.getPinSecretData( )
+		                           .getPin( ) );
+	}
+
+	@Test
+	void testGet_CachedCredential_ReturnsFreshModel( ) {
+
+		var cache  = new PinVerifierCache( 10 );
+		var stored = PinCredentialModel.createPin( "1234", "cred-1" );
+		stored.setUserLabel( "PIN" );
+
+		var first = cache.get( stored );
+		first.setId( "other" );
+		first.setUserLabel( "changed" );
+		first.setCreatedDate( 0L );
+
+		var second = cache.get( stored );
+		assertNotSame( first, second );
+		assertEquals( "cred-1", second.getId( ) );
+		assertEquals( "PIN", second.getUserLabel( ) );
+		assertEquals( stored.getCreatedDate( ), second.getCreatedDate( ) );
+	}
+
+	@Test
+	void testGet_ChangedCreatedDate_DecodesAgain( ) {
+
+		var cache  = new PinVerifierCache( 10 );
+		var stored = PinCredentialModel.createPin( "1234", "cred-1" );
+		var first  = cache.get( stored );
+
+		var changed = PinCredentialModel.createPin( "5678", "cred-1" );
+		changed.setCreatedDate( stored.getCreatedDate( ) + 1 );
+
+		var second = cache.get( changed );
+		assertNotSame( first.getPinSecretData( ), second.getPinSecretData( ) );
+		assertEquals( "5678", second.getPinSecretData( )
+		                            .getPin( ) );
+	}
+
+	@Test
+	void testInvalidate_RemovesEntry( ) {
+
+		var cache  = new PinVerifierCache( 10 );
+		var stored = PinCredentialModel.createPin( "1234", "cred-1" );
+		var first  = cache.get( stored );
+
+		cache.invalidate( "cred-1" );
+
+		assertEquals( 0, cache.size( ) );
+		assertNotSame( first.getPinSecretData( ), cache.get( stored )
+		                                               .getPinSecretData( ) );
+	}
+
+	@Test
+	void testGet_EvictsLeastRecentlyUsed( ) {
+
+		var cache = new PinVerifierCache( 2 );
+		var a     = PinCredentialModel.createPin( "1111", "a" );
+		var b     = PinCredentialModel.createPin( "2222", "b" );
+		var c     = PinCredentialModel.createPin( "3333", "c" );
+
+		var cachedA = cache.get( a );
+		cache.get( b );
+		cache.get( a );
+		cache.get( c );
+
+		assertEquals( 2, cache.size( ) );
+		assertSame( cachedA.getPinSecretData( ), cache.get( a )
+		                                              .getPinSecretData( ), "Recently used entry should survive eviction" );
+	}
+
+}
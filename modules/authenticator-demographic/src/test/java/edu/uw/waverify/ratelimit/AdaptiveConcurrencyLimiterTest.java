@@ -0,0 +1,97 @@
+package edu.uw.waverify.ratelimit;
+
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class AdaptiveConcurrencyLimiterTest {
+
+	private AtomicLong                 clock;
+	private AdaptiveConcurrencyLimiter limiter;
+
+	@BeforeEach
+	void setUp( ) {
+
+		clock = new AtomicLong( TimeUnit.HOURS.toNanos( 1 ) );
+		limiter = new AdaptiveConcurrencyLimiter( 4, 2, 10, clock::get );
+	}
+
+	/**
+	 * Runs one round of {@code concurrency} calls that each take {@code rttMillis}.
+	 */
+	private
+	void round( int concurrency, long rttMillis ) {
+
+		var permits = new ArrayList< AdaptiveConcurrencyLimiter.Permit >( );
+		for ( int i = 0; i < concurrency; i++ ) {
+			var permit = limiter.tryAcquire( );
+			if ( permit != null ) {
+				permits.add( permit );
+			}
+		}
+		clock.addAndGet( TimeUnit.MILLISECONDS.toNanos( rttMillis ) );
+		permits.forEach( AdaptiveConcurrencyLimiter.Permit::success );
+	}
+
+	@Test
+	void testTryAcquire_AtLimit_Sheds( ) {
+
+		for ( int i = 0; i < 4; i++ ) {
+			assertNotNull( limiter.tryAcquire( ) );
+		}
+		assertNull( limiter.tryAcquire( ), "Calls beyond the limit should be shed" );
+		assertEquals( 4, limiter.getInFlight( ) );
+	}
+
+	@Test
+	void testLimit_GrowsWhileLatencyIsFlat( ) {
+
+		for ( int i = 0; i < 5; i++ ) {
+			round( limiter.getLimit( ), 20 );
+		}
+
+		assertEquals( 10, limiter.getLimit( ), "The limit should grow up to the maximum" );
+		assertEquals( 0, limiter.getInFlight( ) );
+	}
+
+	@Test
+	void testLimit_BacksOffWhenLatencyClimbs( ) {
+
+		round( 4, 20 );
+		var before = limiter.getLimit( );
+
+		round( limiter.getLimit( ), 100 );
+
+		assertTrue( limiter.getLimit( ) < before, "Queueing at the service should lower the limit" );
+		for ( int i = 0; i < 50; i++ ) {
+			round( limiter.getLimit( ), 100 );
+		}
+		assertEquals( 2, limiter.getLimit( ), "The limit should not fall below the minimum" );
+	}
+
+	@Test
+	void testDropped_LowersLimit( ) {
+
+		var permit = limiter.tryAcquire( );
+		permit.dropped( );
+
+		assertEquals( 3, limiter.getLimit( ) );
+		assertEquals( 0, limiter.getInFlight( ) );
+	}
+
+	@Test
+	void testFromConfig_NonPositiveMax_Unlimited( ) {
+
+		var unlimited = AdaptiveConcurrencyLimiter.fromConfig( null, "x", 1, 1, 0 );
+
+		for ( int i = 0; i < 1000; i++ ) {
+			assertNotNull( unlimited.tryAcquire( ) );
+		}
+	}
+
+}
@@ -0,0 +1,63 @@
+package edu.uw.waverify.ratelimit;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RetryBudgetTest {
+
+	@Test
+	void testTryRetry_ReserveAvailableRightAway( ) {
+
+		var budget = new RetryBudget( 10, 3 );
+
+		assertTrue( budget.tryRetry( ) );
+		assertTrue( budget.tryRetry( ) );
+		assertTrue( budget.tryRetry( ) );
+		assertFalse( budget.tryRetry( ), "Retries beyond the reserve should be refused" );
+		assertEquals( 3, budget.getRetries( ) );
+		assertEquals( 1, budget.getExhausted( ) );
+	}
+
+	@Test
+	void testOnRequest_DepositsPercentageOfTraffic( ) {
+
+		var budget = new RetryBudget( 10, 5 );
+		while ( budget.tryRetry( ) ) {
+			// drain the reserve
+		}
+
+		for ( int i = 0; i < 9; i++ ) {
+			budget.onRequest( );
+		}
+		assertFalse( budget.tryRetry( ), "Nine requests at 10% should not pay for a retry" );
+
+		budget.onRequest( );
+		assertTrue( budget.tryRetry( ), "Ten requests at 10% should pay for one retry" );
+		assertEquals( 10, budget.getRequests( ) );
+	}
+
+	@Test
+	void testOnRequest_BalanceCappedAtReserve( ) {
+
+		var budget = new RetryBudget( 50, 2 );
+
+		for ( int i = 0; i < 100; i++ ) {
+			budget.onRequest( );
+		}
+
+		assertTrue( budget.tryRetry( ) );
+		assertTrue( budget.tryRetry( ) );
+		assertFalse( budget.tryRetry( ), "Idle traffic should not save up more than the reserve" );
+	}
+
+	@Test
+	void testFromConfig_NonPositivePercent_Disabled( ) {
+
+		var budget = RetryBudget.fromConfig( null, "retryBudget", 0, 10 );
+
+		budget.onRequest( );
+		assertFalse( budget.tryRetry( ) );
+	}
+
+}
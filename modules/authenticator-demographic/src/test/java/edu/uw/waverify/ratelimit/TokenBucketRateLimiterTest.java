@@ -0,0 +1,71 @@
+package edu.uw.waverify.ratelimit;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TokenBucketRateLimiterTest {
+
+	private AtomicLong             clock;
+	private TokenBucketRateLimiter limiter;
+
+	@BeforeEach
+	void setUp( ) {
+
+		clock = new AtomicLong( TimeUnit.HOURS.toNanos( 1 ) );
+		limiter = new TokenBucketRateLimiter( 3, 60, clock::get );
+	}
+
+	@Test
+	void testTryAcquire_BurstExhausted_Rejects( ) {
+
+		assertTrue( limiter.tryAcquire( "10.0.0.1" ) );
+		assertTrue( limiter.tryAcquire( "10.0.0.1" ) );
+		assertTrue( limiter.tryAcquire( "10.0.0.1" ) );
+		assertFalse( limiter.tryAcquire( "10.0.0.1" ), "Fourth request within the burst should be rejected" );
+		assertTrue( limiter.tryAcquire( "10.0.0.2" ), "Other keys should have their own bucket" );
+	}
+
+	@Test
+	void testTryAcquire_RefillsOverTime( ) {
+
+		for ( int i = 0; i < 3; i++ ) {
+			limiter.tryAcquire( "10.0.0.1" );
+		}
+		assertFalse( limiter.tryAcquire( "10.0.0.1" ) );
+
+		clock.addAndGet( TimeUnit.MILLISECONDS.toNanos( 1500 ) );
+
+		assertTrue( limiter.tryAcquire( "10.0.0.1" ), "One request should be replenished after 1.5 seconds at 60/min" );
+		assertFalse( limiter.tryAcquire( "10.0.0.1" ) );
+	}
+
+	@Test
+	void testTryAcquire_IdleBucketsExpire( ) {
+
+		for ( int i = 0; i < 100; i++ ) {
+			limiter.tryAcquire( "10.0.1." + i );
+		}
+		assertEquals( 100, limiter.size( ) );
+
+		clock.addAndGet( TimeUnit.SECONDS.toNanos( 10 ) );
+		limiter.tryAcquire( "10.0.0.1" );
+
+		assertEquals( 1, limiter.size( ), "Buckets idle for a full refill period should be dropped" );
+	}
+
+	@Test
+	void testFromConfig_ZeroRate_Unlimited( ) {
+
+		var unlimited = TokenBucketRateLimiter.fromConfig( null, "ipRateLimit", 1, 0 );
+
+		for ( int i = 0; i < 1000; i++ ) {
+			assertTrue( unlimited.tryAcquire( "10.0.0.1" ) );
+		}
+	}
+
+}
@@ -0,0 +1,93 @@
+package edu.uw.waverify.token;
+
+import java.util.stream.Stream;
+
+import org.keycloak.authentication.AuthenticationFlowContext;
+import org.keycloak.authentication.AuthenticationFlowError;
+import org.keycloak.models.*;
+
+import edu.uw.waverify.ratelimit.TokenBucketRateLimiter;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static edu.uw.waverify.token.UserTokenGenerator.TOKEN_ATTRIBUTE;
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+class TokenAuthenticatorTest {
+
+	private static final String VALID_TOKEN = "valid-token";
+
+	private KeycloakSession    session;
+	private RealmModel         realm;
+	private UserModel          user;
+	private TokenAuthenticator authenticator;
+
+	@BeforeEach
+	void setUp( ) {
+
+		session = mock( KeycloakSession.class, RETURNS_DEEP_STUBS );
+		realm = mock( RealmModel.class );
+		user = mock( UserModel.class );
+		when( realm.getId( ) ).thenReturn( "realm" );
+		when( session.users( )
+		             .searchForUserByUserAttributeStream( eq( realm ), eq( TOKEN_ATTRIBUTE ), anyString( ) ) ).thenAnswer( invocation -> VALID_TOKEN.equals( invocation.getArgument( 2 ) ) ? Stream.of( user ) : Stream.empty( ) );
+		authenticator = new TokenAuthenticator( TokenBucketRateLimiter.fromConfig( null, "ipRateLimit", 30, 60 ), TokenBucketRateLimiter.fromConfig( null, "lookupRateLimit", 100, 1 ) );
+	}
+
+	private
+	AuthenticationFlowContext request( String clientIp, String token ) {
+
+		var context = mock( AuthenticationFlowContext.class, RETURNS_DEEP_STUBS );
+		when( context.getHttpRequest( )
+		             .getUri( )
+		             .getQueryParameters( )
+		             .getFirst( "user_token" ) ).thenReturn( token );
+		when( context.getConnection( )
+		             .getRemoteAddr( ) ).thenReturn( clientIp );
+		when( context.getRealm( ) ).thenReturn( realm );
+		when( context.getSession( ) ).thenReturn( session );
+		return context;
+	}
+
+	@Test
+	void testSubnet( ) {
+
+		assertEquals( "10.1.2.0/24", TokenAuthenticator.subnet( "10.1.2.3" ) );
+		assertEquals( "2001:db8:1:0:0:0:0:0/48", TokenAuthenticator.subnet( "2001:db8:1:2::5" ) );
+		assertEquals( "unknown", TokenAuthenticator.subnet( "unknown" ) );
+	}
+
+	@Test
+	void testAuthenticate_FloodFromManyAddresses_DoesNotLockOutValidToken( ) {
+
+		for ( int network = 0; network < 200; network++ ) {
+			for ( int i = 0; i < 40; i++ ) {
+				authenticator.authenticate( request( "10." + network + ".0.1", "guess-" + network + "-" + i ) );
+			}
+		}
+
+		var context = request( "192.168.1.10", VALID_TOKEN );
+		authenticator.authenticate( context );
+
+		verify( context ).setUser( user );
+		verify( context ).success( );
+	}
+
+	@Test
+	void testAuthenticate_FloodFromOneSubnet_Limited( ) {
+
+		for ( int host = 1; host <= 100; host++ ) {
+			authenticator.authenticate( request( "10.0.0." + host, "guess-" + host ) );
+		}
+
+		var context = request( "10.0.0.200", "guess" );
+		authenticator.authenticate( context );
+
+		verify( context ).failure( eq( AuthenticationFlowError.ACCESS_DENIED ), any( ) );
+		verify( context, never( ) ).failure( AuthenticationFlowError.UNKNOWN_USER );
+	}
+
+}
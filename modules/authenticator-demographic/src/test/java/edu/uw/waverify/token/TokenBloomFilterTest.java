@@ -0,0 +1,54 @@
+package edu.uw.waverify.token;
+
+import java.util.ArrayList;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TokenBloomFilterTest {
+
+	@Test
+	void testMightContain_AddedTokens_AlwaysFound( ) {
+
+		var filter = TokenBloomFilter.create( 10_000, 0.01 );
+		var tokens = new ArrayList< String >( );
+		for ( int i = 0; i < 10_000; i++ ) {
+			var token = UserTokenGenerator.generateToken( "user-" + i )
+			                              .getHashedToken( );
+			tokens.add( token );
+			filter.put( token );
+		}
+
+		tokens.forEach( token -> assertTrue( filter.mightContain( token ), "Added token must never be reported as absent" ) );
+	}
+
+	@Test
+	void testMightContain_UnknownTokens_FalsePositiveRateNearTarget( ) {
+
+		var filter = TokenBloomFilter.create( 10_000, 0.01 );
+		for ( int i = 0; i < 10_000; i++ ) {
+			filter.put( UserTokenGenerator.generateToken( "user-" + i )
+			                              .getHashedToken( ) );
+		}
+
+		var falsePositives = 0;
+		for ( int i = 0; i < 10_000; i++ ) {
+			if ( filter.mightContain( "garbage-" + i ) ) {
+				falsePositives++;
+			}
+		}
+
+		assertTrue( falsePositives < 300, "False positive rate should stay close to 1%, was " + falsePositives + " in 10000" );
+	}
+
+	@Test
+	void testMightContain_EmptyFilter_RejectsEverything( ) {
+
+		var filter = TokenBloomFilter.create( 100, 0.01 );
+
+		assertFalse( filter.mightContain( "anything" ) );
+		assertFalse( filter.mightContain( "" ) );
+	}
+
+}
@@ -0,0 +1,94 @@
+package edu.uw.waverify.token;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.time.Duration;
+import java.util.Base64;
+import java.util.HashSet;
+
+import org.keycloak.models.*;
+
+import org.junit.jupiter.api.Test;
+
+import static edu.uw.waverify.token.UserTokenGenerator.*;
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+class UserTokenGeneratorTest {
+
+	private static
+	String referenceHash( String userId, String nonce ) throws Exception {
+
+		var hash = MessageDigest.getInstance( "SHA-256" )
+		                        .digest( ( userId + ":" + nonce ).getBytes( StandardCharsets.UTF_8 ) );
+		return Base64.getUrlEncoder( )
+		             .withoutPadding( )
+		             .encodeToString( hash );
+	}
+
+	@Test
+	void testIsExpired_LegacyTokenWithoutIssueTime_IsLive( ) {
+
+		assertFalse( UserTokenGenerator.isExpired( null, System.currentTimeMillis( ) ) );
+	}
+
+	@Test
+	void testIsExpired_TokenOlderThanTtl_IsExpired( ) {
+
+		var now = System.currentTimeMillis( );
+		var ttl = UserTokenGenerator.getTokenTtl( );
+
+		assertFalse( UserTokenGenerator.isExpired( Long.toString( now - ttl.toMillis( ) + 1000 ), now ) );
+		assertTrue( UserTokenGenerator.isExpired( Long.toString( now - ttl.toMillis( ) - 1000 ), now ) );
+	}
+
+	@Test
+	void testIsExpired_ZeroTtl_NeverExpires( ) {
+
+		var ttl = UserTokenGenerator.getTokenTtl( );
+		try {
+			UserTokenGenerator.setTokenTtl( Duration.ZERO );
+			assertFalse( UserTokenGenerator.isExpired( "0", System.currentTimeMillis( ) ) );
+		} finally {
+			UserTokenGenerator.setTokenTtl( ttl );
+		}
+	}
+
+	@Test
+	void testGenerateAndStoreToken_StoresNonceAndHash( ) throws Exception {
+
+		var user = mock( UserModel.class );
+		when( user.getId( ) ).thenReturn( "user-1" );
+
+		var tokenData = UserTokenGenerator.generateAndStoreToken( mock( KeycloakSession.class ), mock( RealmModel.class ), user );
+
+		verify( user ).setSingleAttribute( NONCE_ATTRIBUTE, tokenData.getNonce( ) );
+		verify( user ).setSingleAttribute( TOKEN_ATTRIBUTE, tokenData.getHashedToken( ) );
+		verify( user ).setSingleAttribute( eq( ISSUED_AT_ATTRIBUTE ), anyString( ) );
+		assertEquals( 22, tokenData.getNonce( )
+		                           .length( ), "128-bit nonce should encode to 22 base64url characters" );
+	}
+
+	@Test
+	void testGenerateToken_MatchesConcatenatedHash( ) throws Exception {
+
+		var userId    = "f3b0c442-98fc-4c14-9afb-4f2a1c3b5e6d";
+		var tokenData = UserTokenGenerator.generateToken( userId );
+
+		assertEquals( referenceHash( userId, tokenData.getNonce( ) ), tokenData.getHashedToken( ) );
+	}
+
+	@Test
+	void testGenerateToken_ProducesDistinctTokens( ) {
+
+		var tokens = new HashSet< String >( );
+		for ( int i = 0; i < 1000; i++ ) {
+			tokens.add( UserTokenGenerator.generateToken( "user-1" )
+			                              .getHashedToken( ) );
+		}
+
+		assertEquals( 1000, tokens.size( ), "Every generated token should be unique" );
+	}
+
+}
@@ -0,0 +1,106 @@
+package edu.uw.waverify.token.backfill;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.IntStream;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TokenBackfillServiceTest {
+
+	@Test
+	void testBackfill_PagesByLastUserId_EachUserWrittenOnce( ) {
+
+		var users   = new TreeSet<>( IntStream.range( 0, 25 )
+		                                      .mapToObj( i -> String.format( "user-%03d", i ) )
+		                                      .toList( ) );
+		var afters  = Collections.synchronizedList( new ArrayList< String >( ) );
+		var written = ConcurrentHashMap.< String >newKeySet( );
+		var service = new TokenBackfillService( ( realmId, afterId, max ) -> {
+			afters.add( afterId );
+			return users.tailSet( afterId, false )
+			            .stream( )
+			            .limit( max )
+			            .toList( );
+		}, ( realmId, userIds ) -> {
+			userIds.forEach( userId -> assertTrue( written.add( userId ), "User written twice: " + userId ) );
+			return userIds.size( );
+		}, 10, 2 );
+
+		var result = service.backfill( "realm", null );
+
+		assertEquals( users, written );
+		assertEquals( 25, result.getScanned( ) );
+		assertEquals( 25, result.getGenerated( ) );
+		assertEquals( 0, result.getFailedBatches( ) );
+		assertEquals( List.of( "", "user-009", "user-019" ), afters );
+	}
+
+	@Test
+	void testBackfill_FullLastPage_StopsOnEmptyPage( ) {
+
+		var users   = List.of( "a", "b", "c", "d" );
+		var reads   = new ArrayList< String >( );
+		var service = new TokenBackfillService( ( realmId, afterId, max ) -> {
+			reads.add( afterId );
+			return users.stream( )
+			            .filter( user -> user.compareTo( afterId ) > 0 )
+			            .limit( max )
+			            .toList( );
+		}, ( realmId, userIds ) -> userIds.size( ), 2, 1 );
+
+		var result = service.backfill( "realm", null );
+
+		assertEquals( 4, result.getGenerated( ) );
+		assertEquals( List.of( "", "b", "d" ), reads );
+	}
+
+	@Test
+	void testBackfill_FailedBatch_CountedAndOthersContinue( ) {
+
+		var service = new TokenBackfillService( ( realmId, afterId, max ) -> afterId.isEmpty( ) ? List.of( "a", "b" ) : afterId.equals( "b" ) ? List.of( "c" ) : List.of( ), ( realmId, userIds ) -> {
+			if ( userIds.contains( "a" ) ) {
+				throw new IllegalStateException( "write failed" );
+			}
+			return userIds.size( );
+		}, 2, 1 );
+
+		var result = service.backfill( "realm", null );
+
+		assertEquals( 3, result.getScanned( ) );
+		assertEquals( 1, result.getGenerated( ) );
+		assertEquals( 1, result.getFailedBatches( ) );
+	}
+
+	@Test
+	void testBackfill_RequestedBatchSize_UsedAsPageSize( ) {
+
+		var sizes   = new ArrayList< Integer >( );
+		var service = new TokenBackfillService( ( realmId, afterId, max ) -> {
+			sizes.add( max );
+			return List.of( );
+		}, ( realmId, userIds ) -> 0, 100, 1 );
+
+		service.backfill( "realm", 7 );
+
+		assertEquals( List.of( 7 ), sizes );
+	}
+
+	@Test
+	void testBackfill_NonPositiveBatchSize_Rejected( ) {
+
+		var service = new TokenBackfillService( ( realmId, afterId, max ) -> List.of( ), ( realmId, userIds ) -> 0, 100, 1 );
+
+		assertThrows( IllegalArgumentException.class, ( ) -> service.backfill( "realm", 0 ) );
+	}
+
+	@Test
+	void testConstructor_NonPositiveParallelismOrBatchSize_Rejected( ) {
+
+		assertThrows( IllegalArgumentException.class, ( ) -> new TokenBackfillService( ( realmId, afterId, max ) -> List.of( ), ( realmId, userIds ) -> 0, 100, 0 ) );
+		assertThrows( IllegalArgumentException.class, ( ) -> new TokenBackfillService( ( realmId, afterId, max ) -> List.of( ), ( realmId, userIds ) -> 0, 0, 1 ) );
+	}
+
+}